@@ -68,24 +68,23 @@ public class GApplicationState implements Serializable{
       if(paneCountInteger == null) return ;
       int paneCount = paneCountInteger.intValue();
 
+      //each pane is made at its saved view, and only drawn once it is shown
       for(int i=0;i<paneCount;i++){
-         GPane pane = new GPane(gui);
-
          //get the title
          String title = (String)map.get("title["+i+"]");
          if(title == null) continue ;
-         gui.getTabbedPane().add(pane, title);
 
-         //get the center
+         //get the center and the zoom
          GPhysicalPoint center = (GPhysicalPoint)map.get("center["+i+"]");
-         if(center == null) continue ;
-         pane.setCenter(center);
-
-         //get the zoom
          Integer zoomInteger = (Integer)map.get("zoom["+i+"]");
-         if(zoomInteger == null) continue ;
-         int zoom = zoomInteger.intValue();
-         pane.setZoom(zoom);
+         GPane pane;
+         if(center == null || zoomInteger == null || zoomInteger.intValue() < GPhysicalPoint.MIN_ZOOM || zoomInteger.intValue() > GPhysicalPoint.MAX_ZOOM){
+            pane = new GPane(gui);
+            if(center != null) pane.setCenter(center);
+         }else{
+            pane = new GPane(gui, center, zoomInteger.intValue(), false, (GPhysicalPoint.MIN_ZOOM - 1), GPane.SELECTION_MODE);
+         }
+         gui.getTabbedPane().add(pane, title);
       }
 
    }
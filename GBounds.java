@@ -0,0 +1,173 @@
+import java.awt.*;
+import java.io.Serializable;
+
+/**
+ * Class GBounds represents a latitude/longitude bounding box, plus a margin in
+ * pixels for the parts of an object (marker radius, stroke, label) that do not
+ * scale with the zoom level. GDraw groups cache one of these so that they can be
+ * culled and hit-tested without re-projecting every child.
+ */
+public class GBounds implements Serializable, Cloneable{
+
+   /** Declaration of the southern edge of the box */
+   private double minLatitude;
+   /** Declaration of the northern edge of the box */
+   private double maxLatitude;
+   /** Declaration of the western edge of the box */
+   private double minLongitude;
+   /** Declaration of the eastern edge of the box */
+   private double maxLongitude;
+   /** Declaration of the pixel margin around the box */
+   private Insets margin;
+
+   /**
+    * Creates a box containing a single point.
+    * @param latitude   The latitude of the point
+    * @param longitude  The longitude of the point
+    * @param margin     The pixel margin around the point
+    */
+   public GBounds(double latitude, double longitude, Insets margin){
+      this.minLatitude = latitude;
+      this.maxLatitude = latitude;
+      this.minLongitude = longitude;
+      this.maxLongitude = longitude;
+      this.margin = (Insets)margin.clone();
+   }
+
+   /**
+    * Creates a box containing a single point, with the same margin on every side.
+    * @param latitude   The latitude of the point
+    * @param longitude  The longitude of the point
+    * @param margin     The pixel margin around the point
+    */
+   public GBounds(double latitude, double longitude, int margin){
+      this(latitude, longitude, new Insets(margin, margin, margin, margin));
+   }
+
+   /**
+    * Creates a box containing a single GPhysicalPoint.
+    * @param point      The point
+    * @param margin     The pixel margin around the point
+    */
+   public GBounds(GPhysicalPoint point, int margin){
+      this(point.getX(), point.getY(), margin);
+   }
+
+   /** Gets the southern edge of the box. */
+   public double getMinLatitude(){
+      return minLatitude;
+   }
+
+   /** Gets the northern edge of the box. */
+   public double getMaxLatitude(){
+      return maxLatitude;
+   }
+
+   /** Gets the western edge of the box. */
+   public double getMinLongitude(){
+      return minLongitude;
+   }
+
+   /** Gets the eastern edge of the box. */
+   public double getMaxLongitude(){
+      return maxLongitude;
+   }
+
+   /** Gets the pixel margin around the box. */
+   public Insets getMargin(){
+      return margin;
+   }
+
+   /**
+    * Grows this box to contain a point.
+    * @param latitude   The latitude of the point
+    * @param longitude  The longitude of the point
+    */
+   public void add(double latitude, double longitude){
+      minLatitude = Math.min(minLatitude, latitude);
+      maxLatitude = Math.max(maxLatitude, latitude);
+      minLongitude = Math.min(minLongitude, longitude);
+      maxLongitude = Math.max(maxLongitude, longitude);
+   }
+
+   /**
+    * Grows this box to contain another box. The margin becomes the larger of the two on each side.
+    * @param other      The box to add
+    */
+   public void add(GBounds other){
+      if(other == null) return;
+      add(other.minLatitude, other.minLongitude);
+      add(other.maxLatitude, other.maxLongitude);
+      margin.top = Math.max(margin.top, other.margin.top);
+      margin.left = Math.max(margin.left, other.margin.left);
+      margin.bottom = Math.max(margin.bottom, other.margin.bottom);
+      margin.right = Math.max(margin.right, other.margin.right);
+   }
+
+   /**
+    * Moves this box by latitude, longitude.
+    * @param latitude   The amount to add to the latitude
+    * @param longitude  The amount to add to the longitude
+    */
+   public void translate(double latitude, double longitude){
+      minLatitude += latitude;
+      maxLatitude += latitude;
+      minLongitude += longitude;
+      maxLongitude += longitude;
+   }
+
+   /**
+    * Checks whether an inner box reaches any edge of this box. If it does, removing
+    * the inner box may shrink this one and the union has to be recomputed. Margins are
+    * not compared, as boxes in a union usually share one.
+    * @param inner      The inner box
+    * @return           True if the inner box touches an edge of this box
+    */
+   public boolean touchesEdge(GBounds inner){
+      if(inner == null) return false;
+      return inner.minLatitude <= minLatitude || inner.maxLatitude >= maxLatitude
+         || inner.minLongitude <= minLongitude || inner.maxLongitude >= maxLongitude;
+   }
+
+   /**
+    * Projects this box onto the screen.
+    * @param p       The upper left corner of the viewable window
+    * @param zoom    The current zoom level of the map view
+    * @return        The rectangle, including the margin. Origin is the upper left corner of the screen.
+    */
+   public Rectangle getRectangle(GPhysicalPoint p, int zoom){
+      if(p == null) return null;
+      GCalibration calibration = GPhysicalPoint.getCalibration(zoom);
+      if(calibration == null) return null;
+
+      //north is up, so the largest latitude has the smallest y
+      int x1 = calibration.getPixelX(minLongitude);
+      int x2 = calibration.getPixelX(maxLongitude);
+      int y1 = calibration.getPixelY(maxLatitude);
+      int y2 = calibration.getPixelY(minLatitude);
+
+      Point screen = p.getPixelPoint(zoom);
+      int x = Math.min(x1, x2) - screen.x - margin.left;
+      int y = Math.min(y1, y2) - screen.y - margin.top;
+      int w = Math.abs(x2 - x1) + margin.left + margin.right;
+      int h = Math.abs(y2 - y1) + margin.top + margin.bottom;
+      return new Rectangle(x, y, w, h);
+   }
+
+   /**
+    * Creates a deep copy of this box.
+    */
+   public Object clone(){
+      GBounds toReturn = new GBounds(minLatitude, minLongitude, margin);
+      toReturn.add(maxLatitude, maxLongitude);
+      return toReturn;
+   }
+
+   /**
+    * Converts this object to a string
+    */
+   public String toString(){
+      return "GBounds{"+minLatitude+", "+minLongitude+" - "+maxLatitude+", "+maxLongitude+"}";
+   }
+
+}
@@ -0,0 +1,401 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class GCacheManager keeps the cache directory of a data source in bounds. Every tile the
+ * data source hands out is noted in an access log kept in the cache directory, and a
+ * background thread walks the cache now and then:
+ * <ul>
+ * <li>tiles older than the time to live are revalidated with the server (a conditional
+ * request, so a tile that has not changed costs almost nothing);</li>
+ * <li>if the cache holds more than the quota, tiles are removed until it fits: the most
+ * detailed levels first, and within a level the least recently used (LRU) or least often
+ * used (LFU) first. Tiles at or below the kept level are never removed.</li>
+ * </ul>
+ * The walk goes a batch of files at a time and waits while tiles are being looked up or the
+ * disk is busy, so it never competes with drawing. Uses not yet logged are written when the
+ * program exits.
+ */
+public class GCacheManager{
+
+   /** The time between walks of the cache, in milliseconds */
+   public static final long INTERVAL = 10*60*1000;
+   /** The number of files handled between checks that the viewer is idle */
+   public static final int BATCH = 256;
+   /** The time without lookups after which the viewer counts as idle, in milliseconds */
+   public static final long IDLE = 2000;
+   /** The most tiles revalidated in one walk */
+   public static final int REFRESH_BATCH = 64;
+   /** The time within which more uses of a tile are not logged again, in milliseconds */
+   public static final long TOUCH_RESOLUTION = 60*1000;
+   /** The name of the access log in the cache directory */
+   public static final String LOG_NAME = "access.log";
+
+   /** Declaration of the data source whose cache is managed */
+   private GDataSource source;
+   /** Declaration of the settings */
+   private long quota;
+   private boolean lfu;
+   private int keepLevel;
+   private long ttl;
+   /** Declaration of the uses of each tile, as {last time, count}, by "zoom x y" */
+   private HashMap<String,long[]> accesses = new HashMap<String,long[]>();
+   /** Declaration of the log lines not yet written */
+   private ArrayList<String> pending = new ArrayList<String>();
+   private int logLines;
+   private volatile long lastTouch;
+   /** Declaration of the thread walking the cache */
+   private Thread thread;
+   /** Declaration of the results of the last walk */
+   private long totalBytes;
+   private int totalFiles;
+   private int evicted;
+   private int refreshed;
+
+   /**
+    * Constructor for GCacheManager. The access log is written again when the program exits.
+    * @param source     The data source whose cache is managed
+    * @param quota      The most bytes the cache may hold, or 0 for no limit
+    * @param lfu        True to remove the least often used tiles first, false for the least recently used
+    * @param keepLevel  The standard tile level at and below which tiles are never removed
+    * @param ttl        The age after which tiles are revalidated in milliseconds, or 0 never to
+    */
+   public GCacheManager(GDataSource source, long quota, boolean lfu, int keepLevel, long ttl){
+      this.source = source;
+      this.quota = quota;
+      this.lfu = lfu;
+      this.keepLevel = keepLevel;
+      this.ttl = ttl;
+      Runtime.getRuntime().addShutdownHook(new Thread("Cache Manager Log"){
+         public void run(){
+            writeLog();
+         }
+      });
+   }
+
+   /**
+    * Makes the cache manager for a data source from tiles.properties: name+".quota" in
+    * megabytes, name+".eviction" (lru or lfu, lru by default), name+".keepLevel" (6 by
+    * default) and name+".ttl" in hours.
+    * @param source      The data source
+    * @param properties  The properties
+    * @param name        The name of the data source, eg. "map"
+    * @return            The cache manager, or null if neither a quota nor a time to live is set.
+    */
+   public static GCacheManager fromProperties(GDataSource source, Properties properties, String name){
+      String quota = properties.getProperty(name+".quota");
+      String ttl = properties.getProperty(name+".ttl");
+      if(quota == null && ttl == null) return null;
+      return new GCacheManager(source,
+         (quota == null) ? 0 : (long)(Double.parseDouble(quota.trim())*1024*1024),
+         properties.getProperty(name+".eviction", "lru").trim().equalsIgnoreCase("lfu"),
+         Integer.parseInt(properties.getProperty(name+".keepLevel", "6").trim()),
+         (ttl == null) ? 0 : (long)(Double.parseDouble(ttl.trim())*60*60*1000));
+   }
+
+   /**
+    * Notes that a tile was used.
+    * @param x       The horizontal coordinate
+    * @param y       The vertical coordinate
+    * @param zoom    The zoom level
+    */
+   public void touch(int x, int y, int zoom){
+      long now = System.currentTimeMillis();
+      lastTouch = now;
+      String key = zoom+" "+x+" "+y;
+      synchronized(accesses){
+         long[] access = accesses.get(key);
+         if(access == null){
+            access = new long[2];
+            accesses.put(key, access);
+         }else if(now - access[0] < TOUCH_RESOLUTION){
+            return;
+         }
+         access[0] = now;
+         access[1]++;
+         pending.add(now+" 1 "+key);
+      }
+   }
+
+   /**
+    * Starts walking the cache in the background.
+    */
+   public synchronized void start(){
+      if(thread != null) return;
+      thread = new Thread("Cache Manager"){
+         public void run(){
+            readLog();
+            while(thread == this){
+               try{
+                  walk();
+                  Thread.sleep(INTERVAL);
+               }catch(InterruptedException e){
+                  break;
+               }
+            }
+            writeLog();
+         }
+      };
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      thread.start();
+   }
+
+   /**
+    * Stops walking the cache, writing out the access log.
+    */
+   public synchronized void stop(){
+      if(thread == null) return;
+      Thread stopping = thread;
+      thread = null;
+      stopping.interrupt();
+   }
+
+   /**
+    * Walks the cache once: revalidates old tiles while adding up the sizes of the files, then,
+    * only if the cache is over its quota, removes tiles a level at a time from the most
+    * detailed until it fits.
+    * @throws InterruptedException if the manager is stopped
+    */
+   public void walk() throws InterruptedException{
+      writeLog();
+      long now = System.currentTimeMillis();
+      long total = 0;
+      int files = 0;
+      int refreshCount = 0;
+      for(int zoom = GPhysicalPoint.MIN_ZOOM; zoom <= GPhysicalPoint.MAX_ZOOM; zoom++){
+         File directory = new File(source.getCacheDirectory()+File.separator+zoom);
+         String[] names = directory.list();
+         if(names == null) continue;
+         for(int i = 0; i < names.length; i++){
+            if(i % BATCH == 0) waitForIdle();
+            int[] index = parseTileName(names[i]);
+            File file = new File(directory, names[i]);
+            if(index == null){
+               //left by a write that never finished
+               if(names[i].endsWith(".part") && now - file.lastModified() > 60*60*1000) file.delete();
+               continue;
+            }
+
+            //old tiles are checked with the server, a few each walk
+            if(ttl > 0 && refreshCount < REFRESH_BATCH && now - file.lastModified() > ttl && source.getRemoteConnection()){
+               refreshCount++;
+               try{
+                  source.refresh(index[0], index[1], zoom);
+               }catch(IOException e){
+               }
+            }
+            total += file.length();
+            files++;
+         }
+      }
+
+      int evictCount = 0;
+      if(quota > 0 && total > quota){
+         //the most detailed levels go first, down to the kept level
+         for(int zoom = GPhysicalPoint.MIN_ZOOM; zoom <= GPhysicalPoint.MAX_ZOOM && 17 - zoom > keepLevel && total > quota; zoom++){
+            ArrayList<Candidate> candidates = getCandidates(zoom);
+            for(int i = 0; i < candidates.size() && total > quota; i++){
+               if(i % BATCH == 0) waitForIdle();
+               Candidate candidate = candidates.get(i);
+               String key = zoom+" "+candidate.x+" "+candidate.y;
+               synchronized(accesses){
+                  //used again since the level was listed
+                  long[] access = accesses.get(key);
+                  if(access != null && access[0] > candidate.used) continue;
+                  accesses.remove(key);
+               }
+               String name = source.makeCachedName(candidate.x, candidate.y, zoom);
+               if(new File(name).delete()){
+                  source.isCachedMap.remove(name);
+                  total -= candidate.length;
+                  files--;
+                  evictCount++;
+               }
+            }
+         }
+         if(evictCount > 0) System.out.println("Removed "+evictCount+" tiles from "+source.getCacheDirectory()+" to keep it under "+(quota/1024)+" KB.");
+      }
+
+      synchronized(this){
+         totalBytes = total;
+         totalFiles = files;
+         evicted = evictCount;
+         refreshed = refreshCount;
+      }
+      if(logLines > 4*accesses.size() + 1024) compactLog();
+   }
+
+   /**
+    * Lists the tiles of one level in the order they are removed: the least often used first
+    * for LFU, then the least recently used.
+    * @param zoom    The zoom level
+    * @return        The tiles
+    * @throws InterruptedException if the manager is stopped
+    */
+   private ArrayList<Candidate> getCandidates(int zoom) throws InterruptedException{
+      ArrayList<Candidate> toReturn = new ArrayList<Candidate>();
+      File directory = new File(source.getCacheDirectory()+File.separator+zoom);
+      String[] names = directory.list();
+      if(names == null) return toReturn;
+      for(int i = 0; i < names.length; i++){
+         if(i % BATCH == 0) waitForIdle();
+         int[] index = parseTileName(names[i]);
+         if(index == null) continue;
+         File file = new File(directory, names[i]);
+         long[] access;
+         synchronized(accesses){
+            access = accesses.get(zoom+" "+index[0]+" "+index[1]);
+         }
+         long modified = file.lastModified();
+         toReturn.add(new Candidate(index[0], index[1], file.length(), (access == null) ? modified : Math.max(modified, access[0]), (access == null) ? 0 : access[1]));
+      }
+      Collections.sort(toReturn, new Comparator<Candidate>(){
+         public int compare(Candidate a, Candidate b){
+            if(lfu && a.uses != b.uses) return (a.uses < b.uses) ? -1 : 1;
+            if(a.used != b.used) return (a.used < b.used) ? -1 : 1;
+            return 0;
+         }
+      });
+      return toReturn;
+   }
+
+   /**
+    * A tile that may be removed, with its size and uses.
+    */
+   private static class Candidate{
+      private int x;
+      private int y;
+      private long length;
+      private long used;
+      private long uses;
+
+      private Candidate(int x, int y, long length, long used, long uses){
+         this.x = x;
+         this.y = y;
+         this.length = length;
+         this.used = used;
+         this.uses = uses;
+      }
+   }
+
+   /**
+    * Reads the coordinates of a tile from the name of its file in a cache directory.
+    * @param name    The file name, eg. "00012_00034.png"
+    * @return        {x, y}, or null if the name is not that of a tile.
+    */
+   public static int[] parseTileName(String name){
+      int split = name.indexOf('_');
+      if(split < 0 || !name.endsWith(".png")) return null;
+      try{
+         return new int[]{Integer.parseInt(name.substring(0, split)), Integer.parseInt(name.substring(split+1, name.length()-4))};
+      }catch(NumberFormatException e){
+         return null;
+      }
+   }
+
+   //waits until no tile has been looked up for a while and the disk is free
+   private void waitForIdle() throws InterruptedException{
+      if(Thread.interrupted()) throw new InterruptedException();
+      File directory = new File(source.getCacheDirectory());
+      while(System.currentTimeMillis() - lastTouch < IDLE || GTileExecutor.getDiskPermits(directory).availablePermits() < GTileExecutor.DISK_PERMITS){
+         Thread.sleep(IDLE/4);
+      }
+   }
+
+   private File getLogFile(){
+      return new File(source.getCacheDirectory(), LOG_NAME);
+   }
+
+   //reads the access log, each line being "time count zoom x y"
+   private synchronized void readLog(){
+      File file = getLogFile();
+      if(!file.isFile()) return;
+      try{
+         BufferedReader in = new BufferedReader(new FileReader(file));
+         String line;
+         while((line = in.readLine()) != null){
+            String[] fields = line.trim().split(" ");
+            if(fields.length != 5) continue;
+            try{
+               long time = Long.parseLong(fields[0]);
+               long count = Long.parseLong(fields[1]);
+               String key = fields[2]+" "+fields[3]+" "+fields[4];
+               synchronized(accesses){
+                  long[] access = accesses.get(key);
+                  if(access == null){
+                     access = new long[2];
+                     accesses.put(key, access);
+                  }
+                  access[0] = Math.max(access[0], time);
+                  access[1] += count;
+               }
+               logLines++;
+            }catch(NumberFormatException e){
+            }
+         }
+         in.close();
+      }catch(IOException e){
+         System.out.println("Problem: the access log of "+source.getCacheDirectory()+" could not be read. {"+e+"}");
+      }
+   }
+
+   //appends the pending uses to the access log; the walk and the exit may both write it
+   private synchronized void writeLog(){
+      ArrayList<String> lines;
+      synchronized(accesses){
+         if(pending.size() == 0) return;
+         lines = pending;
+         pending = new ArrayList<String>();
+      }
+      try{
+         Writer out = new BufferedWriter(new FileWriter(getLogFile(), true));
+         for(int i = 0; i < lines.size(); i++) out.write(lines.get(i)+"\n");
+         out.close();
+         logLines += lines.size();
+      }catch(IOException e){
+         System.out.println("Problem: the access log of "+source.getCacheDirectory()+" could not be written. {"+e+"}");
+      }
+   }
+
+   //rewrites the access log with one line for each tile
+   private synchronized void compactLog(){
+      File file = getLogFile();
+      File temp = new File(file.getPath()+".tmp");
+      try{
+         Writer out = new BufferedWriter(new FileWriter(temp));
+         int lines = 0;
+         synchronized(accesses){
+            Iterator<Map.Entry<String,long[]>> entries = accesses.entrySet().iterator();
+            while(entries.hasNext()){
+               Map.Entry<String,long[]> entry = entries.next();
+               out.write(entry.getValue()[0]+" "+entry.getValue()[1]+" "+entry.getKey()+"\n");
+               lines++;
+            }
+            pending.clear();
+         }
+         out.close();
+         LibGUI.replaceFile(temp, file);
+         logLines = lines;
+      }catch(IOException e){
+         temp.delete();
+         System.out.println("Problem: the access log of "+source.getCacheDirectory()+" could not be rewritten. {"+e+"}");
+      }
+   }
+
+   public synchronized long getTotalBytes(){
+      return totalBytes;
+   }
+
+   public synchronized int getTotalFiles(){
+      return totalFiles;
+   }
+
+   /**
+    * Prints out the results of the last walk.
+    */
+   public synchronized String toString(){
+      return source.getCacheDirectory()+": "+totalFiles+" tiles, "+(totalBytes/1024)+" KB"+(quota > 0 ? " of "+(quota/1024)+" KB" : "")+", "+evicted+" removed, "+refreshed+" revalidated";
+   }
+
+}
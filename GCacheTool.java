@@ -0,0 +1,394 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.imageio.ImageIO;
+
+/**
+ * Class GCacheTool works on the tile caches from the command line, without a display:
+ * <pre>
+ * java -Djava.awt.headless=true GCacheTool &lt;command&gt; [options]
+ *
+ *   seed      download the tiles of a region, or of the whole world, at a range of levels
+ *   verify    check every cached tile, reporting (or with --remove quarantining) broken ones
+ *   convert   copy a cache to (--to) or from (--from) a directory laid out as {z}/{x}/{y}.png
+ *   stats     count the cached tiles and their size at each level
+ *   export    write a mosaic of a region at one level to an image file
+ *
+ *   --mode map|satellite|hybrid         the tiles to work on (map)
+ *   --cache &lt;directory&gt;                the base cache directory (cache)
+ *   --levels &lt;from&gt;-&lt;to&gt;               the zoom levels, as in the viewer's menus (all)
+ *   --level &lt;level&gt;                     one zoom level
+ *   --region &lt;lat,lon,lat,lon[,...]&gt;    a rectangle by two corners, or a polygon
+ *   --threads &lt;n&gt;, --rate &lt;n&gt;          tiles at once, and downloads per second, for seed
+ * </pre>
+ * Tiles are read, checked and copied on the tile I/O executor, many at once. tiles.properties
+ * is read as by the viewer, so its tile providers and cache settings apply here too.
+ */
+public class GCacheTool{
+
+   /** The number of tiles worked on at once by verify, convert and stats */
+   public static final int THREADS = 32;
+   /** The most pixels an exported mosaic may have */
+   public static final long MAX_EXPORT_PIXELS = 400L*1000*1000;
+
+   /** Declaration of the options */
+   private HashMap<String,String> options = new HashMap<String,String>();
+   private GDataSource source;
+   private int minZoom = GPhysicalPoint.MIN_ZOOM;
+   private int maxZoom = GPhysicalPoint.MAX_ZOOM;
+
+   /**
+    * Runs a command.
+    * @param args    The command and its options
+    */
+   public static void main(String[] args){
+      if(args.length < 1){
+         usage();
+         return;
+      }
+      try{
+         GCacheTool tool = new GCacheTool(args);
+         String command = args[0];
+         boolean success;
+         if(command.equals("seed")) success = tool.seed();
+         else if(command.equals("verify")) success = tool.verify();
+         else if(command.equals("convert")) success = tool.convert();
+         else if(command.equals("stats")) success = tool.stats();
+         else if(command.equals("export")) success = tool.export();
+         else{
+            usage();
+            success = false;
+         }
+         System.exit(success ? 0 : 1);
+      }catch(IllegalArgumentException e){
+         System.out.println("Problem: "+e.getMessage());
+         usage();
+         System.exit(2);
+      }catch(Exception e){
+         System.out.println("Problem: {"+e+"}");
+         System.exit(1);
+      }
+   }
+
+   private static void usage(){
+      System.out.println("Usage: java -Djava.awt.headless=true GCacheTool seed|verify|convert|stats|export [options]");
+      System.out.println("   seed    [--region lat,lon,lat,lon[,...]] [--levels from-to] [--threads n] [--rate n]");
+      System.out.println("   verify  [--levels from-to] [--remove]");
+      System.out.println("   convert --to <directory> | --from <directory> [--levels from-to]");
+      System.out.println("   stats   [--levels from-to]");
+      System.out.println("   export  --region lat,lon,lat,lon --level n --out <file.png>");
+      System.out.println("   options for all: [--mode map|satellite|hybrid] [--cache <directory>]");
+   }
+
+   /**
+    * Constructor for GCacheTool.
+    * @param args    The command and its options
+    */
+   public GCacheTool(String[] args){
+      for(int i = 1; i < args.length; i++){
+         if(!args[i].startsWith("--")) throw new IllegalArgumentException("unexpected \""+args[i]+"\"");
+         String name = args[i].substring(2);
+         if(name.equals("remove")) options.put(name, "true");
+         else if(i+1 < args.length) options.put(name, args[++i]);
+         else throw new IllegalArgumentException("--"+name+" needs a value");
+      }
+
+      //the levels
+      String levels = options.get("levels");
+      if(options.get("level") != null) levels = options.get("level")+"-"+options.get("level");
+      if(levels != null){
+         int dash = levels.indexOf('-', 1);
+         try{
+            minZoom = Integer.parseInt(((dash < 0) ? levels : levels.substring(0, dash)).trim());
+            maxZoom = (dash < 0) ? minZoom : Integer.parseInt(levels.substring(dash+1).trim());
+         }catch(NumberFormatException e){
+            throw new IllegalArgumentException("levels must look like 3-9");
+         }
+         if(minZoom > maxZoom){
+            int swap = minZoom;
+            minZoom = maxZoom;
+            maxZoom = swap;
+         }
+         minZoom = Math.max(minZoom, GPhysicalPoint.MIN_ZOOM);
+         maxZoom = Math.min(maxZoom, GPhysicalPoint.MAX_ZOOM);
+      }
+
+      //the data source, made as the viewer makes it but without its tile server or cache managers;
+      //the tiles of the mode itself, not the layers drawn over them
+      String cache = options.containsKey("cache") ? options.get("cache") : "cache";
+      String mode = options.containsKey("mode") ? options.get("mode") : "map";
+      if(mode.equals("map")) source = GMap.makeDataSource(GMap.MAP_MODE, cache);
+      else if(mode.equals("satellite")) source = GMap.makeDataSource(GMap.SATELLITE_MODE, cache);
+      else if(mode.equals("hybrid")) source = GMap.makeDataSource(GMap.HYBRID_MODE, cache);
+      else throw new IllegalArgumentException("unknown mode \""+mode+"\"");
+   }
+
+   //reads --region as latitudes and longitudes; a rectangle is turned into its four corners
+   private double[][] getRegion(boolean required){
+      String region = options.get("region");
+      if(region == null){
+         if(required) throw new IllegalArgumentException("--region is needed");
+         //the whole world, as far as the map goes
+         region = "85,-180,-85,180";
+      }
+      String[] values = LibString.split(region, ',');
+      if(values.length < 4 || values.length % 2 != 0) throw new IllegalArgumentException("--region needs pairs of latitudes and longitudes");
+      double[] numbers = new double[values.length];
+      try{
+         for(int i = 0; i < values.length; i++) numbers[i] = Double.parseDouble(values[i].trim());
+      }catch(NumberFormatException e){
+         throw new IllegalArgumentException("--region needs numbers");
+      }
+      if(numbers.length == 4) numbers = new double[]{numbers[0], numbers[1], numbers[0], numbers[3], numbers[2], numbers[3], numbers[2], numbers[1]};
+      double[][] toReturn = new double[2][numbers.length/2];
+      for(int i = 0; i < numbers.length/2; i++){
+         toReturn[0][i] = numbers[2*i];
+         toReturn[1][i] = numbers[2*i+1];
+      }
+      return toReturn;
+   }
+
+   /**
+    * Downloads the tiles of a region. A seed that was stopped goes on from where it was.
+    * @return        True if every tile was tried.
+    */
+   public boolean seed(){
+      double[][] region = getRegion(false);
+      GRegionDownloader downloader = new GRegionDownloader(source, region[0], region[1], region[0].length, minZoom, maxZoom);
+      if(options.containsKey("threads")) downloader.setParallelism(Integer.parseInt(options.get("threads")));
+      if(options.containsKey("rate")) GRegionDownloader.setRate(Double.parseDouble(options.get("rate")));
+      System.out.println("Seeding "+downloader.count()+" tiles into "+source.getCacheDirectory()+"...");
+      boolean toReturn = downloader.download(null, this);
+      System.out.println(downloader.getDownloaded()+" downloaded, "+downloader.getFailed()+" failed.");
+      return toReturn && downloader.getFailed() == 0;
+   }
+
+   /**
+    * Checks and decodes every cached tile, reporting those that are broken and, with
+    * --remove, moving them to the quarantine directory so they are downloaded again.
+    * @return        True if no tile was broken.
+    */
+   public boolean verify() throws InterruptedException{
+      final boolean remove = options.containsKey("remove");
+      final AtomicLong checked = new AtomicLong();
+      final AtomicLong broken = new AtomicLong();
+      forEachTile(new TileTask(){
+         public void run(File file, int x, int y, int zoom){
+            checked.incrementAndGet();
+            try{
+               GTileExecutor.readImage(file);
+               return;
+            }catch(IOException e){
+               broken.incrementAndGet();
+               if(remove) source.quarantine(x, y, zoom, e.getMessage());
+               else System.out.println("Broken "+file+" {"+e.getMessage()+"}");
+            }
+         }
+      });
+      System.out.println(checked.get()+" tiles checked, "+broken.get()+" broken.");
+      return broken.get() == 0;
+   }
+
+   /**
+    * Copies the cache to or from a directory laid out as {z}/{x}/{y}.png, where z is the
+    * standard tile level, as read by a directory tile provider or tier.
+    * @return        True if every tile was copied.
+    */
+   public boolean convert() throws InterruptedException, IOException{
+      final AtomicLong copied = new AtomicLong();
+      final AtomicLong failed = new AtomicLong();
+      if(options.containsKey("to")){
+         final File to = new File(options.get("to"));
+         forEachTile(new TileTask(){
+            public void run(File file, int x, int y, int zoom){
+               File target = new File(to, (17 - zoom)+File.separator+x+File.separator+y+".png");
+               try{
+                  target.getParentFile().mkdirs();
+                  Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                  copied.incrementAndGet();
+               }catch(IOException e){
+                  failed.incrementAndGet();
+                  System.out.println("Problem: "+file+" could not be copied. {"+e+"}");
+               }
+            }
+         });
+      }else if(options.containsKey("from")){
+         //{z}/{x}/{y}.png
+         File from = new File(options.get("from"));
+         ArrayList<Future<?>> copies = new ArrayList<Future<?>>();
+         final Semaphore slots = new Semaphore(THREADS);
+         String[] levels = from.list();
+         for(int i = 0; levels != null && i < levels.length; i++){
+            final int zoom;
+            try{
+               zoom = 17 - Integer.parseInt(levels[i]);
+            }catch(NumberFormatException e){
+               continue;
+            }
+            if(zoom < minZoom || zoom > maxZoom) continue;
+            String[] columns = new File(from, levels[i]).list();
+            for(int j = 0; columns != null && j < columns.length; j++){
+               File column = new File(new File(from, levels[i]), columns[j]);
+               String[] rows = column.list();
+               for(int k = 0; rows != null && k < rows.length; k++){
+                  if(!rows[k].endsWith(".png")) continue;
+                  final int x, y;
+                  try{
+                     x = Integer.parseInt(columns[j]);
+                     y = Integer.parseInt(rows[k].substring(0, rows[k].length()-4));
+                  }catch(NumberFormatException e){
+                     continue;
+                  }
+                  final File file = new File(column, rows[k]);
+                  slots.acquire();
+                  GTileExecutor.submit(new Runnable(){
+                     public void run(){
+                        try{
+                           String name = source.makeCachedName(x, y, zoom);
+                           Files.copy(file.toPath(), new File(name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                           source.isCachedMap.put(name, Boolean.TRUE);
+                           copied.incrementAndGet();
+                        }catch(IOException e){
+                           failed.incrementAndGet();
+                           System.out.println("Problem: "+file+" could not be copied. {"+e+"}");
+                        }finally{
+                           slots.release();
+                        }
+                     }
+                  });
+               }
+            }
+         }
+         slots.acquire(THREADS);
+      }else{
+         throw new IllegalArgumentException("convert needs --to or --from");
+      }
+      System.out.println(copied.get()+" tiles copied, "+failed.get()+" failed.");
+      return failed.get() == 0;
+   }
+
+   /**
+    * Counts the cached tiles and their size at each level.
+    * @return        True.
+    */
+   public boolean stats() throws InterruptedException{
+      final long[] counts = new long[1 + GPhysicalPoint.MAX_ZOOM - GPhysicalPoint.MIN_ZOOM];
+      final long[] bytes = new long[counts.length];
+      final long[] oldest = new long[]{Long.MAX_VALUE};
+      final long[] newest = new long[]{0};
+      forEachTile(new TileTask(){
+         public void run(File file, int x, int y, int zoom){
+            long length = file.length();
+            long modified = file.lastModified();
+            synchronized(counts){
+               counts[zoom - GPhysicalPoint.MIN_ZOOM]++;
+               bytes[zoom - GPhysicalPoint.MIN_ZOOM] += length;
+               oldest[0] = Math.min(oldest[0], modified);
+               newest[0] = Math.max(newest[0], modified);
+            }
+         }
+      });
+      long totalCount = 0;
+      long totalBytes = 0;
+      System.out.println(source.getCacheDirectory()+":");
+      for(int zoom = minZoom; zoom <= maxZoom; zoom++){
+         int i = zoom - GPhysicalPoint.MIN_ZOOM;
+         if(counts[i] == 0) continue;
+         System.out.println("   Level "+zoom+": "+counts[i]+" tiles, "+(bytes[i]/1024)+" KB");
+         totalCount += counts[i];
+         totalBytes += bytes[i];
+      }
+      System.out.println("   Total: "+totalCount+" tiles, "+(totalBytes/1024)+" KB");
+      if(totalCount > 0) System.out.println("   Written from "+new Date(oldest[0])+" to "+new Date(newest[0]));
+      return true;
+   }
+
+   /**
+    * Writes a mosaic of a region at one level, downloading the tiles it lacks first.
+    * @return        True if the mosaic was written.
+    */
+   public boolean export() throws IOException{
+      if(!options.containsKey("out")) throw new IllegalArgumentException("export needs --out");
+      if(minZoom != maxZoom) throw new IllegalArgumentException("export needs one --level");
+      double[][] region = getRegion(true);
+
+      //the pixels the region covers at the level
+      Rectangle bounds = null;
+      for(int i = 0; i < region[0].length; i++){
+         Point point = new GPhysicalPoint(region[0][i], region[1][i]).getPixelPoint(minZoom);
+         if(point == null) throw new IllegalArgumentException("level "+minZoom+" cannot be exported");
+         if(bounds == null) bounds = new Rectangle(point);
+         else bounds.add(point);
+      }
+      if((long)bounds.width * bounds.height > MAX_EXPORT_PIXELS || bounds.width == 0 || bounds.height == 0){
+         System.out.println("Problem: the mosaic would be "+bounds.width+" by "+bounds.height+" pixels.");
+         return false;
+      }
+
+      //fetch the tiles many at once, then put them together
+      if(source.getRemoteConnection()){
+         GRegionDownloader downloader = new GRegionDownloader(source, region[0], region[1], region[0].length, minZoom, minZoom);
+         if(options.containsKey("threads")) downloader.setParallelism(Integer.parseInt(options.get("threads")));
+         downloader.download(null, this);
+      }
+      File out = new File(options.get("out"));
+      String name = out.getName();
+      String format = (name.lastIndexOf('.') < 0) ? "png" : name.substring(name.lastIndexOf('.')+1).toLowerCase();
+      //formats such as jpeg have no transparency
+      BufferedImage image = new BufferedImage(bounds.width, bounds.height, format.equals("png") ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics2D = image.createGraphics();
+      int size = GDataSource.sourceSize.width;
+      for(int y = bounds.y/size; y <= (bounds.y + bounds.height - 1)/size; y++){
+         for(int x = bounds.x/size; x <= (bounds.x + bounds.width - 1)/size; x++){
+            BufferedImage tile = source.getImage(x, y, minZoom, false);
+            if(tile != null) graphics2D.drawImage(tile, x*size - bounds.x, y*size - bounds.y, null);
+         }
+      }
+      graphics2D.dispose();
+      if(!ImageIO.write(image, format, out)){
+         System.out.println("Problem: no writer for "+format+" images.");
+         return false;
+      }
+      System.out.println("Wrote "+out+" ("+bounds.width+" by "+bounds.height+" pixels).");
+      return true;
+   }
+
+   /**
+    * Work done on one cached tile.
+    */
+   private interface TileTask{
+      public void run(File file, int x, int y, int zoom);
+   }
+
+   //runs a task on every cached tile at the levels, many at once
+   private void forEachTile(final TileTask task) throws InterruptedException{
+      final Semaphore slots = new Semaphore(THREADS);
+      for(int zoom = minZoom; zoom <= maxZoom; zoom++){
+         File directory = new File(source.getCacheDirectory()+File.separator+zoom);
+         String[] names = directory.list();
+         for(int i = 0; names != null && i < names.length; i++){
+            final int[] index = GCacheManager.parseTileName(names[i]);
+            if(index == null) continue;
+            final File file = new File(directory, names[i]);
+            final int thisZoom = zoom;
+            slots.acquire();
+            GTileExecutor.submit(new Runnable(){
+               public void run(){
+                  try{
+                     task.run(file, index[0], index[1], thisZoom);
+                  }finally{
+                     slots.release();
+                  }
+               }
+            });
+         }
+      }
+      slots.acquire(THREADS);
+      slots.release(THREADS);
+   }
+
+}
@@ -15,6 +15,8 @@ import java.awt.geom.*;
 
 class GCalibration implements Serializable{
 
+   static final long serialVersionUID = 2565433847422905171L;
+
    /*
    * GCalibration accepts two calibration points in pixels and lat/long
    * it then provides methods that can convert between them
@@ -95,6 +97,26 @@ class GCalibration implements Serializable{
       return new Point((int)xy, (int)yy);
    }
 
+   /**
+    * Computes only the pixel x coordinate of a longitude, without allocating a Point.
+    * @param longitude The longitude
+    * @return X pixel number
+    */
+   public int getPixelX(double longitude){
+      double xm = (pixelOnEquator.x - pixel2.x)/(degToRad(physicalOnEquator.y) - degToRad(physical2.y));
+      double xb = pixelOnEquator.x - xm * degToRad(physicalOnEquator.y);
+      return (int)(xm * degToRad(longitude) + xb);
+   }
+
+   /**
+    * Computes only the pixel y coordinate of a latitude, without allocating a Point.
+    * @param latitude The latitude
+    * @return Y pixel number
+    */
+   public int getPixelY(double latitude){
+      return (int)((M)*(0.5)*Math.log( (-1.0)* (Math.sin(degToRad(latitude)) + 1.0)/(Math.sin(degToRad(latitude)) - 1.0)) + B);
+   }
+
    public DoublePoint getPhysicalPoint(Point pixel){
       //compute x
       double xm = (degToRad(physicalOnEquator.y) - degToRad(physical2.y))/(pixelOnEquator.x - pixel2.x);
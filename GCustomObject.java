@@ -23,6 +23,7 @@ import java.awt.geom.*;
   */
 
 public abstract class GCustomObject implements GDrawableObject{
+   static final long serialVersionUID = 521746252817812115L;
 
    //private
    transient private AlphaComposite alpha;
@@ -38,7 +39,7 @@ public abstract class GCustomObject implements GDrawableObject{
    public GCustomObject(float opacity, int stroke, Color color, Color background){
       this.opacity = opacity;
       this.stroke = stroke;
-      this.alpha = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity);
+      this.alpha = GRenderContext.getAlphaComposite(opacity);
       this.color = color;
       this.background = background;
    }
@@ -121,7 +122,7 @@ public abstract class GCustomObject implements GDrawableObject{
    * This method only calls update unless it is overidden. Subclassers should be sure to call
    * this method when overriding draw(), otherwise the alpha may not match the opacity value.
    */
-   public void draw(BufferedImage image, GPhysicalPoint p, int zoom){
+   public void draw(GRenderContext context){
       update();
    }
 
@@ -135,7 +136,7 @@ public abstract class GCustomObject implements GDrawableObject{
       if(alpha == null) updateAlpha = true;
       else if(alpha.getAlpha() != opacity) updateAlpha = true;
       //do it
-      if(updateAlpha) alpha = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity);
+      if(updateAlpha) alpha = GRenderContext.getAlphaComposite(opacity);
    }
 
 }
\ No newline at end of file
@@ -41,9 +41,11 @@ public abstract class GDataSource {
    protected Hashtable<String,GDataImage> ramCache;
    protected ArrayList<String> ramCacheQueue;
    protected int lastPointer;
-   protected Thread downloadThread;
    protected boolean remoteConnection;
-   protected HashMap<String, Boolean> isCachedMap;
+   protected Map<String, Boolean> isCachedMap;
+   protected ArrayList<GTileTier> tiers;
+   protected GCacheManager cacheManager;
+   protected GNegativeCache negativeCache;
 
    /**
     * Constructor
@@ -57,7 +59,9 @@ public abstract class GDataSource {
       this.downloadQueue = new ConcurrentLinkedQueue<GDataImage>();
       this.queueSize = 0;
       remoteConnection = true;
-      isCachedMap = new HashMap<String,Boolean>();
+      isCachedMap = Collections.synchronizedMap(new HashMap<String,Boolean>());
+      tiers = GTileTier.makeChain(this, new Properties(), "");
+      negativeCache = new GNegativeCache(new File(cacheDirectory, "negative.cache"));
       verifyCacheDirectories();
    }
 
@@ -70,7 +74,7 @@ public abstract class GDataSource {
     * @param zoom The zoom level
     * @param image The image to add to RAM.
     */
-   public void addImageToRAM(int x, int y, int zoom, BufferedImage image){
+   public synchronized void addImageToRAM(int x, int y, int zoom, BufferedImage image){
       //ramCache[lastPointer] = new GDataImage(image,x,y,zoom);
       //lastPointer++;
       //if(lastPointer >= ramCache.length) lastPointer = 0;
@@ -82,6 +86,17 @@ public abstract class GDataSource {
      ramCacheQueue.add(key);
    }
 
+   /**
+    * removes an image from ram, eg. when a newer one was cached.
+    * @param x The horizontal coordinate
+    * @param y The vertical coordinate
+    * @param zoom The zoom level
+    */
+   public synchronized void removeImageFromRAM(int x, int y, int zoom){
+     String key = x + " " + y + " " + zoom;
+     if (ramCache.remove(key) != null) ramCacheQueue.remove(key);
+   }
+
    /**
     * Checks to see if the image (<tt>x</tt>,<tt>y</tt>) at the specified zoom
     * level exists. If not, then it will download the image and store it in
@@ -101,37 +116,25 @@ public abstract class GDataSource {
    }
 
    /**
-    * Iterates through the download queue and caches every image. Then, it
-    * removes that image from the queue.
+    * Caches every image in the download queue, removing them from it. The downloads run on
+    * the tile I/O executor; those not begun when abortQueue is called are dropped.
     */
    public void downloadQueue() {
-     downloadThread = new Thread(new Runnable() {
-       public void run() {
-         GDataImage img;
-
-            synchronized (downloadQueue) {
-               //System.out.println(downloadQueue.size());
-               resetAbortFlag();
-               while ((img = downloadQueue.poll()) != null) {
-                  //System.out.println("   from Q: " +img);
-                  cache(img.getX(), img.getY(), img.getZoom());
-                  if(getAbortFlag()){
-                     System.out.println("ABORT");
-                     emptyQueue();
-                     return;
-                  }
-                  queueSize--;
-
+      resetAbortFlag();
+      final int generation = queueGeneration;
+      GDataImage img;
+      synchronized (downloadQueue) {
+         while ((img = downloadQueue.poll()) != null) {
+            queueSize--;
+            final GDataImage tile = img;
+            GTileExecutor.submit(new Runnable() {
+               public void run() {
+                  if (generation != queueGeneration) return;
+                  cache(tile.getX(), tile.getY(), tile.getZoom());
                }
-            }
-       }
-      });
-
-     try{
-        downloadThread.setPriority(Thread.MIN_PRIORITY);
-        downloadThread.start();
-     }
-     catch(Exception e){}
+            });
+         }
+      }
    }
 
 
@@ -153,8 +156,14 @@ public abstract class GDataSource {
    protected boolean abortFlag;
    public void abortQueue(){
       abortFlag = true;
+      queueGeneration++;
    }
 
+   /**
+    * The number of times the queue was aborted, so downloads queued before an abort can tell.
+    */
+   protected volatile int queueGeneration;
+
    /**
     * Get the status of the abort flag.
     * @return Status of the abort flag.
@@ -193,14 +202,71 @@ public abstract class GDataSource {
     */
    public void setRemoteConnection(boolean remoteConnection){
       this.remoteConnection = remoteConnection;
+      GTileTier upstream = getTier("upstream");
+      if(upstream != null) upstream.setEnabled(remoteConnection);
+   }
+
+   /**
+    * Gets the tiers looked in for tiles, in order.
+    * @return The tiers.
+    */
+   public ArrayList<GTileTier> getTiers(){
+      return tiers;
+   }
+
+   /**
+    * Gets a tier by name.
+    * @param name The name, eg. "disk"
+    * @return The tier, or null if there is none by that name.
+    */
+   public GTileTier getTier(String name){
+      for(int i = 0; i < tiers.size(); i++){
+         if(tiers.get(i).getName().equals(name)) return tiers.get(i);
+      }
+      return null;
+   }
+
+   /**
+    * Gets the manager keeping the cache directory in bounds.
+    * @return The manager, or null if the cache is not managed.
+    */
+   public GCacheManager getCacheManager(){
+      return cacheManager;
+   }
+
+   /**
+    * Gets the tiles the server did not have or failed to send, which are not asked for
+    * again for a while.
+    * @return The negative cache.
+    */
+   public GNegativeCache getNegativeCache(){
+      return negativeCache;
+   }
+
+   /**
+    * Sets the manager keeping the cache directory in bounds, stopping any it replaces.
+    * @param cacheManager The manager, or null to leave the cache unmanaged.
+    */
+   public void setCacheManager(GCacheManager cacheManager){
+      if(this.cacheManager != null) this.cacheManager.stop();
+      this.cacheManager = cacheManager;
+      if(cacheManager != null) cacheManager.start();
+   }
+
+   /**
+    * Sets the tiers looked in for tiles, in order (see GTileTier.makeChain).
+    * @param tiers The tiers.
+    */
+   public void setTiers(ArrayList<GTileTier> tiers){
+      this.tiers = tiers;
+      setRemoteConnection(remoteConnection);
    }
 
 
    /**
     * This method will return the image corresponding to the specified point
-    * and zoom level. The image could be in any of three places: RAM, memory,
-    * or the Google servers. This method checks the RAM before the memory and
-    * only checks remotely if it was not found locally.
+    * and zoom level. The image is looked for in each tier in turn: by default
+    * RAM, then the cache directory, then the Google servers.
     * <p>
     * Furthermore, this method will queue for download all adjacent images as
     * well as images at all higher zoom levels.
@@ -229,88 +295,143 @@ public abstract class GDataSource {
       //try to determine if index is invalid
       if(!isValidIndex(x,y,zoom)) return null;
 
-
-      /* try getting image from RAM */
-      BufferedImage ramImage = getImageFromRAM(x,y,zoom);
-      if (ramImage != null) {
+      //ask each tier in turn
+      ArrayList<GTileTier> chain = tiers;
+      for (int i = 0; i < chain.size(); i++) {
+         GTileTier tier = chain.get(i);
+         if (!tier.isEnabled()) continue;
+         BufferedImage image = tier.lookup(x, y, zoom);
+         if (image == null) continue;
+
+         //tiles from past the first tier are brought to the tile size and written back
+         if (i > 0) {
+            BufferedImage thumbImage = new BufferedImage(sourceSize.width, sourceSize.height, getImageType());
+            Graphics2D graphics2D = thumbImage.createGraphics();
+            graphics2D.drawImage(image, 0, 0, sourceSize.width, sourceSize.height, null);
+            graphics2D.dispose();
+            image = thumbImage;
+            for (int j = 0; j < i; j++) {
+               if (!chain.get(j).isWriteBack() || !chain.get(j).isEnabled()) continue;
+               try {
+                  chain.get(j).store(x, y, zoom, image);
+               } catch(IOException e) {
+                  System.out.println("{"+e+"}");
+               }
+            }
+         }
+         if (cacheManager != null) cacheManager.touch(x, y, zoom);
          queueHigherLevels(x, y, zoom);
          if (findAdjacent) {
             queueAdjacent(x,y,zoom);
          }
-         return ramImage;
+         return image;
       }
+      return null;
+   }
 
-      //allocate space for the return
-      BufferedImage thumbImage = new BufferedImage(sourceSize.width, sourceSize.height, BufferedImage.TYPE_INT_ARGB);
-      Graphics2D graphics2D = thumbImage.createGraphics();
-
-      // try accessing local image
-      try {
-         //System.out.println("Load local image ("+x+","+y+") zoom="+zoom);
-         //build source string
-         String thisFile = makeCachedName(x,y,zoom);
-         // load image from INFILE
-         Image image = Toolkit.getDefaultToolkit().createImage(thisFile);
-         MediaTracker mediaTracker = new MediaTracker(new Container());
-         mediaTracker.addImage(image, 0);
-         mediaTracker.waitForID(0);
-
-         if (!(mediaTracker.isErrorAny()))
-         {
-            graphics2D.drawImage(image, 0, 0, sourceSize.width, sourceSize.height, null);
-            addImageToRAM(x,y,zoom,thumbImage);
-            queueHigherLevels(x, y, zoom);
-            if (findAdjacent) {
-               queueAdjacent(x,y,zoom);
-            }
-            isCachedMap.put(thisFile, Boolean.TRUE);
-            return thumbImage;
-         }
-      } catch(Exception e) {
+   /**
+    * Loads an image that is in neither RAM nor the local cache from where this data
+    * source gets its images. getImage stores what is returned in both caches. By default
+    * this downloads the image named by makeRemoteName.
+    * @param x The horizontal coordinate
+    * @param y The vertical coordinate
+    * @param zoom The zoom level
+    * @return The image, or null if it could not be loaded.
+    * @throws Exception if loading failed
+    */
+   protected BufferedImage loadSourceImage(int x, int y, int zoom) throws Exception{
+      System.out.print("Load remote image ("+x+","+y+") zoom="+zoom);
+      //build source string
+      String thisFile = makeRemoteName(x,y,zoom);
+      // load image from INFILE
+      BufferedImage image = downloadImage(thisFile);
+
+      if (image == null){
+         System.out.println(" [error!]");
+         return null;
       }
+      System.out.println(" [done!]");
+      return image;
+   }
 
-      //if we're offline, return here and do not connect
-      if(!remoteConnection) return null;
-
-
-      // try accessing remote image
-      try{
-         System.out.print("Load remote image ("+x+","+y+") zoom="+zoom);
-         //build source string
-         String thisFile = makeRemoteName(x,y,zoom);
-         // load image from INFILE
-         Image image = Toolkit.getDefaultToolkit().createImage(new URL(thisFile));
-         MediaTracker mediaTracker = new MediaTracker(new Container());
-         mediaTracker.addImage(image, 0);
-         mediaTracker.waitForID(0);
-
-         if (!(mediaTracker.isErrorAny()))
-         {
-            graphics2D.drawImage(image, 0, 0, sourceSize.width, sourceSize.height, null);
-            addImageToRAM(x,y,zoom,thumbImage);
-            //save image to cache
-            ImageIO.write(thumbImage, "png", new File(makeCachedName(x,y,zoom)));
-            System.out.println(" [done!]");
-            queueHigherLevels(x, y, zoom);
-            if (findAdjacent) {
-               queueAdjacent(x,y,zoom);
-            }
-
-            //System.out.println("DataImage PUT: "+makeCachedName(x,y,zoom));
-            isCachedMap.put(makeCachedName(x,y,zoom), Boolean.TRUE);
-            return thumbImage;
-         }
-         else
-         {
-          System.out.println(" [error!]");
-         }
-      } catch(Exception e) {
+   /**
+    * Downloads an image through the shared tile client.
+    * @param url The URL of the image
+    * @return The image, or null if the server has no image there.
+    * @throws IOException if the download failed
+    */
+   protected BufferedImage downloadImage(String url) throws IOException{
+      GTileClient.Response response = GTileClient.getDefault().get(url);
+      //a busy or failing server may have the tile later; others do not have it
+      if (response.getStatus() >= 500 || response.getStatus() == 429) throw new IOException("HTTP "+response.getStatus()+" from "+url);
+      if (response.getData() == null) return null;
+      String problem = GTileExecutor.checkImage(response.getData());
+      if (problem != null) throw new IOException("Damaged tile from "+url+" ("+problem+")");
+      return ImageIO.read(new ByteArrayInputStream(response.getData()));
+   }
 
-          System.out.println("{"+e+"}");
+   /**
+    * Scales an image to the tile size and stores it in RAM and in the local cache.
+    * @param x The horizontal coordinate
+    * @param y The vertical coordinate
+    * @param zoom The zoom level
+    * @param image The image
+    * @throws IOException if the image could not be written to the cache
+    */
+   protected void storeImage(int x, int y, int zoom, BufferedImage image) throws IOException{
+      BufferedImage thumbImage = new BufferedImage(sourceSize.width, sourceSize.height, getImageType());
+      Graphics2D graphics2D = thumbImage.createGraphics();
+      graphics2D.drawImage(image, 0, 0, sourceSize.width, sourceSize.height, null);
+      graphics2D.dispose();
+      addImageToRAM(x,y,zoom,thumbImage);
+      //save image to cache
+      GTileExecutor.writeImage(thumbImage, "png", new File(makeCachedName(x,y,zoom)));
+      isCachedMap.put(makeCachedName(x,y,zoom), Boolean.TRUE);
+   }
 
+   /**
+    * Downloads a cached image again if it changed on the server since it was cached. The
+    * request is conditional, so an image that has not changed is not sent again.
+    * @param x The horizontal coordinate
+    * @param y The vertical coordinate
+    * @param zoom The zoom level
+    * @return <tt>true</tt> if a new image was cached; <tt>false</tt> if the cached one is current or the server has none.
+    * @throws IOException if the download failed
+    */
+   public boolean refresh(int x, int y, int zoom) throws IOException{
+      File file = new File(makeCachedName(x,y,zoom));
+      GTileClient.Response response = GTileClient.getDefault().get(makeRemoteName(x,y,zoom), null, file.lastModified());
+      if (response.isNotModified()) {
+         //checked now, so it counts as fresh from now
+         file.setLastModified(System.currentTimeMillis());
+         return false;
       }
+      if (response.getData() == null) return false;
+      String problem = GTileExecutor.checkImage(response.getData());
+      if (problem != null) throw new IOException("Damaged tile from "+makeRemoteName(x,y,zoom)+" ("+problem+")");
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(response.getData()));
+      if (image == null) return false;
+      storeImage(x, y, zoom, image);
+      return true;
+   }
 
-      return null;
+   /**
+    * Gets the type of image tiles are kept in, one of the BufferedImage types.
+    * @return TYPE_INT_ARGB, as tiles may be transparent
+    */
+   protected int getImageType(){
+      return BufferedImage.TYPE_INT_ARGB;
+   }
+
+   /**
+    * Picks one of the four servers for a tile. The same tile always goes to the same server,
+    * so connections to each are reused, while neighbouring tiles are spread across them.
+    * @param x The horizontal coordinate
+    * @param y The vertical coordinate
+    * @return The server number, 0 to 3.
+    */
+   protected static int getServerNumber(int x, int y){
+      return (x + 2*y) & 3;
    }
 
    /**
@@ -355,6 +476,29 @@ public abstract class GDataSource {
       return response;
    }
 
+   /**
+    * Moves a damaged tile out of the cache into the quarantine directory beside the zoom
+    * levels, forgets that it is cached and queues it to be downloaded again.
+    * @param x The horizontal cooridinate
+    * @param y The vertical coordinate
+    * @param zoom The zoom level
+    * @param problem What is wrong with the tile
+    */
+   public void quarantine(int x, int y, int zoom, String problem){
+      String thisFile = makeCachedName(x,y,zoom);
+      File file = new File(thisFile);
+      File quarantine = new File(cacheDirectory, "quarantine");
+      quarantine.mkdirs();
+      try {
+         LibGUI.replaceFile(file, new File(quarantine, zoom+"_"+file.getName()));
+      } catch(IOException e) {
+         file.delete();
+      }
+      isCachedMap.remove(thisFile);
+      System.out.println("Problem: "+thisFile+" was damaged and is downloaded again. {"+problem+"}");
+      queue(new GDataImage(null, x, y, zoom));
+   }
+
    /**
     * Get the path to this image on the local filesystem.
     * @param x The horizontal cooridinate
@@ -381,7 +525,7 @@ public abstract class GDataSource {
     */
    protected void queue(GDataImage img) {
       synchronized (downloadQueue) {
-         if (!isCached(img.getX(), img.getY(), img.getZoom()) && !downloadQueue.contains(img)) {
+         if (!isCached(img.getX(), img.getY(), img.getZoom()) && !negativeCache.isBlocked(img.getX(), img.getY(), img.getZoom()) && !downloadQueue.contains(img)) {
             while (this.queueSize >= QUEUE_MAX_SIZE) {
                downloadQueue.poll();
                queueSize--;
@@ -1,7 +1,7 @@
 import java.awt.*;
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.*;
 import java.awt.image.*;
 import java.net.*;
 import javax.imageio.ImageIO;
@@ -9,28 +9,51 @@ import javax.imageio.ImageIO;
 
 /**
 *Class for the Google Map Viewer application.  GDataSourceHybrid combines the
-*satellite imagery with Mapped Streets and Labels.
+*satellite imagery with Mapped Streets and Labels.  The two are kept in their own
+*caches (the streets by a GDataSourceOverlay) and put together as they are drawn,
+*so switching between satellite and hybrid reuses the satellite tiles.
 */
 public class GDataSourceHybrid extends GDataSource{
    private GDataSource satellite;
+   private GDataSource overlay;
 
 /**This method gets the satellite imagery from the cache.
 *@param cacheDirectory   The directory location for the cached images.
 *@param satellite    An attribute for satellite imagery.
+*@param overlay    The transparent streets and labels drawn over the satellite imagery.
 */
-   public GDataSourceHybrid(String cacheDirectory, GDataSource satellite){
+   public GDataSourceHybrid(String cacheDirectory, GDataSource satellite, GDataSource overlay){
       super(cacheDirectory);
       this.satellite = satellite;
+      this.overlay = overlay;
    }
 
 /**This method retrieves the hybrid images from the RAM to display in the pane.
+*The satellite and overlay tiles are fetched at once, one on the tile I/O executor,
+*and the overlay is drawn over the satellite tile. Only the result is kept, in RAM.
 *@param x    The x coordinate of the topleft corner of the image being retrieved.
 *@param y    The y coordinate of the topleft corner of the image being retrieved.
 *@param zoom    The zoom level of the image being retrieved.
 *@param findAdjacent  Boolean for whether the bordering images are already cached in RAM.
 *@return   BufferedImage The image to be retrieved.
 */
-   public BufferedImage getImage(int x, int y, int zoom, boolean findAdjacent) {
+   public BufferedImage getImage(final int x, final int y, final int zoom, final boolean findAdjacent) {
+      return getImage(x, y, zoom, findAdjacent, true);
+   }
+
+/**
+*Gets a hybrid tile only if both of its layers are there, eg. to serve it to other viewers,
+*which keep it as it is.
+*@param x    The x coordinate of the tile.
+*@param y    The y coordinate of the tile.
+*@param zoom    The zoom level of the tile.
+*@return   BufferedImage The tile, or null if either layer is missing.
+*/
+   public BufferedImage getComposedImage(int x, int y, int zoom) {
+      return getImage(x, y, zoom, false, false);
+   }
+
+   private BufferedImage getImage(final int x, final int y, final int zoom, final boolean findAdjacent, boolean partial) {
       //try to determine if index is invalid
       if(!isValidIndex(x,y,zoom)) return null;
 
@@ -38,79 +61,96 @@ public class GDataSourceHybrid extends GDataSource{
       BufferedImage ramImage = getImageFromRAM(x,y,zoom);
       if (ramImage != null) {
          if (findAdjacent) {
-          queueAdjacent(x,y,zoom);
+            satellite.queueAdjacent(x,y,zoom);
+            overlay.queueAdjacent(x,y,zoom);
          }
-         queueHigherLevels(x, y, zoom);
+         satellite.queueHigherLevels(x, y, zoom);
+         overlay.queueHigherLevels(x, y, zoom);
          return ramImage;
       }
 
-      //allocate space for the return
+      //both layers at once; each queues its own adjacent and higher tiles
+      FutureTask<BufferedImage> overlayImage = new FutureTask<BufferedImage>(new Callable<BufferedImage>(){
+         public BufferedImage call(){
+            return overlay.getImage(x, y, zoom, findAdjacent);
+         }
+      });
+      GTileExecutor.submit(overlayImage);
+      BufferedImage satelliteImage = satellite.getImage(x, y, zoom, findAdjacent);
+      //if no executor thread took the overlay yet, it is fetched here instead of waited for
+      overlayImage.run();
+      BufferedImage streetImage = null;
+      try {
+         streetImage = overlayImage.get();
+      } catch(InterruptedException e) {
+         overlayImage.cancel(true);
+         Thread.currentThread().interrupt();
+      } catch(ExecutionException e) {
+         System.out.println("{"+e.getCause()+"}");
+      }
+
+      //without both layers, show what there is and compose it again later
+      if (satelliteImage == null || streetImage == null) {
+         if (!partial) return null;
+         return (satelliteImage != null) ? satelliteImage : streetImage;
+      }
+
       BufferedImage thumbImage = new BufferedImage(sourceSize.width, sourceSize.height, BufferedImage.TYPE_INT_ARGB);
       Graphics2D graphics2D = thumbImage.createGraphics();
+      graphics2D.drawImage(satelliteImage, 0, 0, null);
+      graphics2D.drawImage(streetImage, 0, 0, null);
+      graphics2D.dispose();
+      addImageToRAM(x,y,zoom,thumbImage);
+      return thumbImage;
+   }
 
-      /* try accessing local image */
-      try {
-         //System.out.println("Load local image ("+x+","+y+") zoom="+zoom);
-         //build source string
-         String thisFile = makeCachedName(x,y,zoom);
-         // load image from INFILE
-         Image image = Toolkit.getDefaultToolkit().createImage(thisFile);
-         MediaTracker mediaTracker = new MediaTracker(new Container());
-         mediaTracker.addImage(image, 0);
-         mediaTracker.waitForID(0);
-
-         if (!(mediaTracker.isErrorAny()))
-         {
-            graphics2D.drawImage(image, 0, 0, sourceSize.width, sourceSize.height, null);
-            addImageToRAM(x,y,zoom,thumbImage);
-            if (findAdjacent) {
-               queueAdjacent(x,y,zoom);
-            }
-            queueHigherLevels(x, y, zoom);
-            return thumbImage;
-         }
-      } catch(Exception e) {
-      }
+/**
+*Gets the satellite layer.
+*@return GDataSource The satellite data source.
+*/
+   public GDataSource getSatellite(){
+      return satellite;
+   }
 
-      //if we're offline, return here and do not connect
-      if(!remoteConnection) return null;
-
-      /* try accessing remote image */
-      try{
-         System.out.print("Load remote image ("+x+","+y+") zoom="+zoom);
-         //build source string
-         String thisFile = makeRemoteName(x,y,zoom);
-         // load image from INFILE
-         Image image = Toolkit.getDefaultToolkit().createImage(new URL(thisFile));
-         MediaTracker mediaTracker = new MediaTracker(new Container());
-         mediaTracker.addImage(image, 0);
-         mediaTracker.waitForID(0);
-
-         if (!(mediaTracker.isErrorAny()))
-         {
-            graphics2D.drawImage(satellite.getImage(x,y,zoom), 0, 0, sourceSize.width, sourceSize.height, null);
-            graphics2D.drawImage(image, 0, 0, sourceSize.width, sourceSize.height, null);
-            addImageToRAM(x,y,zoom,thumbImage);
-            //save image to cache
-            ImageIO.write(thumbImage, "png", new File(cacheDirectory+File.separator+zoom+File.separator+LibString.minimumSize(x,5)+"_"+LibString.minimumSize(y,5)+".png"));
-            System.out.println(" [done!]");
-            if (findAdjacent) {
-               queueAdjacent(x,y,zoom);
-            }
-            queueHigherLevels(x, y, zoom);
-            return thumbImage;
-         }
-         else
-         {
-          System.out.println(" [error!]");
-         }
-      } catch(Exception e) {
+/**
+*Gets the streets and labels layer.
+*@return GDataSource The overlay data source.
+*/
+   public GDataSource getOverlay(){
+      return overlay;
+   }
+
+   //a hybrid tile is cached when both of its layers are
+   public boolean isCached(int x, int y, int zoom){
+      return satellite.isCached(x,y,zoom) && overlay.isCached(x,y,zoom);
+   }
 
-          System.out.println("{"+e+"}");
+   //the queues, the connection and refreshes are those of the layers
+   public void downloadQueue() {
+      satellite.downloadQueue();
+      overlay.downloadQueue();
+   }
 
-      }
+   public void emptyQueue() {
+      satellite.emptyQueue();
+      overlay.emptyQueue();
+   }
+
+   public void abortQueue(){
+      satellite.abortQueue();
+      overlay.abortQueue();
+   }
+
+   public void setRemoteConnection(boolean remoteConnection){
+      super.setRemoteConnection(remoteConnection);
+      satellite.setRemoteConnection(remoteConnection);
+      overlay.setRemoteConnection(remoteConnection);
+   }
 
-      return null;
+   public boolean refresh(int x, int y, int zoom) throws IOException{
+      boolean changed = satellite.refresh(x,y,zoom) | overlay.refresh(x,y,zoom);
+      if (changed) removeImageFromRAM(x,y,zoom);
+      return changed;
    }
 
 /**
@@ -123,7 +163,7 @@ public class GDataSourceHybrid extends GDataSource{
 */
 
    protected String makeRemoteName(int x, int y, int zoom){
-      int serverNumber = (int)Math.round(Math.random()*3.0);
+      int serverNumber = getServerNumber(x,y);
       //System.out.print(" [map]");
       //System.out.print("{http://mt"+serverNumber+".google.com/mt?n=404&v=w2.79&x="+x+"&y="+y+"&zoom="+zoom+"}");
       return "http://mt"+serverNumber+".google.com/mt?n=404&v=w2t.57&x="+x+"&y="+y+"&zoom="+zoom;
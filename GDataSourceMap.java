@@ -25,7 +25,7 @@ public class GDataSourceMap extends GDataSource{
     * @return     The path
     */
    protected String makeRemoteName(int x, int y, int zoom){
-      int serverNumber = (int)Math.round(Math.random()*3.0);
+      int serverNumber = getServerNumber(x,y);
       //System.out.print(" [map]");
       //System.out.print("{http://mt"+serverNumber+".google.com/mt?n=404&v=w2.79&x="+x+"&y="+y+"&zoom="+zoom+"}");
       return "http://mt"+serverNumber+".google.com/mt?n=404&v=w2.56&x="+x+"&y="+y+"&zoom="+zoom;
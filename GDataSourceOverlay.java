@@ -28,7 +28,7 @@ public class GDataSourceOverlay extends GDataSource{
 *@return   String   The URL address for the requested image.
 */
    protected String makeRemoteName(int x, int y, int zoom){
-      int serverNumber = (int)Math.round(Math.random()*3.0);
+      int serverNumber = getServerNumber(x,y);
       //System.out.print(" [map]");
       //System.out.print("{http://mt"+serverNumber+".google.com/mt?n=404&v=w2.79&x="+x+"&y="+y+"&zoom="+zoom+"}");
       return "http://mt"+serverNumber+".google.com/mt?n=404&v=w2t.57&x="+x+"&y="+y+"&zoom="+zoom;
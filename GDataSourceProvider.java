@@ -0,0 +1,124 @@
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Class GDataSourceProvider is the data source for tiles from a GTileSourceProvider. Tiles
+ * are cached in RAM and on disk like those of the other data sources; only the tiles missing
+ * from both are loaded from the provider, no more of them at once than it allows.
+ *
+ * Providers are usually named in tiles.properties (see fromProperties), so the viewer can be
+ * pointed at another tile server or a local tile set without code.
+ */
+public class GDataSourceProvider extends GDataSource{
+
+   /** Declaration of the provider */
+   private GTileSourceProvider provider;
+   /** Declaration of the limit on tiles loaded at once */
+   private Semaphore permits;
+
+   /**
+    * Constructor for GDataSourceProvider.
+    * @param cacheDirectory  The directory the tiles are cached in
+    * @param provider        The provider of the tiles
+    */
+   public GDataSourceProvider(String cacheDirectory, GTileSourceProvider provider){
+      super(cacheDirectory);
+      this.provider = provider;
+      this.permits = new Semaphore(provider.getMaxConcurrency());
+   }
+
+   /**
+    * Gets the provider of the tiles.
+    * @return        The provider.
+    */
+   public GTileSourceProvider getProvider(){
+      return provider;
+   }
+
+   /**
+    * Loads a tile from the provider.
+    * @param x The horizontal coordinate
+    * @param y The vertical coordinate
+    * @param zoom The zoom level
+    * @return The tile, or null if the provider has none.
+    * @throws Exception if loading failed
+    */
+   protected BufferedImage loadSourceImage(int x, int y, int zoom) throws Exception{
+      permits.acquire();
+      try{
+         return provider.loadTile(x, y, 17 - zoom);
+      }finally{
+         permits.release();
+      }
+   }
+
+   protected String makeRemoteName(int x, int y, int zoom){
+      return GTileProviderTemplate.expand(provider.getName(), x, y, 17 - zoom);
+   }
+
+   /**
+    * Downloads a cached tile again if it changed on the server. Only tiles from tile
+    * servers can be refreshed; tiles from files are always current.
+    * @param x The horizontal coordinate
+    * @param y The vertical coordinate
+    * @param zoom The zoom level
+    * @return <tt>true</tt> if a new tile was cached.
+    * @throws IOException if the download failed
+    */
+   public boolean refresh(int x, int y, int zoom) throws IOException{
+      if(!(provider instanceof GTileProviderTemplate)) return false;
+      return super.refresh(x, y, zoom);
+   }
+
+   /**
+    * Gets the type of image tiles are kept in; that of the provider.
+    * @return The BufferedImage type.
+    */
+   protected int getImageType(){
+      return provider.getImageType();
+   }
+
+   /**
+    * Checks that a tile is in the world and no more detailed than the provider has.
+    * @param x The horizontal cooridinate
+    * @param y The vertical coordinate
+    * @param zoom The zoom level
+    */
+   public boolean isValidIndex(int x, int y, int zoom){
+      return 17 - zoom <= provider.getMaxLevel() && super.isValidIndex(x, y, zoom);
+   }
+
+   /**
+    * Makes the provider named by a property, if there is one. The value is a URL template
+    * (see GTileProviderTemplate), a file: template or directory (see GTileProviderDirectory),
+    * or "local:" followed by either, to serve those tiles through an in-viewer server. Further
+    * properties, named by adding .concurrency, .maxLevel or .format (png for tiles that may be
+    * transparent, jpg for opaque ones), set its limits.
+    * @param properties   The properties
+    * @param name         The name of the property, eg. "map"
+    * @return             The provider, or null if the property is not set.
+    * @throws IOException if a local server could not be started
+    */
+   public static GTileSourceProvider fromProperties(Properties properties, String name) throws IOException{
+      String spec = properties.getProperty(name);
+      if(spec == null || spec.trim().length() == 0) return null;
+      spec = spec.trim();
+      int concurrency = Integer.parseInt(properties.getProperty(name+".concurrency", "8").trim());
+      int maxLevel = Integer.parseInt(properties.getProperty(name+".maxLevel", "17").trim());
+      int imageType = properties.getProperty(name+".format", "png").trim().equalsIgnoreCase("jpg") ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+      boolean local = spec.startsWith("local:");
+      if(local) spec = spec.substring(6);
+      GTileSourceProvider toReturn;
+      if(spec.startsWith("http:") || spec.startsWith("https:")){
+         toReturn = new GTileProviderTemplate(spec, concurrency, imageType, maxLevel);
+      }else{
+         toReturn = new GTileProviderDirectory(spec, imageType, maxLevel);
+      }
+      if(local) toReturn = new GTileProviderLocalServer(toReturn, concurrency);
+      return toReturn;
+   }
+
+}
@@ -0,0 +1,287 @@
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.awt.image.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+/**
+ * Class defining a data source that cuts a large georeferenced image into map tiles. The image
+ * stays on disk; a tile is made only when it is first asked for, from just the part of the
+ * image under it, read at the coarsest subsampling that still fills the tile. Made tiles go
+ * through the same RAM and disk caches as the map tiles, so each is cut only once.
+ *
+ * The rows of the image are taken to be evenly spaced in latitude and its columns evenly
+ * spaced in longitude, so each tile row is reprojected onto the map separately.
+ *
+ * Each time the image is moved its tiles start a new generation, named in their file names;
+ * tiles of older generations are removed in the background on the tile I/O executor.
+ */
+public class GDataSourceRaster extends GDataSource{
+
+   /** Declaration of the image file the tiles are cut from */
+   private File source;
+   /** Declaration of the edges of the image, in degrees */
+   private double north;
+   private double west;
+   private double south;
+   private double east;
+   /** Declaration of the size of the image; read from the file when first needed */
+   private int sourceWidth;
+   private int sourceHeight;
+   /** Declaration of the generation of the tiles, and whether removing older ones is scheduled */
+   private volatile int generation;
+   private boolean removalScheduled;
+   private final Object removalLock = new Object();
+
+   /**
+    * Constructor for a new GDataSourceRaster. Tiles cut earlier for other edges are removed in the background.
+    * @param cacheDirectory  The directory to store the cut tiles in
+    * @param source          The image file
+    * @param north           The latitude of the top edge of the image
+    * @param west            The longitude of the left edge of the image
+    * @param south           The latitude of the bottom edge of the image
+    * @param east            The longitude of the right edge of the image
+    */
+   public GDataSourceRaster(String cacheDirectory, File source, double north, double west, double south, double east){
+      super(cacheDirectory);
+      this.source = source;
+      this.north = north;
+      this.west = west;
+      this.south = south;
+      this.east = east;
+      String[] saved = readEdges();
+      if(saved != null && saved[1].equals(getEdges())){
+         generation = Integer.parseInt(saved[0]);
+      }else{
+         generation = (saved == null) ? 0 : Integer.parseInt(saved[0]) + 1;
+         removeOldTiles();
+      }
+   }
+
+   /**
+    * Method to move the image. The tiles cut at the old place are dropped from RAM at once
+    * and removed from disk in the background, so moving costs the caller almost nothing.
+    * @param north           The latitude of the top edge of the image
+    * @param west            The longitude of the left edge of the image
+    * @param south           The latitude of the bottom edge of the image
+    * @param east            The longitude of the right edge of the image
+    */
+   public synchronized void setEdges(double north, double west, double south, double east){
+      this.north = north;
+      this.west = west;
+      this.south = south;
+      this.east = east;
+      generation++;
+      emptyQueue();
+      ramCache.clear();
+      ramCacheQueue.clear();
+      isCachedMap.clear();
+      negativeCache.clear();
+      removeOldTiles();
+   }
+
+   /**
+    * Method to get the name of a cut tile, which holds the generation it was cut in.
+    * @param x    The horizontal cooridinate
+    * @param y    The vertical coordinate
+    * @param zoom The zoom level
+    * @return     The path
+    */
+   protected String makeCachedName(int x, int y, int zoom){
+      return cacheDirectory+File.separator+zoom+File.separator+"g"+generation+"_"+LibString.minimumSize(x,5)+"_"+LibString.minimumSize(y,5)+".png";
+   }
+
+   /** Method to write the edges as kept in the edges file. */
+   private synchronized String getEdges(){
+      return north+" "+west+" "+south+" "+east;
+   }
+
+   /** Method to read the generation and the edges the tiles on disk were cut for, or null if unknown. */
+   private String[] readEdges(){
+      File file = new File(cacheDirectory, "edges");
+      if(!file.isFile()) return null;
+      try{
+         BufferedReader in = new BufferedReader(new FileReader(file));
+         String line = in.readLine();
+         in.close();
+         if(line == null || line.trim().indexOf(' ') == -1) return null;
+         String[] toReturn = line.trim().split(" ", 2);
+         Integer.parseInt(toReturn[0]);
+         return toReturn;
+      }catch(Exception e){
+         return null;
+      }
+   }
+
+   /**
+    * Method to remove the tiles of older generations from disk on the tile I/O executor, and
+    * note the edges the current ones are cut for. Moves made while it is scheduled share it.
+    */
+   private void removeOldTiles(){
+      synchronized(removalLock){
+         if(removalScheduled) return;
+         removalScheduled = true;
+      }
+      GTileExecutor.submit(new Runnable(){
+         public void run(){
+            synchronized(removalLock){
+               removalScheduled = false;
+            }
+            int current = generation;
+            try{
+               Writer out = new FileWriter(new File(cacheDirectory, "edges"));
+               out.write(current+" "+getEdges()+"\n");
+               out.close();
+            }catch(IOException e){
+               System.out.println("Problem: the edges of "+source+" could not be written. {"+e+"}");
+            }
+            String prefix = "g"+current+"_";
+            for(int i = GPhysicalPoint.MIN_ZOOM; i <= GPhysicalPoint.MAX_ZOOM; i++){
+               String[] names = new File(cacheDirectory+File.separator+i).list();
+               if(names == null) continue;
+               for(int j = 0; j < names.length; j++){
+                  //a newer move scheduled its own removal
+                  if(generation != current) return;
+                  if(!names[j].startsWith(prefix)) new File(cacheDirectory+File.separator+i, names[j]).delete();
+               }
+            }
+         }
+      });
+   }
+
+   /**
+    * Method to get where the tiles come from; the image file itself.
+    * @param x    The horizontal cooridinate
+    * @param y    The vertical coordinate
+    * @param zoom The zoom level
+    * @return     The path
+    */
+   protected String makeRemoteName(int x, int y, int zoom){
+      return source.getPath();
+   }
+
+   /**
+    * Method to cut one tile from the image.
+    * @param x    The horizontal cooridinate
+    * @param y    The vertical coordinate
+    * @param zoom The zoom level
+    * @return     The tile, transparent where the image does not cover it, or null if the image does not reach the tile.
+    * @throws Exception if the image can not be read
+    */
+   protected synchronized BufferedImage loadSourceImage(int x, int y, int zoom) throws Exception{
+      GCalibration calibration = GPhysicalPoint.getCalibration(zoom);
+      int tileX = x * sourceSize.width;
+      int tileY = y * sourceSize.height;
+
+      //where the image lands at this zoom, in pixels
+      int left = calibration.getPixelX(west);
+      int right = calibration.getPixelX(east);
+      int top = calibration.getPixelY(north);
+      int bottom = calibration.getPixelY(south);
+      Rectangle covered = new Rectangle(left, top, right - left, bottom - top).intersection(new Rectangle(tileX, tileY, sourceSize.width, sourceSize.height));
+      if(covered.isEmpty()) return null;
+
+      ImageInputStream in = ImageIO.createImageInputStream(source);
+      if(in == null) throw new IOException("Can not read "+source);
+      try{
+         Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+         if(!readers.hasNext()) throw new IOException("Unknown image format: "+source);
+         ImageReader reader = readers.next();
+         try{
+            reader.setInput(in, true, true);
+            if(sourceWidth == 0){
+               sourceWidth = reader.getWidth(0);
+               sourceHeight = reader.getHeight(0);
+            }
+            return cut(reader, calibration, covered, tileX, tileY);
+         }finally{
+            reader.dispose();
+         }
+      }finally{
+         in.close();
+      }
+   }
+
+   /**
+    * Method to read the part of the image under the covered pixels and resample it onto a tile.
+    * @param reader       The reader, positioned on the image
+    * @param calibration  The calibration of the zoom level
+    * @param covered      The pixels of the tile the image covers, in map pixels
+    * @param tileX        The map pixel of the left edge of the tile
+    * @param tileY        The map pixel of the top edge of the tile
+    * @return             The tile
+    */
+   private BufferedImage cut(ImageReader reader, GCalibration calibration, Rectangle covered, int tileX, int tileY) throws IOException{
+      //image columns are linear in map x; image rows are linear in latitude
+      double[] columns = new double[covered.width];
+      for(int i = 0; i < covered.width; i++){
+         double longitude = calibration.getPhysicalPoint(new Point(covered.x + i, 0)).y;
+         columns[i] = (longitude - west)/(east - west)*sourceWidth - 0.5;
+      }
+      double[] rows = new double[covered.height];
+      for(int j = 0; j < covered.height; j++){
+         double latitude = calibration.getPhysicalPoint(new Point(0, covered.y + j)).x;
+         rows[j] = (north - latitude)/(north - south)*sourceHeight - 0.5;
+      }
+
+      //read only the rows and columns under the tile, skipping what the tile can not show
+      int regionX = clamp((int)Math.floor(Math.min(columns[0], columns[covered.width-1])), sourceWidth);
+      int regionY = clamp((int)Math.floor(Math.min(rows[0], rows[covered.height-1])), sourceHeight);
+      int regionW = Math.min(sourceWidth, (int)Math.ceil(Math.max(columns[0], columns[covered.width-1])) + 2) - regionX;
+      int regionH = Math.min(sourceHeight, (int)Math.ceil(Math.max(rows[0], rows[covered.height-1])) + 2) - regionY;
+      if(regionW <= 0 || regionH <= 0) return null;
+      int subsampling = Math.max(1, Math.min(regionW/covered.width, regionH/covered.height));
+      ImageReadParam param = reader.getDefaultReadParam();
+      param.setSourceRegion(new Rectangle(regionX, regionY, regionW, regionH));
+      param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+      BufferedImage region = reader.read(0, param);
+      int w = region.getWidth();
+      int h = region.getHeight();
+      int[] pixels = region.getRGB(0, 0, w, h, null, 0, w);
+
+      //bilinear sampling for each covered pixel; the region holds every subsampling'th image pixel
+      BufferedImage toReturn = new BufferedImage(sourceSize.width, sourceSize.height, BufferedImage.TYPE_INT_ARGB);
+      int[] row = new int[covered.width];
+      for(int j = 0; j < covered.height; j++){
+         double v = (rows[j] - regionY)/subsampling;
+         int v0 = (int)Math.floor(v);
+         double fv = v - v0;
+         int r0 = clamp(v0, h)*w;
+         int r1 = clamp(v0 + 1, h)*w;
+         for(int i = 0; i < covered.width; i++){
+            double u = (columns[i] - regionX)/subsampling;
+            int u0 = (int)Math.floor(u);
+            double fu = u - u0;
+            int c0 = clamp(u0, w);
+            int c1 = clamp(u0 + 1, w);
+            row[i] = blend(blend(pixels[r0+c0], pixels[r0+c1], fu), blend(pixels[r1+c0], pixels[r1+c1], fu), fv);
+         }
+         toReturn.setRGB(covered.x - tileX, covered.y - tileY + j, covered.width, 1, row, 0, covered.width);
+      }
+      return toReturn;
+   }
+
+   /**
+    * Method to mix two ARGB pixels, channel by channel.
+    * @param a       The first pixel
+    * @param b       The second pixel
+    * @param weight  How much of the second pixel, from 0 to 1
+    */
+   private static int blend(int a, int b, double weight){
+      if(a == b) return a;
+      int toReturn = 0;
+      for(int shift = 0; shift < 32; shift += 8){
+         int ca = (a >>> shift) & 0xff;
+         int cb = (b >>> shift) & 0xff;
+         toReturn |= ((int)(ca + (cb - ca)*weight + 0.5)) << shift;
+      }
+      return toReturn;
+   }
+
+   /** Method to keep an index within 0 and size-1. */
+   private static int clamp(int index, int size){
+      return Math.max(0, Math.min(size - 1, index));
+   }
+
+}
@@ -33,7 +33,7 @@ public class GDataSourceSatellite extends GDataSource{
     * @return The path.
     */
    protected String makeRemoteName(int x, int y, int zoom){
-      int serverNumber = (int)Math.round(Math.random()*3.0);
+      int serverNumber = getServerNumber(x,y);
       //System.out.print(" [satellite]");
       String pathToNode = makeRemoteSatName(x,y,zoom);
 
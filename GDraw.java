@@ -15,12 +15,24 @@ import java.awt.geom.*;
 
 /** Class defining the instance of the drawing mechanism for the map view */
 public class GDraw implements GDrawableObject{
+   static final long serialVersionUID = 3980053125390240893L;
+
    /** Declaration for the instance of an array of GDrawableObjects */
    private GDrawableObject[] objects;
    /** Declaration for the size of the object array */
    private int objectsSize;
    /** An ObjectContainer that holds the selected objects. */
    private ObjectContainer selected;
+   /** The union of the bounds of every child; null if empty or if a child's bounds are unknown */
+   transient private GBounds bounds;
+   /** Whether bounds reflects the current children */
+   transient private boolean boundsValid;
+   /** Whether some child could not report its bounds */
+   transient private boolean boundsUnknown;
+   /** The group this group was added to, so that bounds changes can be passed up */
+   transient private GDraw parent;
+   /** The journal changes to this group and the groups in it are recorded in; only set on the outermost group */
+   transient private GJournal journal;
    /** Constructor for the GDraw instance */
    public GDraw(){
       objects = new GDrawableObject[10];
@@ -32,9 +44,23 @@ public class GDraw implements GDrawableObject{
     * @param object  The new GDrawableObject
     */
    public void add(GDrawableObject object){
+      GJournal journal = getJournal();
+      if(journal == null){
+         addObject(object);
+         return;
+      }
+      synchronized(journal){
+         addObject(object);
+         journal.added(this, object);
+      }
+   }
+   /** Method for adding a new GDrawableObject without recording it */
+   private void addObject(GDrawableObject object){
       //enlarge if needed
       if(objectsSize == objects.length) enlargeGDrawableObjectArray();
       objects[objectsSize++] = object;
+      if(object instanceof GDraw) ((GDraw)object).parent = this;
+      growBounds(object.getBounds());
       //System.out.println(this.toString());
    }
    /**
@@ -43,6 +69,24 @@ public class GDraw implements GDrawableObject{
     */
    public void remove(int index){
       if(index == -1 || index >= objectsSize) return;
+      GJournal journal = getJournal();
+      if(journal == null){
+         removeObject(index);
+         return;
+      }
+      synchronized(journal){
+         journal.removed(this, index);
+         removeObject(index);
+      }
+   }
+   /** Method for removing a GDrawableObject without recording it. The last object takes its place. */
+   private void removeObject(int index){
+      //the union only needs rebuilding if the child reached one of its edges
+      if(boundsValid){
+         GBounds childBounds = objects[index].getBounds();
+         if(boundsUnknown || childBounds == null || bounds == null || bounds.touchesEdge(childBounds) || !keepsMargin(index, childBounds)) invalidateBounds();
+      }
+      if(objects[index] instanceof GDraw && ((GDraw)objects[index]).parent == this) ((GDraw)objects[index]).parent = null;
       selected.remove(objects[index]);
       int selectedIndex = selected.getIndex(objects[index]);
       objects[index] = objects[(objectsSize--)-1];
@@ -57,9 +101,22 @@ public class GDraw implements GDrawableObject{
    }
    /** Method for removing all current GDrawableObjects */
    public void removeAll(){
+      GJournal journal = getJournal();
+      if(journal == null){
+         removeAllObjects();
+         return;
+      }
+      synchronized(journal){
+         journal.cleared(this);
+         removeAllObjects();
+      }
+   }
+   /** Method for removing all current GDrawableObjects without recording it */
+   private void removeAllObjects(){
       selected.removeAll();
       objects = new GDrawableObject[10];
       objectsSize = 0;
+      invalidateBounds();
    }
    /**
     * Method for getting a GDrawableObject by index reference
@@ -90,21 +147,45 @@ public class GDraw implements GDrawableObject{
 
 
    /**
-    * Method for drawing the GDrawableObjects to the current map view
+    * Method for drawing the GDrawableObjects to the current map view. Creates the frame's
+    * render context, draws with it, and releases it.
     * @param image   The buffered image to render to the screen
     * @param p       The upper left corner of the viewable window
     * @param zoom    The current zoom level of the map view
     */
    public void draw(BufferedImage image, GPhysicalPoint p, int zoom){
-      //draw the objects first
-      for(int i=0;i<objectsSize;i++)
-         //if(objects[i] != null) objects[i].draw(image, p, zoom);
-         //else System.out.println("......null pointer @ "+i+"......");
-         objects[i].draw(image, p, zoom);
+      //check for nulls to prevent null pointer exceptions
+      if(p == null || image == null) return ;
+
+      GRenderContext context = new GRenderContext(image, p, zoom);
+      draw(context);
+      context.dispose();
+   }
+
+   /**
+    * Method for drawing the GDrawableObjects with a frame's render context
+    * @param context The frame being drawn
+    */
+   public void draw(GRenderContext context){
+      //check for nulls to prevent null pointer exceptions
+      GPhysicalPoint p = context.getOrigin();
+      int zoom = context.getZoom();
+      if(p == null) return ;
+
+      //draw the objects first, skipping groups that are entirely off the screen
+      Rectangle screen = new Rectangle(0, 0, context.getWidth(), context.getHeight());
+      for(int i=0;i<objectsSize;i++){
+         if(objects[i] instanceof GDraw && !((GDraw)objects[i]).isVisible(screen, p, zoom)) continue;
+         objects[i].draw(context);
+      }
 
       //now draw the selection rectangle tickmarks unless nothing is selected
       if(selected.getSize() == 0) return;
 
+      Graphics2D g = context.getGraphics();
+      context.setComposite(GRenderContext.OPAQUE);
+      context.setColor(Color.RED);
+      context.setStroke(1);
       for(int i=0;i<selected.getSize();i++){
          //selection
          GDrawableObject thisObj = (GDrawableObject)selected.get(i);
@@ -112,9 +193,6 @@ public class GDraw implements GDrawableObject{
 
          if(selectionRectangle == null) return ;
 
-         Graphics2D g = image.createGraphics();
-
-         g.setColor(Color.RED);
          //upper left
          g.drawLine(selectionRectangle.x, selectionRectangle.y, selectionRectangle.x + 5, selectionRectangle.y);
          g.drawLine(selectionRectangle.x, selectionRectangle.y, selectionRectangle.x, selectionRectangle.y + 5);
@@ -140,6 +218,10 @@ public class GDraw implements GDrawableObject{
       //return a null rectangle if empty
       if(objectsSize == 0) return null;
 
+      //use the cached bounds when every child could report them
+      GBounds cached = getBounds();
+      if(cached != null) return cached.getRectangle(p, zoom);
+
       //this is a counter variable that will be shared by two for loops
       int testObject = 0;
 
@@ -180,6 +262,187 @@ public class GDraw implements GDrawableObject{
       for(int i=0;i<objectsSize;i++){
          objects[i].move(latitude, longitude);
       }
+      //every child moved by the same amount, so the union just moves with them
+      if(boundsValid && bounds != null) bounds.translate(latitude, longitude);
+   }
+
+   /**
+    * Method moves a single child by latitude, longitude, and updates the cached bounds.
+    * Use this rather than calling move on the child directly.
+    * @param object    The child to move
+    * @param latitude  The amount to add to the child's latitude
+    * @param longitude The amount to add to the child's longitude
+    */
+   public void move(GDrawableObject object, double latitude, double longitude){
+      //the union only needs rebuilding if the child left from one of its edges; otherwise it grows to the new place
+      boolean rebuild = true;
+      int index = getIndex(object);
+      if(boundsValid && !boundsUnknown && bounds != null && index != -1){
+         GBounds childBounds = object.getBounds();
+         rebuild = childBounds == null || bounds.touchesEdge(childBounds) || !keepsMargin(index, childBounds);
+      }
+      object.move(latitude, longitude);
+      if(rebuild) invalidateBounds();
+      else growBounds(object.getBounds());
+      recordChange(object);
+   }
+
+   /**
+    * Method to tell this group that a child was changed in place (eg. its color, or a vertex
+    * added to it). Updates the cached bounds and records the change in the journal.
+    * @param object    The child that changed
+    */
+   public void changed(GDrawableObject object){
+      invalidateBounds();
+      recordChange(object);
+   }
+
+   /**
+    * Method for replacing the GDrawableObject at an index.
+    * @param index   The index of the object to replace
+    * @param object  The new GDrawableObject
+    */
+   public void set(int index, GDrawableObject object){
+      if(objects[index] instanceof GDraw && ((GDraw)objects[index]).parent == this) ((GDraw)objects[index]).parent = null;
+      selected.remove(objects[index]);
+      objects[index] = object;
+      if(object instanceof GDraw) ((GDraw)object).parent = this;
+      invalidateBounds();
+      recordChange(object);
+   }
+
+   /** Method to record the new state of a child in the journal, if there is one */
+   private void recordChange(GDrawableObject object){
+      GJournal journal = getJournal();
+      if(journal == null) return;
+      synchronized(journal){
+         int index = getIndex(object);
+         if(index != -1) journal.changed(this, index, object);
+      }
+   }
+
+   /**
+    * Method to get the group this group was added to.
+    * @return        The group, or null if this is the outermost group.
+    */
+   public GDraw getParent(){
+      return parent;
+   }
+
+   /**
+    * Method to set the journal changes are recorded in. Only the outermost group holds it.
+    * @param journal The journal, or null to stop recording
+    */
+   public void setJournal(GJournal journal){
+      this.journal = journal;
+   }
+
+   /**
+    * Method to get the journal changes to this group are recorded in.
+    * @return        The journal of the outermost group, or null.
+    */
+   public GJournal getJournal(){
+      GDraw root = this;
+      while(root.parent != null) root = root.parent;
+      return root.journal;
+   }
+
+   /**
+    * Method returns the union of the bounds of every child. The union is cached and only
+    * recomputed after a change that could shrink it.
+    * @return        The bounds, or null if empty or if a child's bounds are unknown.
+    */
+   public GBounds getBounds(){
+      //unknown bounds are retried, since a child may be able to report them after it is drawn
+      if(!boundsValid || boundsUnknown) computeBounds();
+      return bounds;
+   }
+
+   /**
+    * Method to mark the cached bounds of this group, and every group containing it, as out
+    * of date. Call this after changing a child in place (eg. its stroke).
+    */
+   public void invalidateBounds(){
+      boundsValid = false;
+      if(parent != null) parent.invalidateBounds();
+   }
+
+   /**
+    * Method to test whether any part of this group is on the screen.
+    * @param screen  The visible area, with its origin at the upper left corner of the screen
+    * @param p       The upper left corner of the viewable window
+    * @param zoom    The current zoom level of the map view
+    * @return        False only if the group is known to be entirely off the screen.
+    */
+   public boolean isVisible(Rectangle screen, GPhysicalPoint p, int zoom){
+      if(objectsSize == 0) return false;
+      GBounds cached = getBounds();
+      if(cached == null) return true;
+      Rectangle rect = cached.getRectangle(p, zoom);
+      return rect == null || rect.intersects(screen);
+   }
+
+   /** Method to rebuild the cached bounds from the children's bounds */
+   private void computeBounds(){
+      bounds = null;
+      boundsUnknown = false;
+      boundsValid = true;
+      for(int i=0;i<objectsSize;i++){
+         GBounds childBounds = objects[i].getBounds();
+         //an empty group has nothing to add
+         if(childBounds == null && objects[i] instanceof GDraw && ((GDraw)objects[i]).getSize() == 0) continue;
+         if(childBounds == null){
+            bounds = null;
+            boundsUnknown = true;
+            return;
+         }
+         if(bounds == null) bounds = (GBounds)childBounds.clone();
+         else bounds.add(childBounds);
+      }
+   }
+
+   /**
+    * Method to check whether the margin of the cached union outlasts removing a child: on
+    * every side either the child's margin is smaller, or another child has the full margin.
+    * @param index         The index of the child being removed
+    * @param childBounds   The bounds of that child
+    * @return              True if the margin stays the same
+    */
+   private boolean keepsMargin(int index, GBounds childBounds){
+      Insets margin = bounds.getMargin();
+      Insets child = childBounds.getMargin();
+      boolean top = child.top < margin.top;
+      boolean left = child.left < margin.left;
+      boolean bottom = child.bottom < margin.bottom;
+      boolean right = child.right < margin.right;
+      //children usually share the margin, so the first other child tends to settle it
+      for(int i = 0; i < objectsSize && !(top && left && bottom && right); i++){
+         if(i == index) continue;
+         GBounds other = objects[i].getBounds();
+         if(other == null) continue;
+         Insets otherMargin = other.getMargin();
+         top |= otherMargin.top >= margin.top;
+         left |= otherMargin.left >= margin.left;
+         bottom |= otherMargin.bottom >= margin.bottom;
+         right |= otherMargin.right >= margin.right;
+      }
+      return top && left && bottom && right;
+   }
+   /**
+    * Method to add a new child's bounds to the cached union, here and in every group containing this one.
+    * @param childBounds   The bounds of the new child
+    */
+   private void growBounds(GBounds childBounds){
+      if(!boundsValid) return;
+      if(childBounds == null){
+         invalidateBounds();
+         return;
+      }
+      if(!boundsUnknown){
+         if(bounds == null) bounds = (GBounds)childBounds.clone();
+         else bounds.add(childBounds);
+      }
+      if(parent != null) parent.growBounds(childBounds);
    }
 
    /**
@@ -219,6 +482,15 @@ public class GDraw implements GDrawableObject{
          temp[i] = objects[i];
       objects = temp;
    }
+   /**
+    * Method invoked when this object is read from its persistent state. Relinks child groups to this one.
+    */
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+      in.defaultReadObject();
+      for(int i=0;i<objectsSize;i++)
+         if(objects[i] instanceof GDraw) ((GDraw)objects[i]).parent = this;
+   }
+
    /**
     * Method for converting object references into a string representation
     * @return  The string representation for the GDrawableObject array
@@ -0,0 +1,826 @@
+import java.awt.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Class GDrawFile reads and writes overlay files in a compact binary format. A GDraw is written
+ * as a block: a column with the kind of each object, a table of the distinct styles, then one
+ * section per kind holding its fields column by column, so markers become a few arrays of
+ * doubles rather than a graph of GMarker, GPhysicalPoint, DoublePoint and Color objects. Groups
+ * are nested blocks. Embedded images are copied, still encoded, into a section at the end of
+ * the file, one after the other, and are only decoded when a GImage is first drawn; their
+ * lengths follow them, so neither writing nor reading holds more than one image at a time.
+ * A checksum of everything but the image bytes ends the file, and the file it replaces is kept
+ * with ".bak" added to its name, so a damaged file is noticed and an earlier one is at hand.
+ *
+ * <pre>
+ * file    := MAGIC VERSION id:long block blobs crc:int
+ * block   := count kinds[count] styles markers lines texts polylines polygons points images rasters others groups selected
+ * blobs   := bytes... lengths[count] count
+ * </pre>
+ * Strings are written as their length and their UTF-8 bytes. Version 1 files have no crc,
+ * and version 1 and 2 files hold strings as written by writeUTF, so at most 65535 bytes long.
+ *
+ * Files written by Java serialization, such as older .gmv files, are still read; running this
+ * class converts them: <tt>java GDrawFile old.gmv new.gmv</tt>.
+ */
+public class GDrawFile{
+
+   /** The first four bytes of every overlay file: "GMVB" */
+   public static final int MAGIC = 0x474D5642;
+   /** The version of the format written */
+   public static final int VERSION = 3;
+
+   /** The kinds of object, as written in a block's kind column */
+   private static final byte MARKER = 1;
+   private static final byte LINE = 2;
+   private static final byte TEXT = 3;
+   private static final byte POLYLINE = 4;
+   private static final byte POLYGON = 5;
+   private static final byte POINTS = 6;
+   private static final byte IMAGE = 7;
+   private static final byte RASTER = 8;
+   private static final byte GROUP = 9;
+   /** Any other GDrawableObject, written with Java serialization */
+   private static final byte OTHER = 10;
+
+   /** Declaration of the buffer primitive columns are converted through */
+   private byte[] buffer = new byte[8192];
+
+   /**
+    * Writes a GDraw to a file. The file is written beside the target and moved over it once
+    * complete, so images still stored in the file being replaced can be copied from it.
+    * @param draw    The overlays
+    * @param file    The file
+    * @throws IOException if the file can not be written
+    */
+   public static void write(GDraw draw, File file) throws IOException{
+      write(draw, file, new Random().nextLong());
+   }
+
+   /**
+    * Writes a GDraw to a file with a given id, so the caller knows which version of the
+    * file it wrote.
+    * @param draw    The overlays
+    * @param file    The file
+    * @param id      The id of the file
+    * @throws IOException if the file can not be written
+    */
+   public static void write(GDraw draw, File file, long id) throws IOException{
+      new GDrawFile().writeFile(draw, file, id);
+   }
+
+   /**
+    * Reads the id of a file in this format. Every write gives a file a new id.
+    * @param file    The file
+    * @return        The id, or 0 if the file is not in this format.
+    */
+   public static long readId(File file){
+      try{
+         DataInputStream in = new DataInputStream(new FileInputStream(file));
+         try{
+            if(in.readInt() != MAGIC) return 0;
+            in.readInt();
+            return in.readLong();
+         }finally{
+            in.close();
+         }
+      }catch(IOException e){
+         return 0;
+      }
+   }
+
+   /**
+    * Reads a GDraw from a file in this format, or written by Java serialization.
+    * @param file    The file
+    * @return        The overlays
+    * @throws IOException if the file can not be read or holds no overlays
+    */
+   public static GDraw read(File file) throws IOException{
+      if(!isGDrawFile(file)){
+         Serializable object = LibGUI.openStateFromFile(file);
+         if(!(object instanceof GDraw)) throw new IOException("No overlays in "+file);
+         return (GDraw)object;
+      }
+      return new GDrawFile().readFile(file);
+   }
+
+   /**
+    * Tells whether a file is in this format.
+    * @param file    The file
+    * @return        True if the file starts with MAGIC.
+    */
+   public static boolean isGDrawFile(File file){
+      try{
+         DataInputStream in = new DataInputStream(new FileInputStream(file));
+         try{
+            return in.readInt() == MAGIC;
+         }finally{
+            in.close();
+         }
+      }catch(IOException e){
+         return false;
+      }
+   }
+
+   /**
+    * Converts overlay files to this format.
+    * @param args    The file to read and the file to write; the file is converted in place if only one is given
+    */
+   public static void main(String[] args) throws IOException{
+      if(args.length < 1 || args.length > 2){
+         System.out.println("Usage: java GDrawFile <in.gmv> [<out.gmv>]");
+         return;
+      }
+      File in = new File(args[0]);
+      File out = new File(args[args.length-1]);
+      GDraw draw = read(in);
+      write(draw, out);
+      System.out.println(in+" ("+in.length()+" bytes) -> "+out+" ("+out.length()+" bytes)");
+   }
+
+   /**
+    * Where an image is stored in an overlay file. The file's id is checked before reading,
+    * so a file that has since been replaced is not read at the wrong place.
+    */
+   public static class Blob{
+      private File file;
+      private long id;
+      private long offset;
+      private int length;
+
+      private Blob(File file, long id, long offset, int length){
+         this.file = file;
+         this.id = id;
+         this.offset = offset;
+         this.length = length;
+      }
+
+      /**
+       * Reads the encoded image.
+       * @return        The bytes
+       * @throws IOException if the file can not be read or is no longer the file the image was in
+       */
+      public byte[] read() throws IOException{
+         RandomAccessFile in = new RandomAccessFile(file, "r");
+         try{
+            if(in.readInt() != MAGIC || in.readInt() > VERSION || in.readLong() != id) throw new IOException(file+" has changed");
+            byte[] toReturn = new byte[length];
+            in.seek(offset);
+            in.readFully(toReturn);
+            return toReturn;
+         }finally{
+            in.close();
+         }
+      }
+   }
+
+   //------------------------------------------------------------------ writing
+
+   /** Declaration of the images written so far, in the order of their blobs */
+   private ArrayList<GImage> images = new ArrayList<GImage>();
+
+   private void writeFile(GDraw draw, File file, long id) throws IOException{
+      File temp = new File(file.getPath()+".tmp");
+      FileOutputStream fileOut = new FileOutputStream(temp);
+      CRC32 crc = new CRC32();
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc), 65536));
+      int[] lengths;
+      try{
+         try{
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(id);
+            writeBlock(out, draw);
+
+            //the images, copied from where they are stored or encoded, then their lengths; the
+            //images go around the checksum, as they are read only when drawn
+            out.flush();
+            lengths = new int[images.size()];
+            for(int i = 0; i < images.size(); i++){
+               byte[] data = images.get(i).getImageData();
+               if(data == null) data = new byte[0];
+               lengths[i] = data.length;
+               fileOut.write(data);
+            }
+            writeInts(out, lengths, lengths.length);
+            out.writeInt(lengths.length);
+            out.flush();
+            new DataOutputStream(fileOut).writeInt((int)crc.getValue());
+            fileOut.getFD().sync();
+         }finally{
+            out.close();
+         }
+         LibGUI.keepPreviousGeneration(file);
+         LibGUI.replaceFile(temp, file);
+      }catch(IOException e){
+         temp.delete();
+         throw e;
+      }
+
+      //the images now live in the new file
+      long offset = file.length() - 4*lengths.length - 8;
+      for(int i = 0; i < lengths.length; i++) offset -= lengths[i];
+      for(int i = 0; i < lengths.length; i++){
+         if(lengths[i] > 0) images.get(i).setImageBlob(new Blob(file, id, offset, lengths[i]));
+         offset += lengths[i];
+      }
+   }
+
+   private void writeBlock(DataOutputStream out, GDraw draw) throws IOException{
+      int count = draw.getSize();
+      byte[] kinds = new byte[count];
+      ArrayList<ArrayList<GDrawableObject>> sections = new ArrayList<ArrayList<GDrawableObject>>();
+      for(int i = 0; i <= OTHER; i++) sections.add(new ArrayList<GDrawableObject>());
+      for(int i = 0; i < count; i++){
+         GDrawableObject object = draw.get(i);
+         kinds[i] = getKind(object);
+         sections.get(kinds[i]).add(object);
+      }
+      out.writeInt(count);
+      out.write(kinds);
+
+      //the distinct styles of every object and of the markers inside lines and images
+      Styles styles = new Styles();
+      for(int i = 0; i < count; i++){
+         GDrawableObject object = draw.get(i);
+         if(object instanceof GCustomObject) styles.add((GCustomObject)object);
+         if(object instanceof GLine){
+            styles.add(((GLine)object).getPoint1());
+            styles.add(((GLine)object).getPoint2());
+         }
+         if(object instanceof GImage){
+            styles.add(((GImage)object).getPoint1());
+            styles.add(((GImage)object).getPoint2());
+         }
+      }
+      styles.write(out);
+
+      writeMarkers(out, sections.get(MARKER), styles);
+      writeLines(out, sections.get(LINE), styles);
+      writeTexts(out, sections.get(TEXT), styles);
+      writePolylines(out, sections.get(POLYLINE), styles);
+      writePolylines(out, sections.get(POLYGON), styles);
+      writePoints(out, sections.get(POINTS), styles);
+      writeImages(out, sections.get(IMAGE), styles);
+      writeRasters(out, sections.get(RASTER), styles);
+      writeOthers(out, sections.get(OTHER));
+      ArrayList<GDrawableObject> groups = sections.get(GROUP);
+      out.writeInt(groups.size());
+      for(int i = 0; i < groups.size(); i++) writeBlock(out, (GDraw)groups.get(i));
+
+      //the selection, as indices into the block
+      ObjectContainer selected = draw.getSelected();
+      int[] indices = new int[selected.getSize()];
+      int selectedSize = 0;
+      for(int i = 0; i < selected.getSize(); i++){
+         int index = draw.getIndex((GDrawableObject)selected.get(i));
+         if(index != -1) indices[selectedSize++] = index;
+      }
+      out.writeInt(selectedSize);
+      writeInts(out, indices, selectedSize);
+   }
+
+   private static byte getKind(GDrawableObject object){
+      Class<?> type = object.getClass();
+      if(type == GMarker.class) return MARKER;
+      if(type == GLine.class) return LINE;
+      if(type == GText.class) return TEXT;
+      if(type == GPolyline.class) return POLYLINE;
+      if(type == GPolygon.class) return POLYGON;
+      if(type == GPointLayer.class) return POINTS;
+      if(type == GImage.class) return IMAGE;
+      if(type == GRasterLayer.class) return RASTER;
+      if(type == GDraw.class) return GROUP;
+      return OTHER;
+   }
+
+   private void writeMarkers(DataOutputStream out, ArrayList<GDrawableObject> section, Styles styles) throws IOException{
+      int size = section.size();
+      double[] latitudes = new double[size];
+      double[] longitudes = new double[size];
+      int[] styleIndices = new int[size];
+      for(int i = 0; i < size; i++){
+         GMarker marker = (GMarker)section.get(i);
+         latitudes[i] = marker.getPoint().getX();
+         longitudes[i] = marker.getPoint().getY();
+         styleIndices[i] = styles.indexOf(marker);
+      }
+      out.writeInt(size);
+      writeDoubles(out, latitudes, size);
+      writeDoubles(out, longitudes, size);
+      writeInts(out, styleIndices, size);
+   }
+
+   private void writeLines(DataOutputStream out, ArrayList<GDrawableObject> section, Styles styles) throws IOException{
+      int size = section.size();
+      double[] coordinates = new double[size*4];
+      int[] styleIndices = new int[size*3];
+      for(int i = 0; i < size; i++){
+         GLine line = (GLine)section.get(i);
+         coordinates[i*4] = line.getPoint1().getPoint().getX();
+         coordinates[i*4+1] = line.getPoint1().getPoint().getY();
+         coordinates[i*4+2] = line.getPoint2().getPoint().getX();
+         coordinates[i*4+3] = line.getPoint2().getPoint().getY();
+         styleIndices[i*3] = styles.indexOf(line);
+         styleIndices[i*3+1] = styles.indexOf(line.getPoint1());
+         styleIndices[i*3+2] = styles.indexOf(line.getPoint2());
+      }
+      out.writeInt(size);
+      writeDoubles(out, coordinates, size*4);
+      writeInts(out, styleIndices, size*3);
+   }
+
+   private void writeTexts(DataOutputStream out, ArrayList<GDrawableObject> section, Styles styles) throws IOException{
+      int size = section.size();
+      double[] latitudes = new double[size];
+      double[] longitudes = new double[size];
+      int[] styleIndices = new int[size];
+      for(int i = 0; i < size; i++){
+         GText text = (GText)section.get(i);
+         latitudes[i] = text.getPoint().getX();
+         longitudes[i] = text.getPoint().getY();
+         styleIndices[i] = styles.indexOf(text);
+      }
+      out.writeInt(size);
+      writeDoubles(out, latitudes, size);
+      writeDoubles(out, longitudes, size);
+      writeInts(out, styleIndices, size);
+      for(int i = 0; i < size; i++) writeString(out, ((GText)section.get(i)).getText());
+   }
+
+   private void writePolylines(DataOutputStream out, ArrayList<GDrawableObject> section, Styles styles) throws IOException{
+      int size = section.size();
+      int[] sizes = new int[size];
+      int[] styleIndices = new int[size];
+      for(int i = 0; i < size; i++){
+         GPolyline polyline = (GPolyline)section.get(i);
+         sizes[i] = polyline.getSize();
+         styleIndices[i] = styles.indexOf(polyline);
+      }
+      out.writeInt(size);
+      writeInts(out, sizes, size);
+      writeInts(out, styleIndices, size);
+      for(int i = 0; i < size; i++){
+         GPolyline polyline = (GPolyline)section.get(i);
+         writeDoubles(out, polyline.getLatitudes(), sizes[i]);
+         writeDoubles(out, polyline.getLongitudes(), sizes[i]);
+      }
+   }
+
+   private void writePoints(DataOutputStream out, ArrayList<GDrawableObject> section, Styles styles) throws IOException{
+      int size = section.size();
+      int[] sizes = new int[size];
+      int[] styleIndices = new int[size];
+      for(int i = 0; i < size; i++){
+         GPointLayer layer = (GPointLayer)section.get(i);
+         sizes[i] = layer.getSize();
+         styleIndices[i] = styles.indexOf(layer);
+      }
+      out.writeInt(size);
+      writeInts(out, sizes, size);
+      writeInts(out, styleIndices, size);
+      for(int i = 0; i < size; i++) out.writeBoolean(((GPointLayer)section.get(i)).getClustered());
+      for(int i = 0; i < size; i++){
+         GPointLayer layer = (GPointLayer)section.get(i);
+         writeDoubles(out, layer.getLatitudes(), sizes[i]);
+         writeDoubles(out, layer.getLongitudes(), sizes[i]);
+      }
+   }
+
+   private void writeImages(DataOutputStream out, ArrayList<GDrawableObject> section, Styles styles) throws IOException{
+      out.writeInt(section.size());
+      for(int i = 0; i < section.size(); i++){
+         GImage image = (GImage)section.get(i);
+         out.writeInt(styles.indexOf(image));
+         out.writeBoolean(image.getLossless());
+         writeMarker(out, image.getPoint1(), styles);
+         writeMarker(out, image.getPoint2(), styles);
+         Dimension dimension = image.getDimension();
+         out.writeInt(dimension == null ? -1 : dimension.width);
+         out.writeInt(dimension == null ? -1 : dimension.height);
+         if(image.hasImage()){
+            out.writeInt(images.size());
+            images.add(image);
+         }else{
+            out.writeInt(-1);
+         }
+      }
+   }
+
+   private void writeMarker(DataOutputStream out, GMarker marker, Styles styles) throws IOException{
+      out.writeBoolean(marker != null);
+      if(marker == null) return;
+      out.writeDouble(marker.getPoint().getX());
+      out.writeDouble(marker.getPoint().getY());
+      out.writeInt(styles.indexOf(marker));
+   }
+
+   private void writeRasters(DataOutputStream out, ArrayList<GDrawableObject> section, Styles styles) throws IOException{
+      out.writeInt(section.size());
+      for(int i = 0; i < section.size(); i++){
+         GRasterLayer layer = (GRasterLayer)section.get(i);
+         out.writeInt(styles.indexOf(layer));
+         writeString(out, layer.getPath());
+         out.writeDouble(layer.getUpperLeft().getX());
+         out.writeDouble(layer.getUpperLeft().getY());
+         out.writeDouble(layer.getLowerRight().getX());
+         out.writeDouble(layer.getLowerRight().getY());
+      }
+   }
+
+   private void writeOthers(DataOutputStream out, ArrayList<GDrawableObject> section) throws IOException{
+      out.writeInt(section.size());
+      for(int i = 0; i < section.size(); i++){
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+         objectOut.writeObject(section.get(i));
+         objectOut.close();
+         out.writeInt(bytes.size());
+         bytes.writeTo(out);
+      }
+   }
+
+   private void writeString(DataOutputStream out, String value) throws IOException{
+      byte[] bytes = value.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private void writeDoubles(DataOutputStream out, double[] values, int size) throws IOException{
+      ByteBuffer bytes = ByteBuffer.wrap(buffer);
+      for(int i = 0; i < size; ){
+         int n = Math.min(size - i, buffer.length/8);
+         bytes.clear();
+         bytes.asDoubleBuffer().put(values, i, n);
+         out.write(buffer, 0, n*8);
+         i += n;
+      }
+   }
+
+   private void writeInts(DataOutputStream out, int[] values, int size) throws IOException{
+      ByteBuffer bytes = ByteBuffer.wrap(buffer);
+      for(int i = 0; i < size; ){
+         int n = Math.min(size - i, buffer.length/4);
+         bytes.clear();
+         bytes.asIntBuffer().put(values, i, n);
+         out.write(buffer, 0, n*4);
+         i += n;
+      }
+   }
+
+   /**
+    * The distinct styles of a block: opacity, stroke, color and background.
+    */
+   private static class Styles{
+      private HashMap<String,Integer> indices = new HashMap<String,Integer>();
+      private ArrayList<GCustomObject> styles = new ArrayList<GCustomObject>();
+
+      private static String getKey(GCustomObject object){
+         return object.getOpacity()+" "+object.getStroke()+" "+getRGB(object.getColor())+" "+getRGB(object.getBackground());
+      }
+
+      public void add(GCustomObject object){
+         if(object == null) return;
+         String key = getKey(object);
+         if(indices.containsKey(key)) return;
+         indices.put(key, styles.size());
+         styles.add(object);
+      }
+
+      public int indexOf(GCustomObject object){
+         return indices.get(getKey(object));
+      }
+
+      public void write(DataOutputStream out) throws IOException{
+         out.writeInt(styles.size());
+         for(int i = 0; i < styles.size(); i++){
+            GCustomObject style = styles.get(i);
+            out.writeFloat(style.getOpacity());
+            out.writeInt(style.getStroke());
+            out.writeBoolean(style.getColor() != null);
+            out.writeInt(getRGB(style.getColor()));
+            out.writeBoolean(style.getBackground() != null);
+            out.writeInt(getRGB(style.getBackground()));
+         }
+      }
+
+      private static int getRGB(Color color){
+         return (color == null) ? 0 : color.getRGB();
+      }
+   }
+
+   //------------------------------------------------------------------ reading
+
+   /** Declaration of the file being read, its version and its id */
+   private File file;
+   private int version;
+   private long id;
+   /** Declaration of the images read, by blob index */
+   private HashMap<Integer,GImage> blobImages = new HashMap<Integer,GImage>();
+
+   private GDraw readFile(File file) throws IOException{
+      this.file = file;
+      CRC32 crc = new CRC32();
+      CountingInputStream counter = new CountingInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 65536), crc));
+      DataInputStream in = new DataInputStream(counter);
+      try{
+         if(in.readInt() != MAGIC) throw new IOException("Not an overlay file: "+file);
+         version = in.readInt();
+         if(version > VERSION) throw new IOException(file+" is version "+version+"; only version "+VERSION+" and older can be read");
+         id = in.readLong();
+         GDraw toReturn = readBlock(in);
+         if(version >= 2 || !blobImages.isEmpty()) readBlobs(counter.getCount(), (version >= 2) ? crc : null);
+         return toReturn;
+      }finally{
+         in.close();
+      }
+   }
+
+   /**
+    * Points the images read at their blobs, which are read when the images are first drawn,
+    * and checks the file is whole.
+    * @param offset  Where the first blob starts
+    * @param crc     The checksum of the file up to there, or null if the file has none
+    * @throws IOException if the file is cut short or fails its checksum
+    */
+   private void readBlobs(long offset, CRC32 crc) throws IOException{
+      RandomAccessFile in = new RandomAccessFile(file, "r");
+      try{
+         int trailer = (crc != null) ? 8 : 4;
+         in.seek(in.length() - trailer);
+         int count = in.readInt();
+         int checksum = (crc != null) ? in.readInt() : 0;
+         if(count < 0 || 4L*count > in.length() - trailer - offset) throw new IOException(file+" is damaged");
+         byte[] lengths = new byte[4*count + 4];
+         in.seek(in.length() - trailer - 4*count);
+         in.readFully(lengths);
+         if(crc != null){
+            crc.update(lengths, 0, lengths.length);
+            if((int)crc.getValue() != checksum) throw new IOException(file+" is damaged: bad checksum");
+         }
+         ByteBuffer buffer = ByteBuffer.wrap(lengths);
+         long end = offset;
+         for(int i = 0; i < count; i++){
+            int length = buffer.getInt();
+            if(length < 0) throw new IOException(file+" is damaged");
+            GImage image = blobImages.get(i);
+            if(image != null && length > 0) image.setImageBlob(new Blob(file, id, end, length));
+            end += length;
+         }
+         if(end != in.length() - trailer - 4*count) throw new IOException(file+" is damaged: the images do not fit");
+      }finally{
+         in.close();
+      }
+   }
+
+   private GDraw readBlock(DataInputStream in) throws IOException{
+      int count = in.readInt();
+      byte[] kinds = new byte[count];
+      in.readFully(kinds);
+      GCustomObject[] styles = readStyles(in);
+
+      ArrayList<ArrayList<GDrawableObject>> sections = new ArrayList<ArrayList<GDrawableObject>>();
+      for(int i = 0; i <= OTHER; i++) sections.add(new ArrayList<GDrawableObject>());
+      readMarkers(in, sections.get(MARKER), styles);
+      readLines(in, sections.get(LINE), styles);
+      readTexts(in, sections.get(TEXT), styles);
+      readPolylines(in, sections.get(POLYLINE), styles, false);
+      readPolylines(in, sections.get(POLYGON), styles, true);
+      readPoints(in, sections.get(POINTS), styles);
+      readImages(in, sections.get(IMAGE), styles);
+      readRasters(in, sections.get(RASTER), styles);
+      readOthers(in, sections.get(OTHER));
+      int groups = in.readInt();
+      for(int i = 0; i < groups; i++) sections.get(GROUP).add(readBlock(in));
+
+      //put the objects back in their order
+      GDraw toReturn = new GDraw();
+      int[] next = new int[OTHER+1];
+      GDrawableObject[] objects = new GDrawableObject[count];
+      for(int i = 0; i < count; i++){
+         if(kinds[i] < 1 || kinds[i] > OTHER || next[kinds[i]] >= sections.get(kinds[i]).size()) throw new IOException("Corrupt overlay file: "+file);
+         objects[i] = sections.get(kinds[i]).get(next[kinds[i]]++);
+         toReturn.add(objects[i]);
+      }
+      int selected = in.readInt();
+      int[] indices = readInts(in, selected);
+      for(int i = 0; i < selected; i++) toReturn.getSelected().add(objects[indices[i]]);
+      return toReturn;
+   }
+
+   private GCustomObject[] readStyles(DataInputStream in) throws IOException{
+      GCustomObject[] toReturn = new GCustomObject[in.readInt()];
+      for(int i = 0; i < toReturn.length; i++){
+         float opacity = in.readFloat();
+         int stroke = in.readInt();
+         boolean hasColor = in.readBoolean();
+         int color = in.readInt();
+         boolean hasBackground = in.readBoolean();
+         int background = in.readInt();
+         toReturn[i] = new GMarker(null);
+         toReturn[i].setFloat(opacity);
+         toReturn[i].setStroke(stroke);
+         toReturn[i].setColor(hasColor ? new Color(color, true) : null);
+         toReturn[i].setBackground(hasBackground ? new Color(background, true) : null);
+      }
+      return toReturn;
+   }
+
+   private static void applyStyle(GCustomObject object, GCustomObject[] styles, int index) throws IOException{
+      if(index < 0 || index >= styles.length) throw new IOException("Corrupt overlay file: no style "+index);
+      GCustomObject style = styles[index];
+      object.setFloat(style.getOpacity());
+      object.setStroke(style.getStroke());
+      object.setColor(style.getColor());
+      object.setBackground(style.getBackground());
+   }
+
+   private void readMarkers(DataInputStream in, ArrayList<GDrawableObject> section, GCustomObject[] styles) throws IOException{
+      int size = in.readInt();
+      double[] latitudes = readDoubles(in, size);
+      double[] longitudes = readDoubles(in, size);
+      int[] styleIndices = readInts(in, size);
+      for(int i = 0; i < size; i++){
+         GMarker marker = new GMarker(new GPhysicalPoint(latitudes[i], longitudes[i]));
+         applyStyle(marker, styles, styleIndices[i]);
+         section.add(marker);
+      }
+   }
+
+   private void readLines(DataInputStream in, ArrayList<GDrawableObject> section, GCustomObject[] styles) throws IOException{
+      int size = in.readInt();
+      double[] coordinates = readDoubles(in, size*4);
+      int[] styleIndices = readInts(in, size*3);
+      for(int i = 0; i < size; i++){
+         GMarker point1 = new GMarker(new GPhysicalPoint(coordinates[i*4], coordinates[i*4+1]));
+         GMarker point2 = new GMarker(new GPhysicalPoint(coordinates[i*4+2], coordinates[i*4+3]));
+         applyStyle(point1, styles, styleIndices[i*3+1]);
+         applyStyle(point2, styles, styleIndices[i*3+2]);
+         GLine line = new GLine(point1, point2);
+         applyStyle(line, styles, styleIndices[i*3]);
+         section.add(line);
+      }
+   }
+
+   private void readTexts(DataInputStream in, ArrayList<GDrawableObject> section, GCustomObject[] styles) throws IOException{
+      int size = in.readInt();
+      double[] latitudes = readDoubles(in, size);
+      double[] longitudes = readDoubles(in, size);
+      int[] styleIndices = readInts(in, size);
+      for(int i = 0; i < size; i++){
+         GText text = new GText(new GPhysicalPoint(latitudes[i], longitudes[i]), readString(in));
+         applyStyle(text, styles, styleIndices[i]);
+         section.add(text);
+      }
+   }
+
+   private void readPolylines(DataInputStream in, ArrayList<GDrawableObject> section, GCustomObject[] styles, boolean closed) throws IOException{
+      int size = in.readInt();
+      int[] sizes = readInts(in, size);
+      int[] styleIndices = readInts(in, size);
+      for(int i = 0; i < size; i++){
+         double[] latitudes = readDoubles(in, sizes[i]);
+         double[] longitudes = readDoubles(in, sizes[i]);
+         GPolyline polyline = closed ? new GPolygon(latitudes, longitudes, sizes[i]) : new GPolyline(latitudes, longitudes, sizes[i]);
+         applyStyle(polyline, styles, styleIndices[i]);
+         section.add(polyline);
+      }
+   }
+
+   private void readPoints(DataInputStream in, ArrayList<GDrawableObject> section, GCustomObject[] styles) throws IOException{
+      int size = in.readInt();
+      int[] sizes = readInts(in, size);
+      int[] styleIndices = readInts(in, size);
+      boolean[] clustered = new boolean[size];
+      for(int i = 0; i < size; i++) clustered[i] = in.readBoolean();
+      for(int i = 0; i < size; i++){
+         GPointLayer layer = new GPointLayer(readDoubles(in, sizes[i]), readDoubles(in, sizes[i]), sizes[i]);
+         layer.setClustered(clustered[i]);
+         applyStyle(layer, styles, styleIndices[i]);
+         section.add(layer);
+      }
+   }
+
+   private void readImages(DataInputStream in, ArrayList<GDrawableObject> section, GCustomObject[] styles) throws IOException{
+      int size = in.readInt();
+      for(int i = 0; i < size; i++){
+         int style = in.readInt();
+         boolean lossless = in.readBoolean();
+         GMarker point1 = readMarker(in, styles);
+         GMarker point2 = readMarker(in, styles);
+         int width = in.readInt();
+         int height = in.readInt();
+         int blob = in.readInt();
+         GImage image = new GImage(point1, point2, null, lossless);
+         if(width >= 0) image.setDimension(new Dimension(width, height));
+         applyStyle(image, styles, style);
+         if(blob >= 0) blobImages.put(blob, image);
+         section.add(image);
+      }
+   }
+
+   private GMarker readMarker(DataInputStream in, GCustomObject[] styles) throws IOException{
+      if(!in.readBoolean()) return null;
+      GMarker toReturn = new GMarker(new GPhysicalPoint(in.readDouble(), in.readDouble()));
+      applyStyle(toReturn, styles, in.readInt());
+      return toReturn;
+   }
+
+   private void readRasters(DataInputStream in, ArrayList<GDrawableObject> section, GCustomObject[] styles) throws IOException{
+      int size = in.readInt();
+      for(int i = 0; i < size; i++){
+         int style = in.readInt();
+         String path = readString(in);
+         GRasterLayer layer = new GRasterLayer(path, in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+         applyStyle(layer, styles, style);
+         section.add(layer);
+      }
+   }
+
+   private void readOthers(DataInputStream in, ArrayList<GDrawableObject> section) throws IOException{
+      int size = in.readInt();
+      for(int i = 0; i < size; i++){
+         byte[] bytes = new byte[in.readInt()];
+         in.readFully(bytes);
+         ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+         try{
+            section.add((GDrawableObject)objectIn.readObject());
+         }catch(ClassNotFoundException e){
+            throw new IOException("Unknown overlay in "+file+": "+e.getMessage());
+         }
+      }
+   }
+
+   private String readString(DataInputStream in) throws IOException{
+      if(version < 3) return in.readUTF();
+      int length = in.readInt();
+      if(length < 0 || length > file.length()) throw new IOException(file+" is damaged");
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return new String(bytes, "UTF-8");
+   }
+
+   private double[] readDoubles(DataInputStream in, int size) throws IOException{
+      double[] toReturn = new double[size];
+      ByteBuffer bytes = ByteBuffer.wrap(buffer);
+      for(int i = 0; i < size; ){
+         int n = Math.min(size - i, buffer.length/8);
+         in.readFully(buffer, 0, n*8);
+         bytes.clear();
+         bytes.asDoubleBuffer().get(toReturn, i, n);
+         i += n;
+      }
+      return toReturn;
+   }
+
+   private int[] readInts(DataInputStream in, int size) throws IOException{
+      int[] toReturn = new int[size];
+      ByteBuffer bytes = ByteBuffer.wrap(buffer);
+      for(int i = 0; i < size; ){
+         int n = Math.min(size - i, buffer.length/4);
+         in.readFully(buffer, 0, n*4);
+         bytes.clear();
+         bytes.asIntBuffer().get(toReturn, i, n);
+         i += n;
+      }
+      return toReturn;
+   }
+
+   /**
+    * An input stream that counts the bytes read through it, so the reader knows where the
+    * image section starts.
+    */
+   private static class CountingInputStream extends FilterInputStream{
+      private long count;
+
+      public CountingInputStream(InputStream in){
+         super(in);
+      }
+
+      public int read() throws IOException{
+         int toReturn = super.read();
+         if(toReturn != -1) count++;
+         return toReturn;
+      }
+
+      public int read(byte[] b, int off, int len) throws IOException{
+         int toReturn = super.read(b, off, len);
+         if(toReturn > 0) count += toReturn;
+         return toReturn;
+      }
+
+      public long skip(long n) throws IOException{
+         long toReturn = super.skip(n);
+         count += toReturn;
+         return toReturn;
+      }
+
+      public long getCount(){
+         return count;
+      }
+   }
+
+}
@@ -14,11 +14,9 @@ import java.io.Serializable;
 public interface GDrawableObject extends Serializable{
 
    /**Should draw the physical object to the map
-    * @param image Image to be drawn
-    * @param p GPhysicalPoint to draw at
-    * @param zoom Current zoom level
+    * @param context The frame being drawn: its image, shared graphics context and view
     */
-   public abstract void draw(BufferedImage image, GPhysicalPoint p, int zoom);
+   public abstract void draw(GRenderContext context);
 
    /**Should return a rectangle containing the drawn object
     * @param p GPhysicalPoint to draw at
@@ -32,6 +30,12 @@ public interface GDrawableObject extends Serializable{
     */
    public abstract void move(double latitude, double longitude);
 
+   /**Should return the latitude/longitude bounds of this object, plus a pixel margin
+    * for the parts that do not scale with zoom. Returns null if the bounds can not be
+    * known yet, in which case the object is never culled.
+    */
+   public abstract GBounds getBounds();
+
 
 }
 
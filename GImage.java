@@ -15,12 +15,18 @@ import java.awt.geom.*;
 
 /** Class defining the instance for a line object. A line is simply two GMarkers. */
 public class GImage extends GCustomObject implements GDrawableObject{
+   static final long serialVersionUID = -8093244476039278914L;
+
    /** Two GMarkers */
    private GMarker point1;
    private GMarker point2;
    private Dimension dimension;
    private boolean lossless;
    transient private BufferedImage image;
+   /** The image halved again and again; level 0 is the image itself. Levels are made as they are needed. */
+   transient private BufferedImage[] mipmaps;
+   /** Where the encoded image is stored in an overlay file; the image is decoded from it when first needed */
+   transient private GDrawFile.Blob imageBlob;
    /**
     * Creates a GImage at (point1,point2) using pixel data from the BufferedImage image.
     * @param point1
@@ -84,10 +90,41 @@ public class GImage extends GCustomObject implements GDrawableObject{
     * Gets the image as a BufferedImage.
     * @return        The image.
     */
-   public BufferedImage getImage(){
+   public synchronized BufferedImage getImage(){
+      if(image == null && imageBlob != null){
+         try{
+            image = ImageIO.read(new ByteArrayInputStream(imageBlob.read()));
+         }catch(IOException e){
+            System.out.println("{"+e+"}");
+            imageBlob = null;
+         }
+      }
       return image;
    }
 
+   /**
+    * Gets whether this GImage has an image, without decoding one that is not loaded yet.
+    * @return        True if there is an image.
+    */
+   public boolean hasImage(){
+      return image != null || imageBlob != null;
+   }
+
+   /**
+    * Gets the image encoded the way it is saved: PNG if lossless, otherwise JPEG. An image
+    * still stored in an overlay file is copied from there rather than encoded again.
+    * @return        The encoded image, or null if there is no image.
+    * @throws IOException if the image can not be encoded or read
+    */
+   public synchronized byte[] getImageData() throws IOException{
+      if(imageBlob != null) return imageBlob.read();
+      if(image == null) return null;
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      if(lossless) ImageIO.write(image, "png", baos);
+      else ImageIO.write(image, "jpg", baos);
+      return baos.toByteArray();
+   }
+
    /**
     * Gets the dimension of this image.
     * @return        The dimension.
@@ -129,8 +166,14 @@ public class GImage extends GCustomObject implements GDrawableObject{
    }
 
    /** Method to set the file of the image. Automatically updates the image. */
-   public void setImage(BufferedImage image){
+   public synchronized void setImage(BufferedImage image){
       this.image = image;
+      this.mipmaps = null;
+      this.imageBlob = null;
+   }
+   /** Method to set where the encoded image is stored in an overlay file. If no image is loaded, it is read from there when first needed. */
+   public synchronized void setImageBlob(GDrawFile.Blob imageBlob){
+      this.imageBlob = imageBlob;
    }
 
    /** Method to set the width and height of the image. This is width and height are used to draw the image a constant width and height (regardless of zoom level) if point2 is null. If point2 is not null, this data is ignored.*/
@@ -139,7 +182,12 @@ public class GImage extends GCustomObject implements GDrawableObject{
    }
 
    /** Method to set lossless status of this image. If this value is true, the image is serialized using a lossless compression algorithm (PNG). If it is false, the image is serialized using medium quality JPEG compression. Resulting file sizes are much smaller. */
-   public void setLossless(boolean lossless){
+   public synchronized void setLossless(boolean lossless){
+      //a stored image is in the old encoding, so it has to be encoded again
+      if(lossless != this.lossless && imageBlob != null){
+         getImage();
+         imageBlob = null;
+      }
       this.lossless = lossless;
    }
 
@@ -151,7 +199,7 @@ public class GImage extends GCustomObject implements GDrawableObject{
     */
    public Rectangle getRectangle(GPhysicalPoint p, int zoom){
       //check for nulls to prevent null pointer exceptions
-      if(p == null || this.image == null) return null;
+      if(p == null || !hasImage()) return null;
 
       //build a point data element that represents the upper-left corner of the screen
       Point screen = new Point(p.getPixelX(zoom), p.getPixelY(zoom));
@@ -176,28 +224,40 @@ public class GImage extends GCustomObject implements GDrawableObject{
       //rectangle
       return new Rectangle(x-5,y-5,w+10,h+10);
    }
+   /**
+    * Method returns the bounds of this image. If point2 is null the image has a constant
+    * pixel size, so it is a single point with the dimension as its margin.
+    * @return        The bounds, or null if there is no image.
+    */
+   public GBounds getBounds(){
+      if(!hasImage()) return null;
+      GPhysicalPoint corner = point1.getPoint();
+      if(point2 == null) return new GBounds(corner.getX(), corner.getY(), new Insets(0, 0, dimension.height, dimension.width));
+      GBounds toReturn = new GBounds(corner, 5);
+      toReturn.add(point2.getPoint().getX(), point2.getPoint().getY());
+      return toReturn;
+   }
+
    /**
     * Method to draw the marker object to the screen
-    * @param image   The map image to be rendered
-    * @param p       The point to place the marker
-    * @param zoom    The current zoom level for the map
+    * @param context The frame being drawn
     */
-   public void draw(BufferedImage image, GPhysicalPoint p, int zoom){
+   public void draw(GRenderContext context){
       //check for nulls to prevent null pointer exceptions
-      if(p == null || image == null || this.image == null) return ;
+      if(context.getScreen() == null || getImage() == null) return ;
+      int zoom = context.getZoom();
 
       //build a rectangle data element that represents the visible area of the screen
-      Rectangle screen = new Rectangle(p.getPixelX(zoom), p.getPixelY(zoom), image.getWidth(), image.getHeight());
+      Rectangle screen = new Rectangle(context.getScreen().x, context.getScreen().y, context.getWidth(), context.getHeight());
 
       //if the point is not on the screen return here
       //if(!screen.contains(point1.getPoint().getPixelX(zoom), point1.getPoint().getPixelY(zoom)) && !screen.contains(point2.getPoint().getPixelX(zoom), point2.getPoint().getPixelY(zoom))) return ;
 
-      //create a graphics context
-      Graphics2D g = image.createGraphics();
-
       //set up graphics properties
-      g.setColor(getColor());
-      g.setStroke(new BasicStroke(getStroke()));
+      Graphics2D g = context.getGraphics();
+      context.setComposite(GRenderContext.OPAQUE);
+      context.setColor(getColor());
+      context.setStroke(getStroke());
 
       //get the coordinate of point1 on our visible screen
       Point pointOnScreen1 = new Point(point1.getPoint().getPixelX(zoom) - screen.x, point1.getPoint().getPixelY(zoom) - screen.y);
@@ -205,7 +265,7 @@ public class GImage extends GCustomObject implements GDrawableObject{
       //handle the case of point2 being null first
       if(point2 == null){
          //draw
-         g.drawImage(this.image, pointOnScreen1.x, pointOnScreen1.y, dimension.width, dimension.height, null);
+         drawVisible(g, pointOnScreen1.x, pointOnScreen1.y, dimension.width, dimension.height, context.getWidth(), context.getHeight());
          g.drawRect(pointOnScreen1.x, pointOnScreen1.y, dimension.width, dimension.height);
       }else{
          //get the coordinate of point2 on our visible screen
@@ -215,11 +275,85 @@ public class GImage extends GCustomObject implements GDrawableObject{
          int y = Math.min(pointOnScreen1.y, pointOnScreen2.y);
          int w = Math.max(pointOnScreen1.x, pointOnScreen2.x) - x;
          int h = Math.max(pointOnScreen1.y, pointOnScreen2.y) - y;
-         g.drawImage(this.image, x, y, w, h, null);
+         drawVisible(g, x, y, w, h, context.getWidth(), context.getHeight());
          g.drawRect(x, y, w, h);
       }
    }
 
+   /**
+    * Method to draw the image into a rectangle, using the smallest mipmap that is still at
+    * least the size of the rectangle, and copying only the part that lands on the screen.
+    * @param g             The graphics context
+    * @param x             The left edge of the rectangle on the screen
+    * @param y             The top edge of the rectangle on the screen
+    * @param w             The width of the rectangle
+    * @param h             The height of the rectangle
+    * @param screenWidth   The width of the screen
+    * @param screenHeight  The height of the screen
+    */
+   private void drawVisible(Graphics2D g, int x, int y, int w, int h, int screenWidth, int screenHeight){
+      if(w <= 0 || h <= 0) return;
+      Rectangle visible = new Rectangle(x, y, w, h).intersection(new Rectangle(0, 0, screenWidth, screenHeight));
+      if(visible.isEmpty()) return;
+
+      BufferedImage source = getMipmap(Math.min(this.image.getWidth()/(double)w, this.image.getHeight()/(double)h));
+      double scaleX = source.getWidth()/(double)w;
+      double scaleY = source.getHeight()/(double)h;
+
+      //the whole source pixels under the visible part, and where their edges land
+      int sx1 = Math.max(0, (int)Math.floor((visible.x - x)*scaleX));
+      int sy1 = Math.max(0, (int)Math.floor((visible.y - y)*scaleY));
+      int sx2 = Math.min(source.getWidth(), (int)Math.ceil((visible.x + visible.width - x)*scaleX));
+      int sy2 = Math.min(source.getHeight(), (int)Math.ceil((visible.y + visible.height - y)*scaleY));
+      int dx1 = x + (int)Math.round(sx1/scaleX);
+      int dy1 = y + (int)Math.round(sy1/scaleY);
+      int dx2 = x + (int)Math.round(sx2/scaleX);
+      int dy2 = y + (int)Math.round(sy2/scaleY);
+      g.drawImage(source, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+   }
+
+   /**
+    * Method to get the smallest mipmap that still has at least 1/ratio of the image's pixels
+    * across, making it and the levels above it if needed.
+    * @param ratio   The image size over the size it is drawn at
+    * @return        The mipmap
+    */
+   private synchronized BufferedImage getMipmap(double ratio){
+      if(mipmaps == null){
+         mipmaps = new BufferedImage[1];
+         mipmaps[0] = this.image;
+      }
+
+      //each level is half the size of the one before
+      int level = 0;
+      while(ratio >= 2.0 && mipmaps[level].getWidth() > 1 && mipmaps[level].getHeight() > 1){
+         ratio /= 2.0;
+         level++;
+         if(level == mipmaps.length){
+            BufferedImage[] temp = new BufferedImage[level+1];
+            System.arraycopy(mipmaps, 0, temp, 0, level);
+            mipmaps = temp;
+         }
+         if(mipmaps[level] == null) mipmaps[level] = halve(mipmaps[level-1]);
+      }
+      return mipmaps[level];
+   }
+
+   /**
+    * Method to scale an image to half its size. Bilinear sampling at exactly half the size
+    * averages each 2x2 block of pixels.
+    */
+   private static BufferedImage halve(BufferedImage source){
+      int w = Math.max(1, source.getWidth()/2);
+      int h = Math.max(1, source.getHeight()/2);
+      BufferedImage toReturn = new BufferedImage(w, h, source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = toReturn.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(source, 0, 0, w, h, null);
+      g.dispose();
+      return toReturn;
+   }
+
    /**
     * Method moves every item by latitude, longitude.
     * @param lat The amount to add to this items latitude
@@ -240,12 +374,7 @@ public class GImage extends GCustomObject implements GDrawableObject{
 
    private void writeObject(ObjectOutputStream out) throws IOException{
       //save image as a png file to an internal byte array
-      if(image != null){
-         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-         if(lossless) ImageIO.write(image, "png", baos);
-         else ImageIO.write(image, "jpg", baos);
-         pngImageData = baos.toByteArray();
-      }
+      if(hasImage()) pngImageData = getImageData();
       //write this object normally
       out.defaultWriteObject();
    }
@@ -0,0 +1,633 @@
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Class GJournal saves the overlays and the pane views as they change, instead of all at once
+ * at exit. Every add, remove and change made through the outermost GDraw, and every new pane
+ * center or zoom, is appended to a journal beside the overlay snapshot. A background thread
+ * writes the journal about once a second, and when it grows large, writes a new snapshot and
+ * starts the journal over. At startup the snapshot is read and the journal replayed on it.
+ *
+ * Each record is framed with its length and a checksum, so a record cut short by a crash is
+ * dropped along with everything after it. A journal names the snapshot it follows by the
+ * snapshot's id. While a new snapshot is written, records go to a second journal that follows
+ * the first, so a crash at any point leaves a snapshot and journals that replay to the state
+ * last flushed. A journal is never started over unless it was replayed; one that could not
+ * be, or follows a snapshot that could not be read, is kept beside it as ".damaged".
+ */
+public class GJournal implements PaneListener{
+
+   /** The first four bytes of every journal: "GMVJ" */
+   public static final int MAGIC = 0x474D564A;
+   /** The version of the journal format written */
+   public static final int VERSION = 1;
+   /** The time between writes of the journal, in milliseconds */
+   public static final long FLUSH_INTERVAL = 1000;
+   /** The journal size past which a new snapshot is written, in bytes */
+   public static final long COMPACT_SIZE = 16*1024*1024;
+   /** The time before a failed snapshot is tried again, doubled at each failure up to the maximum, in milliseconds */
+   public static final long COMPACT_RETRY = 5000;
+   public static final long COMPACT_RETRY_MAX = 5*60*1000;
+
+   /** The kinds of record */
+   private static final byte ADD = 1;
+   private static final byte REMOVE = 2;
+   private static final byte CLEAR = 3;
+   private static final byte SET = 4;
+   /** Whole overlays replacing the old ones; no longer written, but still replayed */
+   private static final byte RESET = 5;
+   private static final byte VIEW = 6;
+
+   /** Declaration of the GUI whose panes are recorded; may be null */
+   private GUI gui;
+   /** Declaration of the snapshot, the journal, and the journal written while a snapshot is made */
+   private File snapshot;
+   private File journalFile;
+   private File nextFile;
+   /** Declaration of the overlays being recorded */
+   private GDraw root;
+
+   /** Declaration of the records not yet written */
+   private ArrayList<Record> pending = new ArrayList<Record>();
+   /** Declaration of the latest pending change of each object and view of each pane, so newer ones replace them */
+   private IdentityHashMap<GDrawableObject,Record> lastChange = new IdentityHashMap<GDrawableObject,Record>();
+   private HashMap<Integer,Record> lastView = new HashMap<Integer,Record>();
+   /** Declaration of the views last recorded, by pane */
+   private HashMap<Integer,String> views = new HashMap<Integer,String>();
+   /** Declaration of the number of records made, and the number at the last add or remove */
+   private long sequence;
+   private long lastStructural;
+
+   /** Declaration of the journal being written and its size */
+   private FileOutputStream fileOut;
+   private DataOutputStream out;
+   private long size;
+   /** Declaration of the id of the snapshot the journal follows */
+   private long base;
+   /** Declaration of the overlays being written as the next snapshot, and its id */
+   private GDraw compacting;
+   private long compactingId;
+   private boolean compactRequested;
+   /** Declaration of when a failed snapshot is tried again, and how long was waited last */
+   private long compactRetryAt;
+   private long compactRetryDelay;
+   /** Declaration of whether the overlays were replaced and the journal must start over after them */
+   private boolean reset;
+
+   /** Declaration of what replay found */
+   private int replayed;
+   private boolean replayedJournal;
+   private boolean replayedNext;
+   private long validLength;
+
+   /** Declaration of the writing thread */
+   private Thread thread;
+   private boolean closed;
+
+   /**
+    * Constructor for GJournal.
+    * @param gui        The GUI whose pane views are recorded, or null
+    * @param snapshot   The overlay snapshot; the journals are kept beside it
+    */
+   public GJournal(GUI gui, File snapshot){
+      this.gui = gui;
+      this.snapshot = snapshot;
+      this.journalFile = new File(snapshot.getPath()+".journal");
+      this.nextFile = new File(snapshot.getPath()+".journal.next");
+   }
+
+   //------------------------------------------------------------------ startup
+
+   /**
+    * Replays the journals that follow the snapshot onto the overlays read from it, and the
+    * pane views onto the GUI. Call this before start.
+    * @param root    The overlays read from the snapshot
+    * @return        The number of records replayed
+    */
+   public int replay(GDraw root){
+      long id = GDrawFile.readId(snapshot);
+      if(id == 0) return 0;
+      try{
+         //a journal begun for a snapshot that was then finished takes over from the old one
+         long[] next = readHeader(nextFile);
+         if(next != null && next[0] == id){
+            LibGUI.replaceFile(nextFile, journalFile);
+            next = null;
+         }
+         long[] journal = readHeader(journalFile);
+         if(journal == null || journal[0] != id) return 0;
+         validLength = replayFile(journalFile, root);
+         replayedJournal = true;
+         //a journal begun for a snapshot that was never finished continues this one
+         if(next != null && next[1] == id){
+            replayFile(nextFile, root);
+            replayedNext = true;
+         }
+      }catch(IOException e){
+         System.out.println("Problem: the overlay journal could not be replayed. {"+e+"}");
+      }
+      if(replayed > 0) System.out.println("Replayed "+replayed+" journaled changes.");
+      return replayed;
+   }
+
+   /**
+    * Moves the snapshot and its journals aside, adding ".damaged" to their names, so start
+    * writes a new snapshot instead of overwriting them. Call this instead of replay when the
+    * overlays could not be read from the snapshot.
+    */
+   public void setAside(){
+      setAside(snapshot);
+      setAside(journalFile);
+      setAside(nextFile);
+   }
+
+   private static void setAside(File file){
+      if(!file.exists()) return;
+      try{
+         LibGUI.replaceFile(file, new File(file.getPath()+".damaged"));
+         System.out.println("Problem: "+file+" could not be used; it was moved to "+file.getName()+".damaged.");
+      }catch(IOException e){
+         System.out.println("Problem: "+file+" could not be moved aside. {"+e+"}");
+      }
+   }
+
+   /**
+    * Starts recording changes to the overlays and the pane views.
+    * @param root    The overlays
+    */
+   public synchronized void start(GDraw root){
+      this.root = root;
+      root.setJournal(this);
+      if(gui != null) gui.getNotifier().addPaneListener(this);
+      //journals holding changes that were not replayed are kept rather than started over
+      if(!replayedJournal && hasRecords(journalFile)) setAside(journalFile);
+      if(!replayedNext && hasRecords(nextFile)) setAside(nextFile);
+      try{
+         base = GDrawFile.readId(snapshot);
+         if(base == 0 || replayedNext){
+            //no snapshot to follow, or two journals to fold into one; write the snapshot now
+            base = new Random().nextLong();
+            GDrawFile.write(root, snapshot, base);
+            openJournal(journalFile, base, 0);
+         }else if(replayed > 0){
+            //keep what was replayed until it is in a snapshot
+            RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+            file.setLength(validLength);
+            file.close();
+            fileOut = new FileOutputStream(journalFile, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut, 65536));
+            size = validLength;
+            compactRequested = true;
+         }else{
+            openJournal(journalFile, base, 0);
+         }
+         nextFile.delete();
+      }catch(IOException e){
+         System.out.println("Problem: the overlay journal could not be started. {"+e+"}");
+         root.setJournal(null);
+         return;
+      }
+
+      thread = new Thread(new Runnable(){
+         public void run(){
+            runJournal();
+         }
+      }, "Journal");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      thread.start();
+   }
+
+   /**
+    * Records new overlays replacing the old ones, eg. when an overlay file is opened. Rather
+    * than journaling the whole of them, a new snapshot is written on the journal thread; the
+    * changes made to the old overlays and not yet written are dropped.
+    * @param root    The new overlays
+    */
+   public synchronized void attach(GDraw root){
+      if(this.root != null) this.root.setJournal(null);
+      this.root = root;
+      root.setJournal(this);
+      ArrayList<Record> views = new ArrayList<Record>();
+      for(int i = 0; i < pending.size(); i++) if(pending.get(i).type == VIEW && !pending.get(i).dead) views.add(pending.get(i));
+      pending = views;
+      lastChange.clear();
+      compacting = copy(root);
+      compactingId = new Random().nextLong();
+      compactRequested = true;
+      reset = true;
+      notifyAll();
+   }
+
+   /**
+    * Writes every pending record and stops recording. Call this at exit.
+    */
+   public void close(){
+      synchronized(this){
+         if(closed) return;
+         closed = true;
+         notifyAll();
+      }
+      try{
+         if(thread != null) thread.join();
+      }catch(InterruptedException e){}
+   }
+
+   //------------------------------------------------------------------ recording
+
+   /** Records an object added to a group. Called by GDraw with this journal locked. */
+   synchronized void added(GDraw draw, GDrawableObject object){
+      Record record = new Record(ADD, getPath(draw));
+      record.setObject(object);
+      addRecord(record, true);
+   }
+
+   /** Records an object about to be removed from a group. Called by GDraw with this journal locked. */
+   synchronized void removed(GDraw draw, int index){
+      Record record = new Record(REMOVE, getPath(draw));
+      record.index = index;
+      addRecord(record, true);
+   }
+
+   /** Records a group about to be emptied. Called by GDraw with this journal locked. */
+   synchronized void cleared(GDraw draw){
+      addRecord(new Record(CLEAR, getPath(draw)), true);
+   }
+
+   /** Records an object changed in place. Called by GDraw with this journal locked. */
+   synchronized void changed(GDraw draw, int index, GDrawableObject object){
+      Record record = new Record(SET, getPath(draw));
+      record.index = index;
+      record.setObject(object);
+      //the object is written when the record is, so an earlier pending change adds nothing
+      Record previous = lastChange.get(object);
+      if(previous != null && previous.sequence > lastStructural) previous.dead = true;
+      lastChange.put(object, record);
+      addRecord(record, false);
+   }
+
+   /**
+    * Records the view of a pane when it changes.
+    * @param source  The pane that was drawn
+    */
+   public synchronized void paneEvent(Object source){
+      if(gui == null || root == null || !(source instanceof GPane)) return;
+      GPane pane = (GPane)source;
+      int index = gui.getTabbedPane().indexOfComponent(pane);
+      GPhysicalPoint center = pane.getCenter();
+      if(index == -1 || center == null) return;
+      String view = center.getX()+" "+center.getY()+" "+pane.getZoom();
+      if(view.equals(views.get(index))) return;
+      views.put(index, view);
+
+      Record record = new Record(VIEW, null);
+      record.index = index;
+      record.latitude = center.getX();
+      record.longitude = center.getY();
+      record.zoom = pane.getZoom();
+      Record previous = lastView.get(index);
+      if(previous != null) previous.dead = true;
+      lastView.put(index, record);
+      addRecord(record, false);
+   }
+
+   private void addRecord(Record record, boolean structural){
+      record.sequence = ++sequence;
+      if(structural) lastStructural = record.sequence;
+      pending.add(record);
+   }
+
+   /** Gets the indices leading from the outermost group to a group. */
+   private int[] getPath(GDraw draw){
+      int depth = 0;
+      for(GDraw group = draw; group.getParent() != null; group = group.getParent()) depth++;
+      int[] toReturn = new int[depth];
+      for(GDraw group = draw; group.getParent() != null; group = group.getParent()) toReturn[--depth] = group.getParent().getIndex(group);
+      return toReturn;
+   }
+
+   //------------------------------------------------------------------ writing
+
+   private void runJournal(){
+      while(true){
+         boolean stop;
+         synchronized(this){
+            if(!closed){
+               try{
+                  wait(FLUSH_INTERVAL);
+               }catch(InterruptedException e){}
+            }
+            stop = closed;
+         }
+         try{
+            flush();
+            //replaced overlays are written before exit, as nothing else holds them
+            //a failed snapshot waits before it is tried again, but is tried once more before exit
+            if((size > COMPACT_SIZE || compactRequested) && (!stop || compacting != null) && (stop || System.currentTimeMillis() >= compactRetryAt)) compact();
+         }catch(IOException e){
+            System.out.println("Problem: overlay changes could not be journaled. {"+e+"}");
+         }
+         if(stop) break;
+      }
+      try{
+         synchronized(this){
+            if(out != null) out.close();
+            out = null;
+         }
+      }catch(IOException e){}
+   }
+
+   /** Writes the pending records to the journal and forces them to the disk. */
+   private void flush() throws IOException{
+      byte[] frames;
+      synchronized(this){
+         //after the overlays were replaced, changes go to a journal following only their snapshot
+         if(reset && out != null){
+            out.close();
+            openJournal(nextFile, compactingId, 0);
+            reset = false;
+         }
+         if(pending.isEmpty()) return;
+         frames = getFrames();
+      }
+      writeFrames(frames);
+   }
+
+   /**
+    * Frames the pending records and clears them. The objects are serialized here, with the
+    * journal locked, so they do not change while they are written.
+    */
+   private byte[] getFrames() throws IOException{
+      ByteArrayOutputStream toReturn = new ByteArrayOutputStream();
+      DataOutputStream frames = new DataOutputStream(toReturn);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      CRC32 crc = new CRC32();
+      for(int i = 0; i < pending.size(); i++){
+         Record record = pending.get(i);
+         if(record.dead) continue;
+         bytes.reset();
+         record.write(new DataOutputStream(bytes));
+         crc.reset();
+         crc.update(bytes.toByteArray(), 0, bytes.size());
+         frames.writeInt(bytes.size());
+         frames.writeInt((int)crc.getValue());
+         bytes.writeTo(frames);
+      }
+      pending = new ArrayList<Record>();
+      lastChange.clear();
+      lastView.clear();
+      return toReturn.toByteArray();
+   }
+
+   /** Appends framed records to the journal and forces them to the disk. */
+   private void writeFrames(byte[] frames) throws IOException{
+      if(out == null) return;
+      out.write(frames);
+      out.flush();
+      fileOut.getFD().sync();
+      size += frames.length;
+   }
+
+   /**
+    * Writes a new snapshot and starts the journal over. The overlays are copied group by
+    * group, sharing the objects, while recording is held; the snapshot is then written from
+    * the copy while changes go on being recorded in a second journal.
+    */
+   private void compact() throws IOException{
+      GDraw draw;
+      long id;
+      synchronized(this){
+         //a snapshot that fails is tried again after a delay
+         compactRequested = true;
+         if(compacting == null){
+            writeFrames(getFrames());
+            compacting = copy(root);
+            compactingId = new Random().nextLong();
+            out.close();
+            openJournal(nextFile, compactingId, base);
+         }
+         draw = compacting;
+         id = compactingId;
+      }
+
+      try{
+         GDrawFile.write(draw, snapshot, id);
+      }catch(IOException e){
+         compactRetryDelay = Math.min(Math.max(2*compactRetryDelay, COMPACT_RETRY), COMPACT_RETRY_MAX);
+         compactRetryAt = System.currentTimeMillis() + compactRetryDelay;
+         throw e;
+      }
+      compactRetryDelay = 0;
+      compactRetryAt = 0;
+
+      synchronized(this){
+         //overlays replaced while the snapshot was written are written next
+         if(reset || compacting != draw) return;
+         out.close();
+         LibGUI.replaceFile(nextFile, journalFile);
+         fileOut = new FileOutputStream(journalFile, true);
+         out = new DataOutputStream(new BufferedOutputStream(fileOut, 65536));
+         base = compactingId;
+         compacting = null;
+         compactRequested = false;
+      }
+   }
+
+   /** Copies the groups of the overlays, sharing everything else. */
+   private static GDraw copy(GDraw draw){
+      GDraw toReturn = new GDraw();
+      for(int i = 0; i < draw.getSize(); i++){
+         GDrawableObject object = draw.get(i);
+         toReturn.add(object instanceof GDraw ? copy((GDraw)object) : object);
+      }
+      return toReturn;
+   }
+
+   private void openJournal(File file, long base, long previous) throws IOException{
+      fileOut = new FileOutputStream(file);
+      out = new DataOutputStream(new BufferedOutputStream(fileOut, 65536));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(base);
+      out.writeLong(previous);
+      out.flush();
+      fileOut.getFD().sync();
+      size = 24;
+   }
+
+   //------------------------------------------------------------------ reading
+
+   /** Tells whether a journal holds any records past its header. */
+   private static boolean hasRecords(File file){
+      return file.isFile() && file.length() > 24;
+   }
+
+   /** Reads the snapshot id a journal follows and the id of the journal it continues, or null if there is no journal. */
+   private static long[] readHeader(File file){
+      if(!file.isFile()) return null;
+      try{
+         DataInputStream in = new DataInputStream(new FileInputStream(file));
+         try{
+            if(in.readInt() != MAGIC || in.readInt() > VERSION) return null;
+            return new long[]{in.readLong(), in.readLong()};
+         }finally{
+            in.close();
+         }
+      }catch(IOException e){
+         return null;
+      }
+   }
+
+   /**
+    * Replays the records of a journal, up to the first one that is cut short or damaged.
+    * @return        The length of the journal up to that record
+    */
+   private long replayFile(File file, GDraw root) throws IOException{
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+      long toReturn = 24;
+      try{
+         in.skipBytes(24);
+         CRC32 crc = new CRC32();
+         while(true){
+            int length;
+            int checksum;
+            byte[] bytes;
+            try{
+               length = in.readInt();
+               checksum = in.readInt();
+               if(length < 0 || length > file.length()) break;
+               bytes = new byte[length];
+               in.readFully(bytes);
+            }catch(EOFException e){
+               break;
+            }
+            crc.reset();
+            crc.update(bytes, 0, length);
+            if((int)crc.getValue() != checksum) break;
+            try{
+               apply(new DataInputStream(new ByteArrayInputStream(bytes)), root);
+            }catch(Exception e){
+               System.out.println("Problem: a journaled change could not be replayed. {"+e+"}");
+               break;
+            }
+            replayed++;
+            toReturn += 8 + length;
+         }
+      }finally{
+         in.close();
+      }
+      return toReturn;
+   }
+
+   private void apply(DataInputStream in, GDraw root) throws IOException, ClassNotFoundException{
+      byte type = in.readByte();
+      if(type == VIEW){
+         int index = in.readInt();
+         GPhysicalPoint center = new GPhysicalPoint(in.readDouble(), in.readDouble());
+         int zoom = in.readInt();
+         if(gui != null && index < gui.getTabbedPane().getTabCount()){
+            GPane pane = (GPane)gui.getTabbedPane().getComponentAt(index);
+            pane.setCenter(center);
+            pane.setZoom(zoom);
+         }
+         return;
+      }
+      int[] path = new int[in.readInt()];
+      GDraw draw = root;
+      for(int i = 0; i < path.length; i++) draw = (GDraw)draw.get(in.readInt());
+      switch(type){
+         case ADD:
+            draw.add(readObject(in));
+            break;
+         case REMOVE:
+            int index = in.readInt();
+            if(index >= draw.getSize()) throw new IOException("No overlay "+index+" to remove");
+            draw.remove(index);
+            break;
+         case CLEAR:
+            draw.removeAll();
+            break;
+         case SET:
+            draw.set(in.readInt(), readObject(in));
+            break;
+         case RESET:
+            GDraw reset = (GDraw)readObject(in);
+            draw.removeAll();
+            for(int i = 0; i < reset.getSize(); i++) draw.add(reset.get(i));
+            break;
+         default:
+            throw new IOException("Unknown record "+type);
+      }
+   }
+
+   private static GDrawableObject readObject(DataInputStream in) throws IOException, ClassNotFoundException{
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+      return (GDrawableObject)objectIn.readObject();
+   }
+
+   /**
+    * A change waiting to be written. Objects are serialized when the record is framed, not
+    * when it is made, so recording costs the caller almost nothing. Groups are the exception:
+    * what is added to them later is recorded on its own, so they are serialized at once.
+    */
+   private static class Record{
+      byte type;
+      int[] path;
+      int index;
+      GDrawableObject object;
+      double latitude;
+      double longitude;
+      int zoom;
+      long sequence;
+      boolean dead;
+
+      byte[] data;
+
+      Record(byte type, int[] path){
+         this.type = type;
+         this.path = path;
+      }
+
+      void setObject(GDrawableObject object){
+         this.object = object;
+         if(object instanceof GDraw){
+            try{
+               data = serialize(object);
+            }catch(IOException e){
+               System.out.println("Problem: an overlay group could not be journaled. {"+e+"}");
+            }
+         }
+      }
+
+      void write(DataOutputStream out) throws IOException{
+         out.writeByte(type);
+         if(type == VIEW){
+            out.writeInt(index);
+            out.writeDouble(latitude);
+            out.writeDouble(longitude);
+            out.writeInt(zoom);
+            return;
+         }
+         out.writeInt(path.length);
+         for(int i = 0; i < path.length; i++) out.writeInt(path[i]);
+         if(type == REMOVE || type == SET) out.writeInt(index);
+         if(type == ADD || type == SET || type == RESET){
+            byte[] bytes = (data != null) ? data : serialize(object);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+         }
+      }
+
+      static byte[] serialize(GDrawableObject object) throws IOException{
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+         objectOut.writeObject(object);
+         objectOut.close();
+         return bytes.toByteArray();
+      }
+   }
+
+}
@@ -0,0 +1,138 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * Class GLabelRenderer measures and pre-renders map labels. Text is measured against one
+ * shared off-screen graphics context, so a label has bounds before it is ever drawn, and
+ * each measurement is cached per (text, font). A finished label, with its background box
+ * and border, is rendered once into a sprite cached per (text, font, colors, stroke). The
+ * caches are static, so every frame and every pane share them.
+ */
+public class GLabelRenderer{
+
+   /** The font labels are drawn in; the default font of a BufferedImage graphics context */
+   public static final Font DEFAULT_FONT = new Font("Dialog", Font.PLAIN, 12);
+
+   /** The padding between the text and the border of its box */
+   public static final int PADDING = 2;
+
+   /** The most measurements kept */
+   private static final int MAX_MEASUREMENTS = 2048;
+   /** The most sprites kept */
+   private static final int MAX_SPRITES = 512;
+
+   /** Declaration of the graphics context text is measured with */
+   private static Graphics2D measureGraphics;
+   /** Declaration of the cached measurements, least recently used first */
+   private static LinkedHashMap<String,Rectangle> measurements = new LruMap<String,Rectangle>(MAX_MEASUREMENTS);
+   /** Declaration of the cached sprites, least recently used first */
+   private static LinkedHashMap<String,BufferedImage> sprites = new LruMap<String,BufferedImage>(MAX_SPRITES);
+
+   /**
+    * Measures a string, without drawing it.
+    * @param text    The text
+    * @param font    The font it is drawn in
+    * @return        The string bounds relative to the baseline. Do not modify it.
+    */
+   public static synchronized Rectangle measure(String text, Font font){
+      String key = font + "\0" + text;
+      Rectangle toReturn = measurements.get(key);
+      if(toReturn == null){
+         Rectangle2D bounds = getMetrics(font).getStringBounds(text, measureGraphics);
+         toReturn = new Rectangle((int)bounds.getX(), (int)bounds.getY(), (int)bounds.getWidth(), (int)bounds.getHeight());
+         measurements.put(key, toReturn);
+      }
+      return toReturn;
+   }
+
+   /**
+    * Gets the largest descent of any character in a font.
+    * @param font    The font
+    * @return        The descent in pixels
+    */
+   public static synchronized int getMaxDescent(Font font){
+      return getMetrics(font).getMaxDescent();
+   }
+
+   /**
+    * Gets the pre-rendered sprite of a label. The sprite holds the box from
+    * getBoxRectangle, filled with the background and outlined with the stroke, plus
+    * getSpriteInset pixels on every side for the outline.
+    * @param text       The text
+    * @param font       The font
+    * @param color      The text and border color
+    * @param background The box color
+    * @param stroke     The border width
+    * @return           The sprite. Do not modify it.
+    */
+   public static synchronized BufferedImage getSprite(String text, Font font, Color color, Color background, int stroke){
+      String key = font + "\0" + color.getRGB() + "\0" + background.getRGB() + "\0" + stroke + "\0" + text;
+      BufferedImage toReturn = sprites.get(key);
+      if(toReturn == null){
+         Rectangle box = getBoxRectangle(text, font);
+         int inset = getSpriteInset(stroke);
+         toReturn = new BufferedImage(box.width + 2*inset + 1, box.height + 2*inset + 1, BufferedImage.TYPE_INT_ARGB);
+
+         //draw the box, then the text on its baseline
+         Graphics2D g = toReturn.createGraphics();
+         g.setColor(background);
+         g.fillRect(inset, inset, box.width, box.height);
+         g.setColor(color);
+         g.setStroke(new BasicStroke(stroke));
+         g.drawRect(inset, inset, box.width, box.height);
+         g.setFont(font);
+         g.drawString(text, inset - box.x, inset - box.y);
+         g.dispose();
+         sprites.put(key, toReturn);
+      }
+      return toReturn;
+   }
+
+   /**
+    * Gets the box drawn behind a label, relative to the start of its baseline.
+    * @param text    The text
+    * @param font    The font
+    * @return        The box, including the padding
+    */
+   public static Rectangle getBoxRectangle(String text, Font font){
+      Rectangle textRectangle = measure(text, font);
+      int maxDescent = getMaxDescent(font);
+      return new Rectangle(-PADDING, -textRectangle.height + maxDescent - PADDING, textRectangle.width + 2*PADDING, textRectangle.height + maxDescent + 2*PADDING);
+   }
+
+   /**
+    * Gets the room a sprite leaves around its box for the border.
+    * @param stroke  The border width
+    * @return        The inset in pixels
+    */
+   public static int getSpriteInset(int stroke){
+      return (stroke + 1)/2;
+   }
+
+   /**
+    * Gets the metrics of a font from the shared measuring context.
+    */
+   private static FontMetrics getMetrics(Font font){
+      if(measureGraphics == null) measureGraphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+      return measureGraphics.getFontMetrics(font);
+   }
+
+   /**
+    * A map that drops its least recently used entry once it is full.
+    */
+   private static class LruMap<K,V> extends LinkedHashMap<K,V>{
+      private int capacity;
+
+      public LruMap(int capacity){
+         super(16, 0.75f, true);
+         this.capacity = capacity;
+      }
+
+      protected boolean removeEldestEntry(Map.Entry<K,V> eldest){
+         return size() > capacity;
+      }
+   }
+
+}
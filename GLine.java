@@ -15,6 +15,8 @@ import java.awt.geom.*;
 
 /** Class defining the instance for a line object. A line is simply two GMarkers. */
 public class GLine extends GCustomObject implements GDrawableObject{
+   static final long serialVersionUID = -3379346981446999751L;
+
    /** Two GMarkers */
    private GMarker point1;
    private GMarker point2;
@@ -113,37 +115,45 @@ public class GLine extends GCustomObject implements GDrawableObject{
       //rectangle
       return new Rectangle(x-5,y-5,w+10,h+10);
    }
+   /**
+    * Method returns the bounds of this line: both end points, padded like getRectangle.
+    * @return        The bounds.
+    */
+   public GBounds getBounds(){
+      GBounds toReturn = new GBounds(point1.getPoint(), Math.max(5, getStroke()));
+      toReturn.add(point2.getPoint().getX(), point2.getPoint().getY());
+      return toReturn;
+   }
+
    /**
     * Method to draw the marker object to the screen
-    * @param image   The map image to be rendered
-    * @param p       The point to place the marker
-    * @param zoom    The current zoom level for the map
+    * @param context The frame being drawn
     */
-   public void draw(BufferedImage image, GPhysicalPoint p, int zoom){
+   public void draw(GRenderContext context){
       //update the opacity
-      super.draw(image, p, zoom);
+      super.draw(context);
 
       //check for nulls to prevent null pointer exceptions
-      if(p == null || image == null) return ;
+      if(context.getScreen() == null) return ;
+      int zoom = context.getZoom();
 
       //build a rectangle data element that represents the visible area of the screen
-      Rectangle screen = new Rectangle(p.getPixelX(zoom), p.getPixelY(zoom), image.getWidth(), image.getHeight());
+      Rectangle screen = new Rectangle(context.getScreen().x, context.getScreen().y, context.getWidth(), context.getHeight());
 
       //if the point is not on the screen return here
-      if(!screen.contains(point1.getPoint().getPixelX(zoom), point1.getPoint().getPixelY(zoom)) && !screen.contains(point2.getPoint().getPixelX(zoom), point2.getPoint().getPixelY(zoom))) return ;
-
-      //create a graphics context
-      Graphics2D g = image.createGraphics();
+      Point pixelLocation1 = point1.getPoint().getPixelPoint(zoom);
+      Point pixelLocation2 = point2.getPoint().getPixelPoint(zoom);
+      if(!screen.contains(pixelLocation1) && !screen.contains(pixelLocation2)) return ;
 
       //get the coordinate of the point on our visible screen
-      Point pointOnScreen1 = new Point(point1.getPoint().getPixelX(zoom) - screen.x, point1.getPoint().getPixelY(zoom) - screen.y);
-      Point pointOnScreen2 = new Point(point2.getPoint().getPixelX(zoom) - screen.x, point2.getPoint().getPixelY(zoom) - screen.y);
+      Point pointOnScreen1 = new Point(pixelLocation1.x - screen.x, pixelLocation1.y - screen.y);
+      Point pointOnScreen2 = new Point(pixelLocation2.x - screen.x, pixelLocation2.y - screen.y);
 
       //draw it
-      g.setComposite(getAlpha());
-      g.setColor(getColor());
-      g.setStroke(new BasicStroke(getStroke()));
-      g.drawLine(pointOnScreen1.x, pointOnScreen1.y, pointOnScreen2.x, pointOnScreen2.y);
+      context.setComposite(getAlpha());
+      context.setColor(getColor());
+      context.setStroke(getStroke());
+      context.getGraphics().drawLine(pointOnScreen1.x, pointOnScreen1.y, pointOnScreen2.x, pointOnScreen2.y);
    }
 
    /**
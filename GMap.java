@@ -42,6 +42,14 @@ class GMap implements Serializable{
    transient private GDataSource gDataSourceHybrid;
    transient private GDataSource gDataSourceOverlay;
 
+   //layers drawn over the tiles of the mode, from the bottom up, and the source composing them, made with the first layer
+   transient private ArrayList<GTileLayer> layers = new ArrayList<GTileLayer>();
+   transient private GTileCompositor compositor;
+   transient private String cache;
+
+   //serves the cached tiles to other viewers, if tiles.properties asks for it
+   transient private GTileServer tileServer;
+
    //GDraw handles the work of painting data NOT in the database
    private GDraw gDraw;
 
@@ -65,10 +73,51 @@ class GMap implements Serializable{
    */
    public GMap(String cache){
       //data source
-      this.gDataSourceMap = new GDataSourceMap(cache+"/map_cache");
-      this.gDataSourceSatellite = new GDataSourceSatellite(cache+"/sat_cache");
-      //this.gDataSourceOverlay = new GDataSourceOverlay(cache+"/overlay_cache");
-      this.gDataSourceHybrid = new GDataSourceHybrid(cache+"/hybrid_cache",gDataSourceSatellite);
+      Properties tiles = readTiles();
+      GDataSource[] sources = makeDataSources(tiles, cache);
+      this.gDataSourceMap = sources[0];
+      this.gDataSourceSatellite = sources[1];
+      this.gDataSourceOverlay = sources[2];
+      this.gDataSourceHybrid = sources[3];
+      try{
+         gDataSourceMap.setCacheManager(GCacheManager.fromProperties(gDataSourceMap, tiles, "map"));
+         gDataSourceSatellite.setCacheManager(GCacheManager.fromProperties(gDataSourceSatellite, tiles, "satellite"));
+         gDataSourceOverlay.setCacheManager(GCacheManager.fromProperties(gDataSourceOverlay, tiles, "overlay"));
+         gDataSourceHybrid.setCacheManager(GCacheManager.fromProperties(gDataSourceHybrid, tiles, "hybrid"));
+      }catch(NumberFormatException e){
+         System.out.println("Problem: the cache quotas in tiles.properties could not be read. {"+e+"}");
+      }
+
+      //layers named in tiles.properties, eg. layers=weather with layer.weather=<provider>
+      this.cache = cache;
+      String names = tiles.getProperty("layers");
+      if(names != null){
+         StringTokenizer tokens = new StringTokenizer(names, ", ");
+         while(tokens.hasMoreTokens()){
+            String name = tokens.nextToken();
+            GDataSource source = getProviderSource(tiles, "layer."+name, cache);
+            if(source == null) continue;
+            source.setTiers(GTileTier.makeChain(source, tiles, "layer."+name));
+            try{
+               source.setCacheManager(GCacheManager.fromProperties(source, tiles, "layer."+name));
+               float opacity = Float.parseFloat(tiles.getProperty("layer."+name+".opacity", "1").trim());
+               boolean visible = !"false".equalsIgnoreCase(tiles.getProperty("layer."+name+".visible", "true").trim());
+               layers.add(new GTileLayer(name, source, opacity, visible));
+            }catch(NumberFormatException e){
+               System.out.println("Problem: the "+name+" layer in tiles.properties could not be read. {"+e+"}");
+            }
+         }
+      }
+
+      //serve the cache to other viewers
+      String port = tiles.getProperty("server.port");
+      if(port != null){
+         try{
+            tileServer = new GTileServer(this, Integer.parseInt(port.trim()));
+         }catch(Exception e){
+            System.out.println("Problem: the tile server could not be started on port "+port+". {"+e+"}");
+         }
+      }
 
       //build default image
       defaultImage = getDefaultImage(GDataSource.sourceSize.width, GDataSource.sourceSize.height);
@@ -77,12 +126,87 @@ class GMap implements Serializable{
       this.gDraw = new GDraw();
 
       //mode
-      this.mode = MAP_MODE;
+      setMode(MAP_MODE);
 
       //icon
       ImageIcon loadImage = new ImageIcon("images/google.png");
       googleImage = loadImage.getImage();
    }
+   /**
+   Reads tiles.properties, in which tile servers or tile sets named take the place of the built in ones.
+   @return The properties, empty if there are none.
+   */
+   private static Properties readTiles(){
+      Properties tiles = new Properties();
+      File tilesFile = new File("tiles.properties");
+      if(tilesFile.isFile()){
+         try{
+            FileInputStream in = new FileInputStream(tilesFile);
+            tiles.load(in);
+            in.close();
+         }catch(IOException e){
+            System.out.println("Problem: tiles.properties could not be read. {"+e+"}");
+         }
+      }
+      return tiles;
+   }
+   /**
+   Makes the data sources of the modes with their tiers, but no cache managers.
+   @param tiles - The properties read from tiles.properties.
+   @param cache - Base directory for the cache directories.
+   @return The map, satellite, overlay and hybrid sources, in that order.
+   */
+   private static GDataSource[] makeDataSources(Properties tiles, String cache){
+      GDataSource map = getProviderSource(tiles, "map", cache);
+      if(map == null) map = new GDataSourceMap(cache+"/map_cache");
+      GDataSource satellite = getProviderSource(tiles, "satellite", cache);
+      if(satellite == null) satellite = new GDataSourceSatellite(cache+"/sat_cache");
+      GDataSource overlay = getProviderSource(tiles, "overlay", cache);
+      if(overlay == null) overlay = new GDataSourceOverlay(cache+"/overlay_cache");
+      //hybrid tiles are the overlay drawn over the satellite tiles, unless a provider serves them whole
+      GDataSource hybrid = getProviderSource(tiles, "hybrid", cache);
+      if(hybrid == null) hybrid = new GDataSourceHybrid(cache+"/hybrid_cache",satellite,overlay);
+      map.setTiers(GTileTier.makeChain(map, tiles, "map"));
+      satellite.setTiers(GTileTier.makeChain(satellite, tiles, "satellite"));
+      overlay.setTiers(GTileTier.makeChain(overlay, tiles, "overlay"));
+      hybrid.setTiers(GTileTier.makeChain(hybrid, tiles, "hybrid"));
+      return new GDataSource[]{map, satellite, overlay, hybrid};
+   }
+   /**
+   Makes the data source of a mode as the viewer does, but on its own: no cache managers
+   walk its cache and no tile server is started, eg. for tools working on the cache.
+   @param mode - MAP_MODE, SATELLITE_MODE or HYBRID_MODE.
+   @param cache - Base directory for the cache directories.
+   @return The data source.
+   */
+   public static GDataSource makeDataSource(int mode, String cache){
+      GDataSource[] sources = makeDataSources(readTiles(), cache);
+      if(mode == MAP_MODE) return sources[0];
+      else if(mode == SATELLITE_MODE) return sources[1];
+      else return sources[3];
+   }
+   /**
+   Makes the data source for a tile provider named in tiles.properties. Each provider is
+   cached in its own directory, named after the property's value, so tiles of different
+   providers are never mixed.
+   @param tiles - The properties read from tiles.properties.
+   @param name - The name of the source: map, satellite, overlay or hybrid.
+   @param cache - Base directory for the cache directories.
+   @return The data source, or null if no provider is named for it.
+   */
+   private static GDataSource getProviderSource(Properties tiles, String name, String cache){
+      try{
+         GTileSourceProvider provider = GDataSourceProvider.fromProperties(tiles, name);
+         if(provider == null) return null;
+         String directory = cache+"/"+name+"_"+Integer.toHexString(tiles.getProperty(name).trim().hashCode());
+         System.out.println("Using "+provider.getName()+" for "+name+" tiles.");
+         return new GDataSourceProvider(directory, provider);
+      }catch(Exception e){
+         System.out.println("Problem: the "+name+" tiles in tiles.properties could not be used. {"+e+"}");
+         return null;
+      }
+   }
+
    /**
    Builds a GMap based on a 'cache' sub-directory.
    */
@@ -96,6 +220,7 @@ class GMap implements Serializable{
    @return Returns the GDataSource used to grab the images.
    */
    public GDataSource getGDataSource(){
+      if(layers != null && layers.size() > 0 && compositor != null) return compositor;
       return getGDataSource(mode);
    }
    /**
@@ -110,6 +235,13 @@ class GMap implements Serializable{
       return null;
    }
    /**
+   Returns the server sharing the cached tiles with other viewers.
+   @return The server, or null if tiles.properties sets no server.port.
+   */
+   public GTileServer getTileServer(){
+      return tileServer;
+   }
+   /**
 
    */
    public GDraw getGDraw(){
@@ -129,6 +261,45 @@ class GMap implements Serializable{
         */
    public void setMode(int mode){
       this.mode = mode;
+      updateLayers();
+   }
+
+   /**
+   Gets the layers drawn over the tiles of the mode, from the bottom up. A layer's
+   opacity and visibility may be changed on it directly.
+   @return The layers.
+   */
+   public ArrayList<GTileLayer> getLayers(){
+      return new ArrayList<GTileLayer>(layers);
+   }
+
+   /**
+   Adds a layer on top of the others.
+   @param layer - The layer to add.
+   */
+   public void addLayer(GTileLayer layer){
+      layers.add(layer);
+      updateLayers();
+   }
+
+   /**
+   Removes a layer.
+   @param layer - The layer to remove.
+   */
+   public void removeLayer(GTileLayer layer){
+      layers.remove(layer);
+      updateLayers();
+   }
+
+   //the tiles of the mode are the bottom layer of the stack
+   private void updateLayers(){
+      if(layers == null || layers.size() == 0 || cache == null) return;
+      if(compositor == null) compositor = new GTileCompositor(cache+"/composed_cache");
+      ArrayList<GTileLayer> stack = new ArrayList<GTileLayer>();
+      GDataSource base = getGDataSource(mode);
+      if(base != null) stack.add(new GTileLayer("base", base, 1, true));
+      stack.addAll(layers);
+      compositor.setLayers(stack);
    }
 
    /**
@@ -138,7 +309,10 @@ class GMap implements Serializable{
    @param gDraw
         */
    public void setGDraw(GDraw gDraw){
+      //the journal goes on recording with the new overlays
+      GJournal journal = (this.gDraw == null) ? null : this.gDraw.getJournal();
       this.gDraw = gDraw;
+      if(journal != null) journal.attach(gDraw);
    }
 
    /**
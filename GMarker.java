@@ -15,6 +15,8 @@ import java.awt.geom.*;
 
 /** Class defining the instance for a marker object. It implements GDrawableObject */
 public class GMarker extends GCustomObject implements GDrawableObject{
+   static final long serialVersionUID = -7397013547476326571L;
+
    /** Declaration for a point on the map for the marker */
    private GPhysicalPoint point;
    /**
@@ -63,35 +65,41 @@ public class GMarker extends GCustomObject implements GDrawableObject{
 
       return new Rectangle(pointOnScreen.x - 5,pointOnScreen.y - 5,10,10);
    }
+   /**
+    * Method returns the bounds of this marker: its point, padded by the drawn radius.
+    * @return        The bounds.
+    */
+   public GBounds getBounds(){
+      return new GBounds(point, Math.max(5, getStroke()));
+   }
+
    /**
     * Method to draw the marker object to the screen
-    * @param image   The map image to be rendered
-    * @param p       The point to place the marker
-    * @param zoom    The current zoom level for the map
+    * @param context The frame being drawn
     */
-   public void draw(BufferedImage image, GPhysicalPoint p, int zoom){
+   public void draw(GRenderContext context){
       //update
-      super.draw(image,p,zoom);
+      super.draw(context);
 
       //check for nulls to prevent null pointer exceptions
-      if(p == null || image == null) return ;
+      if(context.getScreen() == null) return ;
+      int zoom = context.getZoom();
 
       //build a rectangle data element that represents the visible area of the screen
-      Rectangle screen = new Rectangle(p.getPixelX(zoom), p.getPixelY(zoom), image.getWidth(), image.getHeight());
+      Rectangle screen = new Rectangle(context.getScreen().x, context.getScreen().y, context.getWidth(), context.getHeight());
 
       //if the point is not on the screen return here
-      if(!screen.contains(point.getPixelX(zoom), point.getPixelY(zoom))) return ;
-
-      //create a graphics context
-      Graphics2D g = image.createGraphics();
+      Point pixelLocation = point.getPixelPoint(zoom);
+      if(!screen.contains(pixelLocation)) return ;
 
       //get the coordinate of the point on our visible screen
-      Point pointOnScreen = new Point(point.getPixelX(zoom) - screen.x, point.getPixelY(zoom) - screen.y);
+      Point pointOnScreen = new Point(pixelLocation.x - screen.x, pixelLocation.y - screen.y);
 
       //draw it
-      g.setColor(getColor());
+      context.setComposite(GRenderContext.OPAQUE);
+      context.setColor(getColor());
       //g.fillOval(pointOnScreen.x - 5,pointOnScreen.y - 5,10,10);
-      g.fillOval(pointOnScreen.x - getStroke(),pointOnScreen.y - getStroke(), 2*getStroke(), 2*getStroke());
+      context.getGraphics().fillOval(pointOnScreen.x - getStroke(),pointOnScreen.y - getStroke(), 2*getStroke(), 2*getStroke());
    }
 
    /**
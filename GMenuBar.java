@@ -17,12 +17,12 @@ public class GMenuBar extends JMenuBar{
 
    public GMenuBar(GUI gui){
       //file
-      JMenuItem[] fileMenu = {new JMenuActionSaveGDraw(gui), new JMenuActionOpenGDraw(gui), new JMenuActionExport(gui), new JMenuActionResetUI(gui), new JMenuCheckBoxOnline(gui), new JMenuActionExit(gui)};
+      JMenuItem[] fileMenu = {new JMenuActionSaveGDraw(gui), new JMenuActionOpenGDraw(gui), new JMenuActionImportTrack(gui), new JMenuActionImportRaster(gui), new JMenuActionExport(gui), new JMenuActionResetUI(gui), new JMenuCheckBoxOnline(gui), new JMenuActionExit(gui)};
       //JMenuItem[] fileMenu = {new JMenuActionExport(gui), new JMenuActionExit(gui)};
       add(new JMenuGroup("File",gui,fileMenu));
 
       //edit
-      JMenuItem[] editMenu = {new JMenuActionCopy(gui), new JMenuActionPaste(gui),new JMenuActionSelectAllOverlays(gui),new JMenuActionDeselectOverlays(gui)};
+      JMenuItem[] editMenu = {new JMenuActionCopy(gui), new JMenuActionPaste(gui),new JMenuActionSelectAllOverlays(gui),new JMenuActionDeselectOverlays(gui),new JMenuActionClusterMarkers(gui)};
       add(new JMenuGroup("Edit",gui,editMenu));
 
       //pane
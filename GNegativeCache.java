@@ -0,0 +1,220 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class GNegativeCache remembers tiles a server does not have or failed to send, so they are
+ * not asked for again on every draw. A tile the server has no image for (a 404, or an answer
+ * that is not an image) is left alone for an hour, then two, and so on up to a week; a tile
+ * whose download failed is left alone for half a minute, doubling up to an hour. The tiles of
+ * a data source are kept in a file in its cache directory, so they outlast a restart.
+ *
+ * A host that fails as a whole (no connection, a 5xx or 429 answer after every retry) is
+ * backed off the same way, from five seconds up to ten minutes, for every data source at
+ * once. Host backoffs are kept in memory only, as they are short.
+ */
+public class GNegativeCache{
+
+   /** The first and the longest wait after a tile was missing, in milliseconds */
+   public static final long MISSING_TTL = 60*60*1000;
+   public static final long MISSING_MAX = 7*24*60*60*1000L;
+   /** The first and the longest wait after a tile failed, in milliseconds */
+   public static final long FAILED_TTL = 30*1000;
+   public static final long FAILED_MAX = 60*60*1000;
+   /** The first and the longest wait after a host failed, in milliseconds */
+   public static final long HOST_TTL = 5*1000;
+   public static final long HOST_MAX = 10*60*1000;
+   /** The time between writes of the file, in milliseconds */
+   public static final long SAVE_INTERVAL = 30*1000;
+
+   /** Declaration of the backoffs of the hosts, as {until, failures}, by host */
+   private static HashMap<String,long[]> hosts = new HashMap<String,long[]>();
+
+   /** Declaration of the file the tiles are kept in */
+   private File file;
+   /** Declaration of the backoffs of the tiles, as {until, failures, missing}, by "zoom x y" */
+   private HashMap<String,long[]> tiles = new HashMap<String,long[]>();
+   private boolean dirty;
+   private long lastSave;
+
+   /**
+    * Constructor for GNegativeCache. The tiles kept in the file are read, and it is written
+    * again when the program exits.
+    * @param file    The file the tiles are kept in
+    */
+   public GNegativeCache(File file){
+      this.file = file;
+      read();
+      Runtime.getRuntime().addShutdownHook(new Thread("Negative Cache"){
+         public void run(){
+            save();
+         }
+      });
+   }
+
+   /**
+    * Tells whether a tile should not be asked for yet.
+    * @param x       The horizontal coordinate
+    * @param y       The vertical coordinate
+    * @param zoom    The zoom level
+    * @return        True if the tile is still backed off.
+    */
+   public synchronized boolean isBlocked(int x, int y, int zoom){
+      long[] entry = tiles.get(zoom+" "+x+" "+y);
+      return entry != null && entry[0] > System.currentTimeMillis();
+   }
+
+   /**
+    * Notes that the server has no image for a tile.
+    * @param x       The horizontal coordinate
+    * @param y       The vertical coordinate
+    * @param zoom    The zoom level
+    */
+   public void recordMissing(int x, int y, int zoom){
+      record(zoom+" "+x+" "+y, true);
+   }
+
+   /**
+    * Notes that downloading a tile failed.
+    * @param x       The horizontal coordinate
+    * @param y       The vertical coordinate
+    * @param zoom    The zoom level
+    */
+   public void recordFailure(int x, int y, int zoom){
+      record(zoom+" "+x+" "+y, false);
+   }
+
+   /**
+    * Forgets a tile, eg. once it was downloaded.
+    * @param x       The horizontal coordinate
+    * @param y       The vertical coordinate
+    * @param zoom    The zoom level
+    */
+   public synchronized void clear(int x, int y, int zoom){
+      if(tiles.remove(zoom+" "+x+" "+y) != null) dirty = true;
+   }
+
+   /**
+    * Forgets every tile, eg. when the user asks to try again.
+    */
+   public synchronized void clear(){
+      tiles.clear();
+      dirty = true;
+   }
+
+   private void record(String key, boolean missing){
+      synchronized(this){
+         long[] entry = tiles.get(key);
+         //a tile that was missing and now fails, or the other way, starts over
+         if(entry == null || (entry[2] != 0) != missing) entry = new long[]{0, 0, missing ? 1 : 0};
+         entry[1]++;
+         entry[0] = System.currentTimeMillis() + backoff(missing ? MISSING_TTL : FAILED_TTL, missing ? MISSING_MAX : FAILED_MAX, entry[1]);
+         tiles.put(key, entry);
+         dirty = true;
+         if(System.currentTimeMillis() - lastSave < SAVE_INTERVAL) return;
+      }
+      save();
+   }
+
+   //the wait doubles with each failure in a row, up to the longest
+   private static long backoff(long first, long longest, long failures){
+      if(failures > 30) return longest;
+      return Math.min(longest, first << (failures - 1));
+   }
+
+   /**
+    * Tells whether a host should not be asked for tiles yet.
+    * @param host    The host name
+    * @return        True if the host is still backed off.
+    */
+   public static boolean isHostBlocked(String host){
+      synchronized(hosts){
+         long[] entry = hosts.get(host);
+         return entry != null && entry[0] > System.currentTimeMillis();
+      }
+   }
+
+   /**
+    * Notes that a host failed.
+    * @param host    The host name
+    */
+   public static void recordHostFailure(String host){
+      synchronized(hosts){
+         long[] entry = hosts.get(host);
+         if(entry == null){
+            entry = new long[2];
+            hosts.put(host, entry);
+         }
+         entry[1]++;
+         entry[0] = System.currentTimeMillis() + backoff(HOST_TTL, HOST_MAX, entry[1]);
+      }
+   }
+
+   /**
+    * Notes that a host answered, ending any backoff.
+    * @param host    The host name
+    */
+   public static void recordHostSuccess(String host){
+      synchronized(hosts){
+         hosts.remove(host);
+      }
+   }
+
+   /**
+    * Thrown instead of asking a host that is backed off.
+    */
+   public static class HostBlockedException extends IOException{
+      public HostBlockedException(String host){
+         super(host+" is not asked for a while after failing");
+      }
+   }
+
+   //reads the tiles, each line being "until failures missing zoom x y"
+   private synchronized void read(){
+      if(!file.isFile()) return;
+      long now = System.currentTimeMillis();
+      try{
+         BufferedReader in = new BufferedReader(new FileReader(file));
+         String line;
+         while((line = in.readLine()) != null){
+            String[] fields = line.trim().split(" ");
+            if(fields.length != 6) continue;
+            try{
+               long[] entry = new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])};
+               //keep the failure count of expired tiles too, so the next wait is longer
+               if(entry[0] > now - MISSING_MAX) tiles.put(fields[3]+" "+fields[4]+" "+fields[5], entry);
+            }catch(NumberFormatException e){
+            }
+         }
+         in.close();
+      }catch(IOException e){
+         System.out.println("Problem: "+file+" could not be read. {"+e+"}");
+      }
+   }
+
+   /**
+    * Writes the tiles to the file, if any changed.
+    */
+   public synchronized void save(){
+      if(!dirty) return;
+      dirty = false;
+      lastSave = System.currentTimeMillis();
+      StringBuffer text = new StringBuffer();
+      Iterator<Map.Entry<String,long[]>> entries = tiles.entrySet().iterator();
+      while(entries.hasNext()){
+         Map.Entry<String,long[]> entry = entries.next();
+         long[] value = entry.getValue();
+         text.append(value[0]).append(' ').append(value[1]).append(' ').append(value[2]).append(' ').append(entry.getKey()).append('\n');
+      }
+      File temp = new File(file.getPath()+".tmp");
+      try{
+         Writer out = new FileWriter(temp);
+         out.write(text.toString());
+         out.close();
+         LibGUI.replaceFile(temp, file);
+      }catch(IOException e){
+         temp.delete();
+         System.out.println("Problem: "+file+" could not be written. {"+e+"}");
+      }
+   }
+
+}
@@ -17,7 +17,7 @@ import java.io.*;
  * and handles the task of painting images to the screen by overriding the
  * paintComponent() method.
  */
-public class GPane extends JPanel implements ActionListener, KeyListener, ComponentListener, MouseListener, MouseMotionListener, Cloneable, GMapListener, MouseWheelListener{
+public class GPane extends JPanel implements ActionListener, KeyListener, ComponentListener, MouseListener, MouseMotionListener, Cloneable, GMapListener, MouseWheelListener, HierarchyListener{
 
    //GMap object
    private GUI gui;
@@ -41,8 +41,23 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
    transient private AlphaComposite opacity30 = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.3f);
    transient private AlphaComposite opacity70 = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.7f);
 
-   //a thread for drawing stuff
-   transient private DrawThread drawingThread;
+   //the thread drawing frames, while there are frames to draw
+   transient private RenderLoop renderLoop;
+   //the lock guarding the render loop and the frame counts
+   transient private Object renderLock = new Object();
+   //the number of frames asked for, and the number begun
+   private long framesRequested;
+   private long framesStarted;
+   //the zoom and size of the frame being drawn
+   private int frameZoom;
+   private Dimension frameSize = new Dimension();
+   //the time taken by the last frame drawn, in milliseconds
+   private long frameTime;
+
+   /**
+    * The time the render loop waits for another frame before its thread ends, in milliseconds.
+    */
+   public static final long RENDER_IDLE = 30000;
 
    /**
     * Selection mode.
@@ -156,13 +171,11 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
       addMouseMotionListener(this);
       addMouseWheelListener(this);
       addKeyListener(this);
+      addHierarchyListener(this);
 
       //smart click
       smartClick = false;
 
-      //initialize draw thread to null
-      drawingThread = null;
-
       //fire pane listener event
       gui.getNotifier().firePaneEvent(this);
    }
@@ -177,90 +190,140 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
    }
 
    /**
-    * Get a new image from GMap and repaint the screen.
+    * Get a new image from GMap and repaint the screen. The frame is drawn by the pane's
+    * render loop; draws asked for while a frame is drawn are coalesced into one more frame.
     */
    public void draw(){
-      drawThreadScheduler();
+      //a pane that is not on the screen, eg. a hidden tab, is drawn when it is shown
+      if(!isShowing()){
+         drawDeferred = true;
+         return;
+      }
+      drawDeferred = false;
+      synchronized(renderLock){
+         framesRequested++;
+         if(renderLoop == null){
+            renderLoop = new RenderLoop();
+            renderLoop.start();
+         }else{
+            renderLock.notifyAll();
+         }
+      }
    }
 
-   //a bit to determine if at least one more recent draw has been
-   //suppressed
-   private boolean drawWaiting;
+   //a bit to determine if a draw was put off until the pane is shown
+   private boolean drawDeferred;
 
-   private void drawThreadScheduler(){
-      boolean suppressThread = (drawingThread != null);
-      if(suppressThread) suppressThread = drawingThread.isAlive();
+   /**
+    * Draws the pane if a draw was put off while it was not on the screen.
+    * @param e The hierarchy event
+    */
+   public void hierarchyChanged(HierarchyEvent e){
+      if((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && isShowing() && drawDeferred) draw();
+   }
 
-      if(!suppressThread){
-         drawWaiting = false;
-         drawingThread = new DrawThread(this);
-         drawingThread.start();
-      }else{
-         drawWaiting = true;
+   /**
+    * The loop drawing the pane's frames. It draws one frame at a time, and a frame asked for
+    * while another is drawn waits for it; however many are asked for, one frame is drawn.
+    * The thread ends when no frame has been asked for in RENDER_IDLE.
+    */
+   private class RenderLoop extends Thread{
+      public RenderLoop(){
+         super("Render");
+         setDaemon(true);
       }
-   }
+      public void run(){
+         while(true){
+            long coalesced;
+            synchronized(renderLock){
+               long idleSince = LibGUI.getTime();
+               while(framesStarted == framesRequested){
+                  if(LibGUI.getTime() - idleSince >= RENDER_IDLE){
+                     renderLoop = null;
+                     return;
+                  }
+                  try{
+                     renderLock.wait(RENDER_IDLE);
+                  }catch(InterruptedException e){}
+               }
+               coalesced = framesRequested - framesStarted - 1;
+               framesStarted = framesRequested;
+            }
+            //the interrupt of a stopped frame is not meant for the next one
+            Thread.interrupted();
+
+            try{
+               drawFrame(coalesced);
+            }catch(Exception exception){
+               gui.getMessagePanel().setException(exception);
+               setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
+            }
 
-   void drawThreadWaiting(){
-      if(drawWaiting){
-         drawWaiting = false;
-         drawingThread = new DrawThread(this);
-         drawingThread.start();
+            //notify listener
+            gui.getNotifier().firePaneEvent(GPane.this);
+            repaint();
+         }
       }
    }
 
-   private class DrawThread extends Thread{
-      private GPane parent;
-      public DrawThread(GPane parent){
-         this.parent = parent;
-      }
-      public void run(){
-         try{
-            //set cursor to hourglass
-            setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+   /**
+    * Draws one frame into the pane's image.
+    * @param coalesced The number of draws this frame stands in for besides its own
+    */
+   private void drawFrame(long coalesced){
+      //set cursor to hourglass
+      setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-            //System.out.println("fired - "+getSize().width+", "+getSize().height);
-            //check to make sure size is valid
-            if(getSize().width == 0 || getSize().height == 0) return;
+      //System.out.println("fired - "+getSize().width+", "+getSize().height);
+      //check to make sure size is valid
+      if(getSize().width == 0 || getSize().height == 0) return;
 
-            //set cached zoom level
-            int useCachedZoomLevel = showCachedZoomLevel;
-            if(!showCachedZoom) useCachedZoomLevel = (GPhysicalPoint.MIN_ZOOM - 1);
+      //remember what this frame is for, to tell when it is outdated
+      frameZoom = zoom;
+      frameSize = getSize();
 
-            //timer start
-            long start = LibGUI.getTime();
+      //set cached zoom level
+      int useCachedZoomLevel = showCachedZoomLevel;
+      if(!showCachedZoom) useCachedZoomLevel = (GPhysicalPoint.MIN_ZOOM - 1);
 
-            //get location
-            Point centerPixels = center.getPixelPoint(zoom);
-            int x = centerPixels.x - (getSize().width/2);
-            int y = centerPixels.y - (getSize().height/2);
+      //timer start
+      long start = LibGUI.getTime();
 
-            //set the bit to determine if we need new image memory
-            boolean newImageMemory = (image == null);
-            if(!newImageMemory) newImageMemory = (image.getWidth() != getSize().width || image.getHeight() != getSize().height);
+      //get location
+      Point centerPixels = center.getPixelPoint(zoom);
+      int x = centerPixels.x - (getSize().width/2);
+      int y = centerPixels.y - (getSize().height/2);
 
-            //make new image if necessary
-            if(newImageMemory){
-               image = new BufferedImage(getSize().width, getSize().height,BufferedImage.TYPE_INT_ARGB);
-            }
-            //make graphics object
-            Graphics2D g2d = (Graphics2D)image.createGraphics();
+      //set the bit to determine if we need new image memory
+      boolean newImageMemory = (image == null);
+      if(!newImageMemory) newImageMemory = (image.getWidth() != getSize().width || image.getHeight() != getSize().height);
+
+      //make new image if necessary
+      if(newImageMemory){
+         image = new BufferedImage(getSize().width, getSize().height,BufferedImage.TYPE_INT_ARGB);
+      }
+      //make graphics object
+      Graphics2D g2d = (Graphics2D)image.createGraphics();
 
 
-            //empty data source
-            gui.getGMap().getGDataSource().abortQueue();
+      //empty data source
+      gui.getGMap().getGDataSource().abortQueue();
 
-            gui.getGMap().paintAsynchronousImage(image, x, y, getSize().width, getSize().height, zoom, useCachedZoomLevel, parent);
+      gui.getGMap().paintAsynchronousImage(image, x, y, getSize().width, getSize().height, zoom, useCachedZoomLevel, GPane.this);
 
-            //google logo
-            Composite temp = g2d.getComposite();
-            g2d.setComposite(opacity70);
-            g2d.drawImage(googleLogo, image.getWidth()-googleLogo.getWidth(), image.getHeight()-googleLogo.getHeight(), googleLogo.getWidth(), googleLogo.getHeight(),null);
-            g2d.setComposite(temp);
+      //google logo
+      Composite temp = g2d.getComposite();
+      g2d.setComposite(opacity70);
+      g2d.drawImage(googleLogo, image.getWidth()-googleLogo.getWidth(), image.getHeight()-googleLogo.getHeight(), googleLogo.getWidth(), googleLogo.getHeight(),null);
+      g2d.setComposite(temp);
+      g2d.dispose();
 
-            if(!gui.getProgressMeter().release(parent)) return ;
+      if(!gui.getProgressMeter().release(GPane.this)) return ;
+      if(frameOutdated()) return ;
 
-            //timer stop
-            System.out.println("Draw time = " + (LibGUI.getTime() - start));
+      //timer stop
+      frameTime = LibGUI.getTime() - start;
+      System.out.println("Draw time = " + frameTime + (coalesced > 0 ? " (" + coalesced + " more draws coalesced)" : ""));
 
    //         //TEMP - DRAW TICK LINES
    //         BufferedImage toDraw = new BufferedImage(image.getWidth(),image.getHeight(),BufferedImage.TYPE_INT_RGB);
@@ -273,29 +336,36 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
    //         //update icon bounds
    //         label.setBounds(0,0,getSize().width, getSize().height);
    //END TEMP
-            //image = toDraw;
-            updateScreen();
-
-            //set cursor to hourglass
-            setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
-
-            //download adjacent
-            if(!mouseIsPressed) gui.getGMap().getGDataSource().downloadQueue();
+      //image = toDraw;
+      updateScreen();
 
-            //update flag
-            parent.drawingThread = null;
-         }catch(Exception exception){
-            gui.getMessagePanel().setException(exception);
-            setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
-         }
+      //set cursor to hourglass
+      setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
 
-         //notify listener
-         gui.getNotifier().firePaneEvent(this);
-         parent.repaint();
+      //download adjacent
+      if(!mouseIsPressed) gui.getGMap().getGDataSource().downloadQueue();
+   }
 
-         //see if a new draw is needed to keep the screen up to date
-         drawThreadWaiting();
+   /**
+    * Tells whether the frame being drawn is outdated: another frame was asked for, at a new
+    * zoom or size, so what is being drawn will not be shown. Frames that only pan finish, as
+    * most of their tiles are reused by the next one.
+    * @return true if the frame should be abandoned
+    */
+   private boolean frameOutdated(){
+      if(Thread.currentThread() != renderLoop) return false;
+      synchronized(renderLock){
+         if(framesStarted == framesRequested) return false;
       }
+      return zoom != frameZoom || !getSize().equals(frameSize);
+   }
+
+   /**
+    * Gets the time the last frame took to draw.
+    * @return the time in milliseconds
+    */
+   public long getFrameTime(){
+      return frameTime;
    }
 
    /**
@@ -636,6 +706,7 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
    private GPhysicalPoint tempB;
    private GMarker tempMarkerA;
    private GDraw gDrawToAdd;
+   private GPolyline polylineToAdd;
    private GText tempDistance;
    private double runningDistance;
 
@@ -680,16 +751,18 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
                draw();
             }
             else if(mode == DRAW_LINE_MODE && clickCount >= 1){
-               //if this is the second click, set up the gDraw
+               //if this is the second click, set up the polyline
                if(clickCount == 1){
-                  gDrawToAdd = new GDraw();
-                  gui.getGMap().getGDraw().add(gDrawToAdd);
+                  polylineToAdd = new GPolyline();
+                  polylineToAdd.add(tempA);
+                  gui.getGMap().getGDraw().add(polylineToAdd);
                   gui.getGMap().getGDraw().remove(tempMarkerA);
                }
-               //increment click count and add another line
+               //increment click count and add another vertex
                clickCount++;
                tempB = new GPhysicalPoint(c.x, c.y,zoom);
-               gDrawToAdd.add(new GLine(tempA, tempB));
+               polylineToAdd.add(tempB);
+               gui.getGMap().getGDraw().changed(polylineToAdd);
                tempA = (GPhysicalPoint)tempB.clone();
                draw();
             }
@@ -736,16 +809,20 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
                draw();
             }
             else if(mode == DISTANCE_MODE && clickCount >= 1){
-               //if this is the second click, set up the gDraw
+               //if this is the second click, set up the gDraw and its polyline
                if(clickCount == 1){
                   gDrawToAdd = new GDraw();
+                  polylineToAdd = new GPolyline();
+                  polylineToAdd.add(tempA);
+                  gDrawToAdd.add(polylineToAdd);
                   gui.getGMap().getGDraw().add(gDrawToAdd);
                }
 
-               //increment click count and draw another line
+               //increment click count and draw another segment
                clickCount++;
                tempB = new GPhysicalPoint(c.x, c.y,zoom);
-               gDrawToAdd.add(new GLine(tempA, tempB));
+               polylineToAdd.add(tempB);
+               gDrawToAdd.changed(polylineToAdd);
                gDrawToAdd.remove(tempDistance);
                runningDistance += GLib.computeDistance(tempA, tempB);
                tempDistance = new GText(tempB, ""+Math.round(runningDistance*1000.0)/1000.0);
@@ -918,7 +995,7 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
       int size = gui.getGMap().getGDraw().getSelected().getSize();
       for(int i=0;i<size;i++){
          GDrawableObject gd = (GDrawableObject)gui.getGMap().getGDraw().getSelected().get(i);
-         gd.move(latitude, longitude);
+         gui.getGMap().getGDraw().move(gd, latitude, longitude);
       }
    }
 
@@ -969,7 +1046,7 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
          String message;
          if(messageNumber == GMap.MESSAGE_DOWNLOADING){
             gui.getProgressMeter().grab(this);
-            gui.getProgressMeter().registerThread(drawingThread, this);
+            gui.getProgressMeter().registerThread(renderLoop, this);
             message = "Downloading data...";
          }
          else if(messageNumber == GMap.MESSAGE_PAINTING){
@@ -993,7 +1070,7 @@ public class GPane extends JPanel implements ActionListener, KeyListener, Compon
     * Gets the stop flag, asynchrounously.
     */
    public boolean asynchronousGMapStopFlag(){
-      return gui.getProgressMeter().getStopFlag();
+      return gui.getProgressMeter().getStopFlag() || frameOutdated();
    }
 
    /**
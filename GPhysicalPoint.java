@@ -28,6 +28,8 @@ import java.awt.geom.*;
  */
 public class GPhysicalPoint implements Cloneable, Serializable{
 
+   static final long serialVersionUID = -5692119338976224344L;
+
    //parameters
    private DoublePoint point;
    public static GCalibration[] calibrationPoints;
@@ -214,8 +216,20 @@ public class GPhysicalPoint implements Cloneable, Serializable{
    }
 
 
+   /**
+    * Gets the calibrator for a zoom level, so that many coordinates can be projected
+    * without building a GPhysicalPoint for each of them.
+    * @param calibration Calibration is a number to corresponds to zoom levels, different pixel/meter ratios
+    * @return The calibrator, or null if the zoom level is out of range
+    */
+   public static GCalibration getCalibration(int calibration){
+      if(calibration < MIN_ZOOM || calibration > MAX_ZOOM) return null;
+      if(calibrationPoints == null) calibrate();
+      return calibrationPoints[calibration-MIN_ZOOM];
+   }
+
    //calibrate
-   private void calibrate(){
+   private static void calibrate(){
       calibrationPoints = new GCalibration[1 + MAX_ZOOM - MIN_ZOOM];
       for(int i=MIN_ZOOM;i<=MAX_ZOOM;i++)
          calibrationPoints[i-MIN_ZOOM] = new GCalibration(
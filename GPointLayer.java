@@ -0,0 +1,461 @@
+import java.awt.*;
+import java.io.*;
+import java.awt.image.*;
+
+/**
+ * Class defining the instance for a large set of points, such as imported waypoints. The
+ * points are kept in primitive arrays rather than as one GMarker and GPhysicalPoint each.
+ *
+ * Points are clustered so that dense areas do not overlap into a blob. Each zoom level has
+ * a grid of CLUSTER_CELL_SIZE pixel cells, and the points in a cell are drawn as one glyph
+ * with a count. The cells of one zoom level nest exactly inside the cells of the next, so
+ * the levels are built bottom-up as a hierarchy, once per change to the points. Drawing a
+ * frame then costs the number of clusters on the screen, not the number of points.
+ */
+public class GPointLayer extends GCustomObject implements GDrawableObject{
+   static final long serialVersionUID = -6170324470651296394L;
+
+   /** Declaration for the point latitudes */
+   private double[] latitudes;
+   /** Declaration for the point longitudes */
+   private double[] longitudes;
+   /** Declaration for the number of points in use */
+   private int size;
+   /** Whether nearby points are drawn as clusters */
+   private boolean clustered;
+
+   /** The size, in pixels, of a cluster cell at every zoom level */
+   public static final int CLUSTER_CELL_SIZE = 40;
+   /** The radius of the largest cluster glyph */
+   private static final int MAX_GLYPH_RADIUS = 16;
+
+   /** The cached bounds of every point */
+   transient private GBounds bounds;
+   /** The clusters of each zoom level, built once per change to the points */
+   transient private ClusterLevel[] levels;
+
+   /**
+    * Constructor for GPointLayer. Uses the given arrays as they are, without copying them.
+    * @param latitudes   The point latitudes
+    * @param longitudes  The point longitudes
+    * @param size        The number of points in use
+    */
+   public GPointLayer(double[] latitudes, double[] longitudes, int size){
+      super();
+      this.latitudes = latitudes;
+      this.longitudes = longitudes;
+      this.size = size;
+      this.clustered = true;
+      setColor(new Color(0,0,155));
+      setBackground(new Color(255,255,255));
+      setStroke(2);
+   }
+
+   /**
+    * Default constructor for GPointLayer. Creates a layer with no points.
+    */
+   public GPointLayer(){
+      this(new double[10], new double[10], 0);
+   }
+
+   /**
+    * Method for adding a point
+    * @param latitude   The latitude of the point
+    * @param longitude  The longitude of the point
+    */
+   public void add(double latitude, double longitude){
+      //enlarge if needed
+      if(size == latitudes.length) enlargePointArrays();
+      latitudes[size] = latitude;
+      longitudes[size] = longitude;
+      size++;
+      if(bounds != null) bounds.add(latitude, longitude);
+      levels = null;
+   }
+
+   /**
+    * Method for adding a point
+    * @param point      The point
+    */
+   public void add(GPhysicalPoint point){
+      add(point.getX(), point.getY());
+   }
+
+   /**
+    * Method for getting the number of points
+    * @return        The size.
+    */
+   public int getSize(){
+      return size;
+   }
+
+   /**
+    * Method to get whether nearby points are drawn as clusters
+    * @return        True if they are clustered.
+    */
+   public boolean getClustered(){
+      return clustered;
+   }
+
+   /**
+    * Method to set whether nearby points are drawn as clusters
+    * @param clustered  True to cluster them.
+    */
+   public void setClustered(boolean clustered){
+      this.clustered = clustered;
+   }
+
+   /**
+    * Method for getting the latitude of a point
+    * @param index   The index of the point
+    * @return        The latitude
+    */
+   public double getLatitude(int index){
+      return latitudes[index];
+   }
+
+   /**
+    * Method for getting the longitude of a point
+    * @param index   The index of the point
+    * @return        The longitude
+    */
+   public double getLongitude(int index){
+      return longitudes[index];
+   }
+
+   /**
+    * Method for getting the latitudes of every point, without copying them. Only the first
+    * getSize() entries are in use. Do not modify the array.
+    * @return        The latitudes
+    */
+   public double[] getLatitudes(){
+      return latitudes;
+   }
+
+   /**
+    * Method for getting the longitudes of every point, without copying them. Only the first
+    * getSize() entries are in use. Do not modify the array.
+    * @return        The longitudes
+    */
+   public double[] getLongitudes(){
+      return longitudes;
+   }
+
+   /**
+    * Method returns the bounds of every point, padded by the largest glyph drawn.
+    * @return        The bounds, or null if there are no points.
+    */
+   public GBounds getBounds(){
+      if(size == 0) return null;
+      //rebuild if the stroke or clustering, which set the margin, have changed
+      int margin = Math.max(clustered ? MAX_GLYPH_RADIUS : 5, getStroke());
+      if(bounds == null || bounds.getMargin().top != margin){
+         bounds = new GBounds(latitudes[0], longitudes[0], margin);
+         for(int i=1;i<size;i++) bounds.add(latitudes[i], longitudes[i]);
+      }
+      return bounds;
+   }
+
+   /**
+    * Method defining a rectangle object for the current map view
+    * @param p       The upper left corner of the viewable window
+    * @param zoom    The current zoom level for the map
+    * @return        The rectangle object defined for the current map view
+    */
+   public Rectangle getRectangle(GPhysicalPoint p, int zoom){
+      if(p == null || size == 0) return null;
+      return getBounds().getRectangle(p, zoom);
+   }
+
+   /**
+    * Method to draw the points to the screen
+    * @param context The frame being drawn
+    */
+   public void draw(GRenderContext context){
+      //update
+      super.draw(context);
+
+      //check for nulls to prevent null pointer exceptions
+      if(context.getScreen() == null || size == 0) return ;
+      int zoom = context.getZoom();
+      GCalibration calibration = context.getCalibration();
+      if(calibration == null) return ;
+
+      //if the layer is not on the screen return here
+      Rectangle rect = getRectangle(context.getOrigin(), zoom);
+      if(rect == null || !rect.intersects(0, 0, context.getWidth(), context.getHeight())) return ;
+
+      context.setComposite(GRenderContext.OPAQUE);
+      context.setColor(getColor());
+      if(clustered){
+         drawClusters(context, calibration);
+         return ;
+      }
+
+      //draw each point on the screen
+      Graphics2D g = context.getGraphics();
+      Point screen = context.getScreen();
+      int width = context.getWidth();
+      int height = context.getHeight();
+      int radius = getStroke();
+      for(int i=0;i<size;i++){
+         int x = calibration.getPixelX(longitudes[i]) - screen.x;
+         int y = calibration.getPixelY(latitudes[i]) - screen.y;
+         if(x < -radius || y < -radius || x > width + radius || y > height + radius) continue;
+         g.fillOval(x - radius, y - radius, 2*radius, 2*radius);
+      }
+   }
+
+   /**
+    * Method to draw the clusters of one zoom level that fall on the screen. The cells are
+    * sorted by row then column, so the run of cells on the screen in each row is found by
+    * binary search.
+    */
+   private void drawClusters(GRenderContext context, GCalibration calibration){
+      if(levels == null) computeClusters();
+      int level = Math.max(0, Math.min(levels.length - 1, context.getZoom() - GPhysicalPoint.MIN_ZOOM));
+      ClusterLevel clusters = levels[level];
+
+      //the cells of this level are CLUSTER_CELL_SIZE pixels at this zoom
+      Point screen = context.getScreen();
+      int width = context.getWidth();
+      int height = context.getHeight();
+      long firstRow = Math.max(0, screen.y - MAX_GLYPH_RADIUS) / CLUSTER_CELL_SIZE;
+      long lastRow = Math.max(0, screen.y + height + MAX_GLYPH_RADIUS) / CLUSTER_CELL_SIZE;
+      long firstColumn = Math.max(0, screen.x - MAX_GLYPH_RADIUS) / CLUSTER_CELL_SIZE;
+      long lastColumn = Math.max(0, screen.x + width + MAX_GLYPH_RADIUS) / CLUSTER_CELL_SIZE;
+
+      Graphics2D g = context.getGraphics();
+      context.setStroke(1);
+      FontMetrics metrics = g.getFontMetrics();
+      int radius = getStroke();
+      int i = findFirstKey(clusters, (firstRow << 32) | firstColumn);
+      while(i < clusters.size){
+         long key = clusters.keys[i];
+         long row = key >>> 32;
+         if(row > lastRow) break;
+
+         //skip the parts of the row that are off the screen
+         long column = key & 0xFFFFFFFFL;
+         if(column < firstColumn){
+            i = findFirstKey(clusters, (row << 32) | firstColumn);
+            continue;
+         }
+         if(column > lastColumn){
+            i = findFirstKey(clusters, ((row + 1) << 32) | firstColumn);
+            continue;
+         }
+         int cluster = i++;
+
+         int count = clusters.counts[cluster];
+         int x = calibration.getPixelX(clusters.longitudeSums[cluster] / count) - screen.x;
+         int y = calibration.getPixelY(clusters.latitudeSums[cluster] / count) - screen.y;
+
+         //a lone point looks like a GMarker
+         if(count == 1){
+            context.setColor(getColor());
+            g.fillOval(x - radius, y - radius, 2*radius, 2*radius);
+            continue;
+         }
+
+         //a cluster is a circle that grows with the number of digits in its count
+         String label = String.valueOf(count);
+         int glyphRadius = Math.min(MAX_GLYPH_RADIUS, 6 + 2*label.length());
+         context.setComposite(getAlpha());
+         context.setColor(getBackground());
+         g.fillOval(x - glyphRadius, y - glyphRadius, 2*glyphRadius, 2*glyphRadius);
+         context.setComposite(GRenderContext.OPAQUE);
+         context.setColor(getColor());
+         g.drawOval(x - glyphRadius, y - glyphRadius, 2*glyphRadius, 2*glyphRadius);
+         g.drawString(label, x - metrics.stringWidth(label)/2, y + (metrics.getAscent() - metrics.getDescent())/2);
+      }
+   }
+
+   /** Method to find the index of the first cluster whose key is at least the given key */
+   private static int findFirstKey(ClusterLevel clusters, long key){
+      int low = 0;
+      int high = clusters.size;
+      while(low < high){
+         int middle = (low + high) >>> 1;
+         if(clusters.keys[middle] < key) low = middle + 1;
+         else high = middle;
+      }
+      return low;
+   }
+
+   /**
+    * Method to build the clusters of every zoom level. The finest level groups the points by
+    * cell; each coarser level groups the clusters of the level below, since two cells of one
+    * level fit exactly in each direction of a cell of the next.
+    */
+   private void computeClusters(){
+      levels = new ClusterLevel[1 + GPhysicalPoint.MAX_ZOOM - GPhysicalPoint.MIN_ZOOM];
+
+      //finest level, from the points projected at the minimum zoom
+      GCalibration calibration = GPhysicalPoint.getCalibration(GPhysicalPoint.MIN_ZOOM);
+      long[] keys = new long[size];
+      int[] order = new int[size];
+      for(int i=0;i<size;i++){
+         long column = Math.max(0, calibration.getPixelX(longitudes[i])) / CLUSTER_CELL_SIZE;
+         long row = Math.max(0, calibration.getPixelY(latitudes[i])) / CLUSTER_CELL_SIZE;
+         keys[i] = (row << 32) | column;
+         order[i] = i;
+      }
+      sort(keys, order, 0, size - 1);
+      levels[0] = group(keys, order, null, latitudes, longitudes);
+
+      //each coarser level halves the row and column of the level below
+      for(int level=1;level<levels.length;level++){
+         ClusterLevel below = levels[level-1];
+         keys = new long[below.size];
+         order = new int[below.size];
+         for(int i=0;i<below.size;i++){
+            long row = (below.keys[i] >>> 32) >> 1;
+            long column = (below.keys[i] & 0xFFFFFFFFL) >> 1;
+            keys[i] = (row << 32) | column;
+            order[i] = i;
+         }
+         sort(keys, order, 0, below.size - 1);
+         levels[level] = group(keys, order, below.counts, below.latitudeSums, below.longitudeSums);
+      }
+   }
+
+   /**
+    * Method to merge runs of equal keys into clusters.
+    * @param keys       The sorted cell keys
+    * @param order      The index of the item behind each key
+    * @param counts     The number of points in each item, or null if each is one point
+    * @param latitudes  The latitude, or latitude sum, of each item
+    * @param longitudes The longitude, or longitude sum, of each item
+    */
+   private static ClusterLevel group(long[] keys, int[] order, int[] counts, double[] latitudes, double[] longitudes){
+      int distinct = 0;
+      for(int i=0;i<keys.length;i++) if(i == 0 || keys[i] != keys[i-1]) distinct++;
+
+      ClusterLevel toReturn = new ClusterLevel(distinct);
+      int cluster = -1;
+      for(int i=0;i<keys.length;i++){
+         if(i == 0 || keys[i] != keys[i-1]){
+            cluster++;
+            toReturn.keys[cluster] = keys[i];
+         }
+         int item = order[i];
+         toReturn.counts[cluster] += (counts == null) ? 1 : counts[item];
+         toReturn.latitudeSums[cluster] += latitudes[item];
+         toReturn.longitudeSums[cluster] += longitudes[item];
+      }
+      return toReturn;
+   }
+
+   /** Method to sort keys, carrying a parallel array of values along (quicksort) */
+   private static void sort(long[] keys, int[] values, int low, int high){
+      while(low < high){
+         //small ranges are faster by insertion
+         if(high - low < 16){
+            for(int i=low+1;i<=high;i++){
+               long key = keys[i];
+               int value = values[i];
+               int j = i - 1;
+               while(j >= low && keys[j] > key){
+                  keys[j+1] = keys[j];
+                  values[j+1] = values[j];
+                  j--;
+               }
+               keys[j+1] = key;
+               values[j+1] = value;
+            }
+            return;
+         }
+         long pivot = keys[(low + high) >>> 1];
+         int i = low;
+         int j = high;
+         while(i <= j){
+            while(keys[i] < pivot) i++;
+            while(keys[j] > pivot) j--;
+            if(i <= j){
+               long tempKey = keys[i]; keys[i] = keys[j]; keys[j] = tempKey;
+               int tempValue = values[i]; values[i] = values[j]; values[j] = tempValue;
+               i++;
+               j--;
+            }
+         }
+         //recurse into the smaller side so the stack stays shallow
+         if(j - low < high - i){
+            sort(keys, values, low, j);
+            low = i;
+         }else{
+            sort(keys, values, i, high);
+            high = j;
+         }
+      }
+   }
+
+   /**
+    * The clusters of one zoom level, sorted by row then column.
+    */
+   private static class ClusterLevel{
+      /** The row in the upper 32 bits and the column in the lower 32 */
+      long[] keys;
+      int[] counts;
+      double[] latitudeSums;
+      double[] longitudeSums;
+      int size;
+
+      ClusterLevel(int size){
+         this.size = size;
+         keys = new long[size];
+         counts = new int[size];
+         latitudeSums = new double[size];
+         longitudeSums = new double[size];
+      }
+   }
+
+   /**
+    * Method moves every point by latitude, longitude.
+    * @param latitude  The amount to add to each latitude
+    * @param longitude The amount to add to each longitude
+    */
+   public void move(double latitude, double longitude){
+      for(int i=0;i<size;i++){
+         latitudes[i] += latitude;
+         longitudes[i] += longitude;
+      }
+      if(bounds != null) bounds.translate(latitude, longitude);
+      levels = null;
+   }
+
+   /**
+   * Method invoked when this object is written to a persistent state. Trims the unused
+   * capacity so that it is not written.
+   */
+   private void writeObject(ObjectOutputStream out) throws IOException{
+      if(latitudes.length != size){
+         double[] tempLatitudes = new double[size];
+         double[] tempLongitudes = new double[size];
+         System.arraycopy(latitudes, 0, tempLatitudes, 0, size);
+         System.arraycopy(longitudes, 0, tempLongitudes, 0, size);
+         latitudes = tempLatitudes;
+         longitudes = tempLongitudes;
+      }
+      out.defaultWriteObject();
+   }
+
+   /** Method to enlarge the point arrays */
+   private void enlargePointArrays(){
+      int newLength = Math.max(10, (int)(latitudes.length * 1.5));
+      double[] tempLatitudes = new double[newLength];
+      double[] tempLongitudes = new double[newLength];
+      System.arraycopy(latitudes, 0, tempLatitudes, 0, size);
+      System.arraycopy(longitudes, 0, tempLongitudes, 0, size);
+      latitudes = tempLatitudes;
+      longitudes = tempLongitudes;
+   }
+
+   /**
+   * Prints out GPointLayer{ size }
+   */
+   public String toString(){
+      return "GPointLayer{ "+size+" points }";
+   }
+
+}
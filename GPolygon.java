@@ -0,0 +1,55 @@
+import java.awt.*;
+import java.awt.geom.*;
+
+/**
+ * Class defining the instance for a closed, filled area. It is a GPolyline whose last vertex
+ * joins back to the first; the inside is filled with the background color.
+ */
+public class GPolygon extends GPolyline{
+   static final long serialVersionUID = -2290464581915735018L;
+
+   /**
+    * Constructor for GPolygon. Uses the given arrays as they are, without copying them.
+    * @param latitudes   The vertex latitudes
+    * @param longitudes  The vertex longitudes
+    * @param size        The number of vertices in use
+    */
+   public GPolygon(double[] latitudes, double[] longitudes, int size){
+      super(latitudes, longitudes, size);
+      setBackground(new Color(175,175,175));
+   }
+
+   /**
+    * Default constructor for GPolygon. Creates an area with no vertices.
+    */
+   public GPolygon(){
+      this(new double[10], new double[10], 0);
+   }
+
+   /**
+    * Method to fill the built path with the background color, then outline it.
+    * @param context The frame being drawn, with the composite already set
+    * @param path    The path in screen coordinates
+    */
+   protected void drawPath(GRenderContext context, Path2D path){
+      context.setColor(getBackground());
+      context.getGraphics().fill(path);
+      super.drawPath(context, path);
+   }
+
+   /**
+    * Method to tell whether the last vertex joins back to the first.
+    * @return        True for a polygon.
+    */
+   protected boolean isClosed(){
+      return true;
+   }
+
+   /**
+   * Prints out GPolygon{ size }
+   */
+   public String toString(){
+      return "GPolygon{ "+getSize()+" vertices }";
+   }
+
+}
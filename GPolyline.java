@@ -0,0 +1,336 @@
+import java.awt.*;
+import java.io.*;
+import java.awt.image.*;
+import java.awt.geom.*;
+
+/**
+ * Class defining the instance for a multi-segment line. The vertices are kept in primitive
+ * arrays rather than as GMarkers, and the whole line is drawn as one Path2D.
+ *
+ * For every zoom level only the visually significant vertices are drawn. They are found
+ * with Douglas-Peucker simplification: one pass ranks every vertex by the largest tolerance
+ * at which it survives, and each zoom level keeps the vertices that survive its tolerance.
+ */
+public class GPolyline extends GCustomObject implements GDrawableObject{
+   static final long serialVersionUID = 4102577163312805127L;
+
+   /** The largest distance, in pixels, a dropped vertex may be from the drawn line */
+   public static final double SIMPLIFY_TOLERANCE = 1.0;
+
+   /** Declaration for the vertex latitudes */
+   private double[] latitudes;
+   /** Declaration for the vertex longitudes */
+   private double[] longitudes;
+   /** Declaration for the number of vertices in use */
+   private int size;
+
+   /** The largest tolerance, in pixels at the minimum zoom level, at which each vertex survives */
+   transient private float[] significance;
+   /** The indices of the vertices drawn at each zoom level, built as they are needed */
+   transient private int[][] levels;
+   /** The cached bounds of every vertex */
+   transient private GBounds bounds;
+
+   /**
+    * Constructor for GPolyline. Uses the given arrays as they are, without copying them.
+    * @param latitudes   The vertex latitudes
+    * @param longitudes  The vertex longitudes
+    * @param size        The number of vertices in use
+    */
+   public GPolyline(double[] latitudes, double[] longitudes, int size){
+      super();
+      this.latitudes = latitudes;
+      this.longitudes = longitudes;
+      this.size = size;
+      setColor(new Color(0,0,155));
+      setBackground(new Color(255,255,255));
+      setStroke(3);
+   }
+
+   /**
+    * Default constructor for GPolyline. Creates a line with no vertices.
+    */
+   public GPolyline(){
+      this(new double[10], new double[10], 0);
+   }
+
+   /**
+    * Method for adding a vertex to the end of the line
+    * @param latitude   The latitude of the vertex
+    * @param longitude  The longitude of the vertex
+    */
+   public void add(double latitude, double longitude){
+      //enlarge if needed
+      if(size == latitudes.length) enlargeVertexArrays();
+      latitudes[size] = latitude;
+      longitudes[size] = longitude;
+      size++;
+      if(bounds != null) bounds.add(latitude, longitude);
+      significance = null;
+      levels = null;
+   }
+
+   /**
+    * Method for adding a vertex to the end of the line
+    * @param point      The vertex
+    */
+   public void add(GPhysicalPoint point){
+      add(point.getX(), point.getY());
+   }
+
+   /**
+    * Method for getting the number of vertices
+    * @return        The size.
+    */
+   public int getSize(){
+      return size;
+   }
+
+   /**
+    * Method for getting the latitude of a vertex
+    * @param index   The index of the vertex
+    * @return        The latitude
+    */
+   public double getLatitude(int index){
+      return latitudes[index];
+   }
+
+   /**
+    * Method for getting the longitude of a vertex
+    * @param index   The index of the vertex
+    * @return        The longitude
+    */
+   public double getLongitude(int index){
+      return longitudes[index];
+   }
+
+   /**
+    * Method for getting the latitudes of every vertex, without copying them. Only the first
+    * getSize() entries are in use. Do not modify the array.
+    * @return        The latitudes
+    */
+   public double[] getLatitudes(){
+      return latitudes;
+   }
+
+   /**
+    * Method for getting the longitudes of every vertex, without copying them. Only the first
+    * getSize() entries are in use. Do not modify the array.
+    * @return        The longitudes
+    */
+   public double[] getLongitudes(){
+      return longitudes;
+   }
+
+   /**
+    * Method returns the bounds of every vertex, padded like a GLine.
+    * @return        The bounds, or null if there are no vertices.
+    */
+   public GBounds getBounds(){
+      if(size == 0) return null;
+      //rebuild if the stroke, which sets the margin, has changed
+      if(bounds == null || bounds.getMargin().top != Math.max(5, getStroke())){
+         bounds = new GBounds(latitudes[0], longitudes[0], Math.max(5, getStroke()));
+         for(int i=1;i<size;i++) bounds.add(latitudes[i], longitudes[i]);
+      }
+      return bounds;
+   }
+
+   /**
+    * Method defining a rectangle object for the current map view
+    * @param p       The upper left corner of the viewable window
+    * @param zoom    The current zoom level for the map
+    * @return        The rectangle object defined for the current map view
+    */
+   public Rectangle getRectangle(GPhysicalPoint p, int zoom){
+      if(p == null || size == 0) return null;
+      return getBounds().getRectangle(p, zoom);
+   }
+
+   /**
+    * Method to draw the line to the screen
+    * @param context The frame being drawn
+    */
+   public void draw(GRenderContext context){
+      //update the opacity
+      super.draw(context);
+
+      //check for nulls to prevent null pointer exceptions
+      if(context.getScreen() == null || size == 0) return ;
+      int zoom = context.getZoom();
+      GCalibration calibration = context.getCalibration();
+      if(calibration == null) return ;
+
+      //if the line is not on the screen return here
+      Rectangle rect = getRectangle(context.getOrigin(), zoom);
+      if(rect == null || !rect.intersects(0, 0, context.getWidth(), context.getHeight())) return ;
+
+      //build the path from the vertices that matter at this zoom
+      Point screen = context.getScreen();
+      int[] vertices = getVertices(zoom);
+      Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, vertices.length + 1);
+      path.moveTo(calibration.getPixelX(longitudes[vertices[0]]) - screen.x, calibration.getPixelY(latitudes[vertices[0]]) - screen.y);
+      for(int i=1;i<vertices.length;i++)
+         path.lineTo(calibration.getPixelX(longitudes[vertices[i]]) - screen.x, calibration.getPixelY(latitudes[vertices[i]]) - screen.y);
+      if(isClosed()) path.closePath();
+
+      //draw it
+      context.setComposite(getAlpha());
+      drawPath(context, path);
+   }
+
+   /**
+    * Method to paint the built path. Subclasses override this to fill it.
+    * @param context The frame being drawn, with the composite already set
+    * @param path    The path in screen coordinates
+    */
+   protected void drawPath(GRenderContext context, Path2D path){
+      context.setColor(getColor());
+      context.setStroke(getStroke());
+      context.getGraphics().draw(path);
+   }
+
+   /**
+    * Method to tell whether the last vertex joins back to the first.
+    * @return        False for a polyline.
+    */
+   protected boolean isClosed(){
+      return false;
+   }
+
+   /**
+    * Method to get the indices of the vertices to draw at a zoom level. The first and last
+    * vertex are always included.
+    * @param zoom    The zoom level
+    * @return        The indices, in order.
+    */
+   public int[] getVertices(int zoom){
+      if(significance == null) computeSignificance();
+      if(levels == null) levels = new int[1 + GPhysicalPoint.MAX_ZOOM - GPhysicalPoint.MIN_ZOOM][];
+      int level = Math.max(0, Math.min(levels.length - 1, zoom - GPhysicalPoint.MIN_ZOOM));
+      if(levels[level] == null){
+         //one pixel at this zoom is 2^level pixels at the minimum zoom
+         double tolerance = SIMPLIFY_TOLERANCE * Math.pow(2, level);
+         int count = 0;
+         for(int i=0;i<size;i++) if(significance[i] > tolerance) count++;
+         int[] vertices = new int[count];
+         count = 0;
+         for(int i=0;i<size;i++) if(significance[i] > tolerance) vertices[count++] = i;
+         levels[level] = vertices;
+      }
+      return levels[level];
+   }
+
+   /**
+    * Method moves every vertex by latitude, longitude.
+    * @param latitude  The amount to add to each vertex latitude
+    * @param longitude The amount to add to each vertex longitude
+    */
+   public void move(double latitude, double longitude){
+      for(int i=0;i<size;i++){
+         latitudes[i] += latitude;
+         longitudes[i] += longitude;
+      }
+      if(bounds != null) bounds.translate(latitude, longitude);
+      //the projection is not linear in latitude, so rank the vertices again
+      significance = null;
+      levels = null;
+   }
+
+   /**
+    * Method to rank every vertex with Douglas-Peucker, in pixels at the minimum zoom level.
+    * A vertex's rank is capped by the rank of the vertex that split its segment, so the
+    * vertices kept at any tolerance are exactly those Douglas-Peucker would keep.
+    */
+   private void computeSignificance(){
+      significance = new float[size];
+      if(size == 0) return;
+      significance[0] = Float.MAX_VALUE;
+      significance[size-1] = Float.MAX_VALUE;
+      if(size < 3) return;
+
+      //project once at the finest zoom
+      GCalibration calibration = GPhysicalPoint.getCalibration(GPhysicalPoint.MIN_ZOOM);
+      double[] xs = new double[size];
+      double[] ys = new double[size];
+      for(int i=0;i<size;i++){
+         xs[i] = calibration.getPixelX(longitudes[i]);
+         ys[i] = calibration.getPixelY(latitudes[i]);
+      }
+
+      //walk the segments with a stack rather than recursion, so long tracks can not overflow
+      int[] firsts = new int[size];
+      int[] lasts = new int[size];
+      float[] limits = new float[size];
+      int stackSize = 0;
+      firsts[0] = 0;
+      lasts[0] = size - 1;
+      limits[0] = Float.MAX_VALUE;
+      stackSize = 1;
+
+      while(stackSize > 0){
+         stackSize--;
+         int first = firsts[stackSize];
+         int last = lasts[stackSize];
+         float limit = limits[stackSize];
+         if(last - first < 2) continue;
+
+         //find the vertex farthest from the segment
+         int farthest = first + 1;
+         double farthestDistance = -1.0;
+         for(int i=first+1;i<last;i++){
+            double distance = Line2D.ptSegDistSq(xs[first], ys[first], xs[last], ys[last], xs[i], ys[i]);
+            if(distance > farthestDistance){
+               farthestDistance = distance;
+               farthest = i;
+            }
+         }
+         significance[farthest] = Math.min(limit, (float)Math.sqrt(farthestDistance));
+
+         //split the segment there
+         firsts[stackSize] = first;
+         lasts[stackSize] = farthest;
+         limits[stackSize] = significance[farthest];
+         stackSize++;
+         firsts[stackSize] = farthest;
+         lasts[stackSize] = last;
+         limits[stackSize] = significance[farthest];
+         stackSize++;
+      }
+   }
+
+   /**
+   * Method invoked when this object is written to a persistent state. Trims the unused
+   * capacity so that it is not written.
+   */
+   private void writeObject(ObjectOutputStream out) throws IOException{
+      if(latitudes.length != size){
+         double[] tempLatitudes = new double[size];
+         double[] tempLongitudes = new double[size];
+         System.arraycopy(latitudes, 0, tempLatitudes, 0, size);
+         System.arraycopy(longitudes, 0, tempLongitudes, 0, size);
+         latitudes = tempLatitudes;
+         longitudes = tempLongitudes;
+      }
+      out.defaultWriteObject();
+   }
+
+   /** Method to enlarge the vertex arrays */
+   private void enlargeVertexArrays(){
+      int newLength = Math.max(10, (int)(latitudes.length * 1.5));
+      double[] tempLatitudes = new double[newLength];
+      double[] tempLongitudes = new double[newLength];
+      System.arraycopy(latitudes, 0, tempLatitudes, 0, size);
+      System.arraycopy(longitudes, 0, tempLongitudes, 0, size);
+      latitudes = tempLatitudes;
+      longitudes = tempLongitudes;
+   }
+
+   /**
+   * Prints out GPolyline{ size }
+   */
+   public String toString(){
+      return "GPolyline{ "+size+" vertices }";
+   }
+
+}
@@ -88,6 +88,8 @@ public class GPropertiesPanelCustomObject extends GPropertiesPanel implements Ac
       int howMany = objContainer.getSize();
       for(int i=0;i < howMany;i++){
          applyObject((GDrawableObject)objContainer.get(i));
+         //the stroke sets the margin of each object's bounds
+         gMap.getGDraw().changed((GDrawableObject)objContainer.get(i));
       }
    }
 
@@ -108,6 +110,7 @@ public class GPropertiesPanelCustomObject extends GPropertiesPanel implements Ac
          for(int i=0;i<draw.getSize();i++){
             applyObject((GDrawableObject)draw.get(i));
          }
+         draw.invalidateBounds();
       }
    }
 
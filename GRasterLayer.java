@@ -0,0 +1,148 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Class defining the instance for a large georeferenced image drawn over the map. Unlike
+ * GImage it does not hold the image: it keeps the path to the file and the image's edges,
+ * and draws the map tiles a GDataSourceRaster cuts from the file, fetching only the tiles
+ * on the screen. The tiles are kept next to the image, in a directory named after it, so
+ * they are reused the next time the image is shown at the same place.
+ */
+public class GRasterLayer extends GCustomObject implements GDrawableObject{
+   static final long serialVersionUID = 4819573605381243925L;
+
+   /** Declaration of the path to the image file */
+   private String path;
+   /** Declaration of the edges of the image, in degrees */
+   private double north;
+   private double west;
+   private double south;
+   private double east;
+   /** Declaration of the data source cutting the tiles; made when first drawn */
+   transient private GDataSourceRaster source;
+
+   /**
+    * Constructor for GRasterLayer.
+    * @param path    The path to the image file
+    * @param north   The latitude of the top edge of the image
+    * @param west    The longitude of the left edge of the image
+    * @param south   The latitude of the bottom edge of the image
+    * @param east    The longitude of the right edge of the image
+    */
+   public GRasterLayer(String path, double north, double west, double south, double east){
+      super(1.0f, 1, new Color(0,0,155), new Color(175,175,175));
+      this.path = path;
+      this.north = Math.max(north, south);
+      this.south = Math.min(north, south);
+      this.west = Math.min(west, east);
+      this.east = Math.max(west, east);
+   }
+
+   /**
+    * Gets the path to the image file.
+    * @return        The path.
+    */
+   public String getPath(){
+      return path;
+   }
+
+   /**
+    * Gets the upper left corner of the image.
+    * @return        The corner.
+    */
+   public GPhysicalPoint getUpperLeft(){
+      return new GPhysicalPoint(north, west);
+   }
+
+   /**
+    * Gets the lower right corner of the image.
+    * @return        The corner.
+    */
+   public GPhysicalPoint getLowerRight(){
+      return new GPhysicalPoint(south, east);
+   }
+
+   /**
+    * Method to get the data source cutting the tiles, making it if needed.
+    * @return        The data source.
+    */
+   private synchronized GDataSourceRaster getSource(){
+      if(source == null) source = new GDataSourceRaster(path+"_tiles", new File(path), north, west, south, east);
+      return source;
+   }
+
+   /**
+    * Method defining a rectangle object for the current map view
+    * @param p       The point to place the marker
+    * @param zoom    The current zoom level for the map
+    * @return        The rectangle object defined for the current map view
+    */
+   public Rectangle getRectangle(GPhysicalPoint p, int zoom){
+      if(p == null) return null;
+      return getBounds().getRectangle(p, zoom);
+   }
+
+   /**
+    * Method returns the bounds of the image; its edges, with no margin.
+    * @return        The bounds.
+    */
+   public GBounds getBounds(){
+      GBounds toReturn = new GBounds(north, west, 0);
+      toReturn.add(south, east);
+      return toReturn;
+   }
+
+   /**
+    * Method to draw the tiles of the image that are on the screen
+    * @param context The frame being drawn
+    */
+   public void draw(GRenderContext context){
+      super.draw(context);
+      if(context.getScreen() == null) return;
+      int zoom = context.getZoom();
+      GCalibration calibration = context.getCalibration();
+      Point screen = context.getScreen();
+      int tileSize = GDataSource.sourceSize.width;
+
+      //the pixels both the image and the screen cover
+      Rectangle covered = new Rectangle(calibration.getPixelX(west), calibration.getPixelY(north), 0, 0);
+      covered.add(calibration.getPixelX(east), calibration.getPixelY(south));
+      covered = covered.intersection(new Rectangle(screen.x, screen.y, context.getWidth(), context.getHeight()));
+      if(covered.isEmpty()) return;
+
+      //draw each tile under them
+      context.setComposite(getAlpha());
+      Graphics2D g = context.getGraphics();
+      GDataSourceRaster source = getSource();
+      for(int y = covered.y/tileSize; y <= (covered.y + covered.height - 1)/tileSize; y++){
+         for(int x = covered.x/tileSize; x <= (covered.x + covered.width - 1)/tileSize; x++){
+            BufferedImage tile = source.getImage(x, y, zoom);
+            if(tile != null) g.drawImage(tile, x*tileSize - screen.x, y*tileSize - screen.y, null);
+         }
+      }
+   }
+
+   /**
+    * Method moves the image by latitude, longitude. The tiles are cut again at the new place,
+    * in the same directory.
+    * @param lat The amount to add to this items latitude
+    * @param lat The amount to add to this items longitude
+    */
+   public synchronized void move(double latitude, double longitude){
+      north += latitude;
+      south += latitude;
+      west += longitude;
+      east += longitude;
+      if(source != null) source.setEdges(north, west, south, east);
+   }
+
+   /**
+   * Prints out GRasterLayer{ path }
+   */
+   public String toString(){
+      return "GRasterLayer{ "+path+" }";
+   }
+
+}
@@ -0,0 +1,383 @@
+import java.awt.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class GRegionDownloader caches every tile of a region, given as a polygon of latitudes and
+ * longitudes, over a range of zoom levels. The tiles are listed as they are needed, coarse
+ * levels first, rather than all at once, and are fetched a number at a time on the tile I/O
+ * executor. Downloads from all regions together are held to a rate by one token bucket.
+ *
+ * How far the download got is written to a checkpoint file in the cache directory now and
+ * then, so a download that was cancelled or cut short picks up where it stopped the next
+ * time the same region is cached. The checkpoint stays at the first tile that failed, so
+ * the tiles a backed off host did not send are tried again. Progress, tiles per second and the time left are reported
+ * through a ProgressMeter.
+ */
+public class GRegionDownloader{
+
+   /** The default number of tiles fetched at once */
+   public static final int PARALLELISM = 8;
+   /** The default most downloads per second, from all regions together */
+   public static final double RATE = 20;
+   /** The time between checkpoints, in milliseconds */
+   public static final long CHECKPOINT_INTERVAL = 5000;
+   /** The time between progress reports, in milliseconds */
+   public static final long REPORT_INTERVAL = 500;
+
+   /** Declaration of the token bucket shared by every download */
+   private static TokenBucket bucket = new TokenBucket(RATE, RATE);
+
+   /** Declaration of the data source the tiles are cached for */
+   private GDataSource source;
+   /** Declaration of the region */
+   private double[] latitudes;
+   private double[] longitudes;
+   private int minZoom;
+   private int maxZoom;
+   /** Declaration of the number of tiles fetched at once */
+   private int parallelism = PARALLELISM;
+   /** Declaration of the counts */
+   private long total = -1;
+   private long done;
+   private long downloaded;
+   private long failed;
+   /** Declaration of the tiles being fetched, by number, of the next number and of the first that failed */
+   private TreeSet<Long> inFlight = new TreeSet<Long>();
+   private long next;
+   private long firstFailed = Long.MAX_VALUE;
+
+   /**
+    * Constructor for GRegionDownloader.
+    * @param source      The data source to cache tiles for
+    * @param latitudes   The latitudes of the vertices of the region
+    * @param longitudes  The longitudes of the vertices of the region
+    * @param size        The number of vertices
+    * @param minZoom     The most detailed zoom level
+    * @param maxZoom     The least detailed zoom level
+    */
+   public GRegionDownloader(GDataSource source, double[] latitudes, double[] longitudes, int size, int minZoom, int maxZoom){
+      this.source = source;
+      this.latitudes = new double[size];
+      this.longitudes = new double[size];
+      System.arraycopy(latitudes, 0, this.latitudes, 0, size);
+      System.arraycopy(longitudes, 0, this.longitudes, 0, size);
+      this.minZoom = Math.max(minZoom, GPhysicalPoint.MIN_ZOOM);
+      this.maxZoom = Math.min(maxZoom, GPhysicalPoint.MAX_ZOOM);
+   }
+
+   /**
+    * Constructor for GRegionDownloader, for a rectangle.
+    * @param source      The data source to cache tiles for
+    * @param point1      One corner of the rectangle
+    * @param point2      The opposite corner
+    * @param minZoom     The most detailed zoom level
+    * @param maxZoom     The least detailed zoom level
+    */
+   public GRegionDownloader(GDataSource source, GPhysicalPoint point1, GPhysicalPoint point2, int minZoom, int maxZoom){
+      this(source, new double[]{point1.getX(), point1.getX(), point2.getX(), point2.getX()}, new double[]{point1.getY(), point2.getY(), point2.getY(), point1.getY()}, 4, minZoom, maxZoom);
+   }
+
+   /**
+    * Sets the most downloads per second from all regions together.
+    * @param rate    The downloads per second.
+    */
+   public static void setRate(double rate){
+      bucket.setRate(rate, Math.max(1, rate));
+   }
+
+   /**
+    * Sets the number of tiles fetched at once.
+    * @param parallelism   The number of tiles.
+    */
+   public void setParallelism(int parallelism){
+      this.parallelism = Math.max(1, parallelism);
+   }
+
+   /**
+    * Counts the tiles of the region, without fetching any.
+    * @return        The number of tiles.
+    */
+   public long count(){
+      if(total < 0){
+         long count = 0;
+         Tiles tiles = new Tiles();
+         while(tiles.next() != null) count++;
+         total = count;
+      }
+      return total;
+   }
+
+   /**
+    * Caches the tiles of the region, going on from the checkpoint if there is one. Returns
+    * when every tile was tried, or early if the meter is stopped or the thread interrupted.
+    * @param meter   The meter to report progress through, or null
+    * @param owner   The object that grabbed the meter
+    * @return        True if every tile was tried; false if the download was stopped.
+    */
+   public boolean download(ProgressMeter meter, Object owner){
+      File checkpoint = getCheckpointFile();
+      long start = readCheckpoint(checkpoint);
+      count();
+      done = start;
+      downloaded = 0;
+      failed = 0;
+
+      final Semaphore slots = new Semaphore(parallelism);
+      long begun = System.currentTimeMillis();
+      long lastCheckpoint = begun;
+      long lastReport = 0;
+      boolean stopped = false;
+      Tiles tiles = new Tiles();
+      next = 0;
+      firstFailed = Long.MAX_VALUE;
+      int[] tile;
+      try{
+         while((tile = tiles.next()) != null){
+            //going offline stops the download too, so the rest is left for later
+            if(Thread.currentThread().isInterrupted() || (meter != null && meter.getStopFlag()) || !source.getRemoteConnection()){
+               stopped = true;
+               break;
+            }
+            long number;
+            synchronized(this){
+               number = next++;
+            }
+            if(number < start) continue;
+            slots.acquire();
+            synchronized(this){
+               inFlight.add(Long.valueOf(number));
+            }
+            final int x = tile[0];
+            final int y = tile[1];
+            final int zoom = tile[2];
+            final Long key = Long.valueOf(number);
+            GTileExecutor.submit(new Runnable(){
+               public void run(){
+                  boolean fetched = false;
+                  try{
+                     fetched = fetch(x, y, zoom);
+                  }finally{
+                     synchronized(GRegionDownloader.this){
+                        inFlight.remove(key);
+                        done++;
+                        if(!fetched) firstFailed = Math.min(firstFailed, key.longValue());
+                     }
+                     slots.release();
+                  }
+               }
+            });
+
+            long now = System.currentTimeMillis();
+            if(now - lastReport >= REPORT_INTERVAL){
+               report(meter, owner, zoom, now - begun, start);
+               lastReport = now;
+            }
+            if(now - lastCheckpoint >= CHECKPOINT_INTERVAL){
+               writeCheckpoint(checkpoint, getDone());
+               lastCheckpoint = now;
+            }
+         }
+         //wait for the tiles still being fetched
+         slots.acquire(parallelism);
+         slots.release(parallelism);
+      }catch(InterruptedException e){
+         stopped = true;
+      }
+
+      if(stopped){
+         writeCheckpoint(checkpoint, getDone());
+      }else{
+         checkpoint.delete();
+         report(meter, owner, minZoom, System.currentTimeMillis() - begun, start);
+      }
+      return !stopped;
+   }
+
+   //downloads a tile unless it is cached, waiting for a token first; false if the tile is not cached after
+   private boolean fetch(int x, int y, int zoom){
+      if(source.isCached(x, y, zoom)) return true;
+      try{
+         bucket.take();
+      }catch(InterruptedException e){
+         return false;
+      }
+      boolean fetched = source.getImage(x, y, zoom, false) != null;
+      synchronized(this){
+         if(fetched) downloaded++;
+         else failed++;
+      }
+      return fetched;
+   }
+
+   /**
+    * Gets the number of tiles all tiles before which have been cached; a download
+    * started again goes on from there, trying again the tiles that failed.
+    * @return        The number of tiles.
+    */
+   public synchronized long getDone(){
+      return Math.min(firstFailed, inFlight.isEmpty() ? next : inFlight.first().longValue());
+   }
+
+   public synchronized long getDownloaded(){
+      return downloaded;
+   }
+
+   public synchronized long getFailed(){
+      return failed;
+   }
+
+   //reports progress, speed and the time left
+   private void report(ProgressMeter meter, Object owner, int zoom, long elapsed, long start){
+      long tried;
+      long fetched;
+      synchronized(this){
+         tried = done;
+         fetched = downloaded;
+      }
+      double rate = (elapsed > 0) ? (tried - start) * 1000.0 / elapsed : 0;
+      String message = "Caching level "+zoom+": "+tried+" of "+total+" tiles, "+fetched+" downloaded, "+((int)(rate*10))/10.0+" tiles/s";
+      if(rate > 0 && tried < total) message += ", "+formatTime((long)((total - tried) / rate))+" left";
+      if(meter == null){
+         System.out.println(message);
+         return;
+      }
+      meter.setMessage(message, owner);
+      meter.setPercent(ProgressMeter.computePercent(tried, Math.max(1, total)), owner);
+   }
+
+   private static String formatTime(long seconds){
+      if(seconds >= 3600) return (seconds/3600)+":"+LibString.minimumSize((int)(seconds/60%60),2)+":"+LibString.minimumSize((int)(seconds%60),2);
+      return (seconds/60)+":"+LibString.minimumSize((int)(seconds%60),2);
+   }
+
+   //the checkpoint is named after the region, so each region resumes on its own
+   private File getCheckpointFile(){
+      StringBuffer region = new StringBuffer();
+      region.append(minZoom).append(' ').append(maxZoom);
+      for(int i = 0; i < latitudes.length; i++) region.append(' ').append(latitudes[i]).append(',').append(longitudes[i]);
+      return new File(source.getCacheDirectory(), "region_"+Integer.toHexString(region.toString().hashCode())+".checkpoint");
+   }
+
+   private long readCheckpoint(File file){
+      if(!file.isFile()) return 0;
+      try{
+         BufferedReader in = new BufferedReader(new FileReader(file));
+         String line = in.readLine();
+         in.close();
+         return (line == null) ? 0 : Long.parseLong(line.trim());
+      }catch(Exception e){
+         System.out.println("Problem: the checkpoint "+file+" could not be read. {"+e+"}");
+         return 0;
+      }
+   }
+
+   private void writeCheckpoint(File file, long done){
+      File temp = new File(file.getPath()+".tmp");
+      try{
+         Writer out = new FileWriter(temp);
+         out.write(done+"\n");
+         out.close();
+         LibGUI.replaceFile(temp, file);
+      }catch(IOException e){
+         temp.delete();
+         System.out.println("Problem: the checkpoint "+file+" could not be written. {"+e+"}");
+      }
+   }
+
+   /**
+    * Lists the tiles of the region one at a time, from the least detailed level to the
+    * most, row by row.
+    */
+   private class Tiles{
+      private int zoom = maxZoom + 1;
+      private Polygon polygon;
+      private Rectangle range;
+      private int x;
+      private int y;
+
+      /**
+       * Gets the next tile.
+       * @return     {x, y, zoom}, or null after the last tile.
+       */
+      public int[] next(){
+         while(true){
+            if(range == null || ++x >= range.x + range.width){
+               if(range != null && ++y < range.y + range.height){
+                  x = range.x;
+               }else{
+                  if(--zoom < minZoom) return null;
+                  startLevel();
+                  continue;
+               }
+            }
+            int size = GDataSource.sourceSize.width;
+            if(!source.isValidIndex(x, y, zoom)) continue;
+            if(polygon.intersects(x*size, y*size, size, size)) return new int[]{x, y, zoom};
+         }
+      }
+
+      //the region in pixels at the level, and the tiles it touches
+      private void startLevel(){
+         polygon = new Polygon();
+         for(int i = 0; i < latitudes.length; i++){
+            Point point = new GPhysicalPoint(latitudes[i], longitudes[i]).getPixelPoint(zoom);
+            if(point == null){
+               range = null;
+               return;
+            }
+            polygon.addPoint(point.x, point.y);
+         }
+         Rectangle bounds = polygon.getBounds();
+         int size = GDataSource.sourceSize.width;
+         range = new Rectangle(bounds.x/size, bounds.y/size, 0, 0);
+         range.width = (bounds.x + bounds.width)/size - range.x + 1;
+         range.height = (bounds.y + bounds.height)/size - range.y + 1;
+         x = range.x;
+         y = range.y;
+         //next() moves on one before looking
+         x--;
+      }
+   }
+
+   /**
+    * A token bucket: tokens come at a steady rate up to a limit, and each download takes one.
+    */
+   private static class TokenBucket{
+      private double rate;
+      private double capacity;
+      private double tokens;
+      private long last;
+
+      public TokenBucket(double rate, double capacity){
+         setRate(rate, capacity);
+         tokens = capacity;
+         last = System.nanoTime();
+      }
+
+      public synchronized void setRate(double rate, double capacity){
+         this.rate = rate;
+         this.capacity = capacity;
+         tokens = Math.min(tokens, capacity);
+      }
+
+      public void take() throws InterruptedException{
+         while(true){
+            long wait;
+            synchronized(this){
+               long now = System.nanoTime();
+               tokens = Math.min(capacity, tokens + (now - last) * rate / 1e9);
+               last = now;
+               if(tokens >= 1){
+                  tokens--;
+                  return;
+               }
+               wait = (long)Math.ceil((1 - tokens) * 1000 / rate);
+            }
+            Thread.sleep(Math.max(1, wait));
+         }
+      }
+   }
+
+}
@@ -0,0 +1,166 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+
+/**
+ * Class GRenderContext carries everything the overlays of one frame draw with: the image,
+ * a single Graphics2D for it, and the view it shows. GDraw creates one per frame and passes
+ * it to every GDrawableObject, so a frame no longer makes a graphics context per object.
+ *
+ * The color, stroke and composite last set are remembered, and setting the same value again
+ * does not touch the graphics context. Strokes and composites are interned, so objects ask
+ * for them by width and opacity instead of allocating new ones every draw. Because the state
+ * carries over from one object to the next, each object sets every property it relies on.
+ */
+public class GRenderContext{
+
+   /** The plain composite, for objects drawn without transparency */
+   public static final AlphaComposite OPAQUE = AlphaComposite.SrcOver;
+
+   /** Declaration of the interned strokes, by width */
+   private static final BasicStroke[] strokes = new BasicStroke[33];
+   /** Declaration of the interned composites, by opacity */
+   private static final HashMap<Float,AlphaComposite> composites = new HashMap<Float,AlphaComposite>();
+
+   /** Declaration of the image drawn to */
+   private BufferedImage image;
+   /** Declaration of the graphics context for the image; created when first needed */
+   private Graphics2D graphics;
+   /** Declaration of the upper left corner of the view */
+   private GPhysicalPoint origin;
+   /** Declaration of the zoom level of the view */
+   private int zoom;
+   /** Declaration of the pixel location of the upper left corner at this zoom */
+   private Point screen;
+
+   /** The state last set on the graphics context */
+   private Color color;
+   private int strokeWidth;
+   private Composite composite;
+
+   /**
+    * Constructor for GRenderContext.
+    * @param image   The image to draw to
+    * @param origin  The upper left corner of the viewable window
+    * @param zoom    The current zoom level of the map view
+    */
+   public GRenderContext(BufferedImage image, GPhysicalPoint origin, int zoom){
+      this.image = image;
+      this.origin = origin;
+      this.zoom = zoom;
+      this.screen = (origin == null) ? null : origin.getPixelPoint(zoom);
+      this.strokeWidth = -1;
+   }
+
+   /** Gets the image drawn to. */
+   public BufferedImage getImage(){
+      return image;
+   }
+
+   /** Gets the width of the image drawn to. */
+   public int getWidth(){
+      return image.getWidth();
+   }
+
+   /** Gets the height of the image drawn to. */
+   public int getHeight(){
+      return image.getHeight();
+   }
+
+   /** Gets the upper left corner of the viewable window. */
+   public GPhysicalPoint getOrigin(){
+      return origin;
+   }
+
+   /** Gets the zoom level of the view. */
+   public int getZoom(){
+      return zoom;
+   }
+
+   /** Gets the pixel location of the upper left corner at the zoom level; null if off the map. */
+   public Point getScreen(){
+      return screen;
+   }
+
+   /** Gets the calibration of the zoom level, to project points without making GPhysicalPoints. */
+   public GCalibration getCalibration(){
+      return GPhysicalPoint.getCalibration(zoom);
+   }
+
+   /**
+    * Gets the graphics context of the frame. Change its color, stroke and composite only
+    * through this object, so that they stay in step with what is remembered.
+    */
+   public Graphics2D getGraphics(){
+      if(graphics == null) graphics = image.createGraphics();
+      return graphics;
+   }
+
+   /**
+    * Sets the color, if it is not the color already set.
+    * @param color   The color
+    */
+   public void setColor(Color color){
+      if(color.equals(this.color)) return;
+      this.color = color;
+      getGraphics().setColor(color);
+   }
+
+   /**
+    * Sets a solid stroke, if it is not the width already set.
+    * @param width   The width in pixels
+    */
+   public void setStroke(int width){
+      if(width == strokeWidth) return;
+      strokeWidth = width;
+      getGraphics().setStroke(getBasicStroke(width));
+   }
+
+   /**
+    * Sets the composite, if it is not the composite already set.
+    * @param composite  The composite
+    */
+   public void setComposite(Composite composite){
+      if(composite.equals(this.composite)) return;
+      this.composite = composite;
+      getGraphics().setComposite(composite);
+   }
+
+   /**
+    * Releases the graphics context. The frame is done drawing after this.
+    */
+   public void dispose(){
+      if(graphics != null) graphics.dispose();
+      graphics = null;
+   }
+
+   /**
+    * Gets the shared solid stroke of a width.
+    * @param width   The width in pixels
+    * @return        The stroke
+    */
+   public static BasicStroke getBasicStroke(int width){
+      if(width < 0 || width >= strokes.length) return new BasicStroke(width);
+      synchronized(strokes){
+         if(strokes[width] == null) strokes[width] = new BasicStroke(width);
+         return strokes[width];
+      }
+   }
+
+   /**
+    * Gets the shared source-over composite of an opacity.
+    * @param opacity The opacity, from 0 to 1
+    * @return        The composite
+    */
+   public static AlphaComposite getAlphaComposite(float opacity){
+      synchronized(composites){
+         AlphaComposite toReturn = composites.get(opacity);
+         if(toReturn == null){
+            toReturn = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity);
+            composites.put(opacity, toReturn);
+         }
+         return toReturn;
+      }
+   }
+
+}
@@ -18,16 +18,18 @@ import java.awt.geom.*;
 * <li>GDrawableObject</ul>
 */
 public class GText extends GCustomObject implements GDrawableObject{
+   static final long serialVersionUID = 4693865920104282468L;
 
    private GPhysicalPoint point;
    private String text;
+   /** The measured text, from GLabelRenderer; null until measured */
    private Rectangle textRectangle;
    private int maxDescent;
    /**
    * This sets the padding between letters to a final number 2.
    *
    */
-   private static final int padding = 2;
+   private static final int padding = GLabelRenderer.PADDING;
   /**
    * A constructor for the GText class.
    *@param point The actual point in the map.
@@ -69,6 +71,17 @@ public class GText extends GCustomObject implements GDrawableObject{
    */
    public void setText(String text){
       this.text = text;
+      this.textRectangle = null;
+   }
+
+  /**
+   *A method that measures the text, if it has not been measured since it last changed.
+   *No graphics context is needed, so the text has a size before it is first drawn.
+   */
+   private void measure(){
+      if(textRectangle != null) return;
+      textRectangle = GLabelRenderer.measure(text, GLabelRenderer.DEFAULT_FONT);
+      maxDescent = GLabelRenderer.getMaxDescent(GLabelRenderer.DEFAULT_FONT);
    }
   /**
    *A method that returns the rectangle created.
@@ -78,7 +91,8 @@ public class GText extends GCustomObject implements GDrawableObject{
    */
    public Rectangle getRectangle(GPhysicalPoint p, int zoom){
       //check for nulls to prevent null pointer exceptions
-      if(p == null) return null;
+      if(p == null || text == null) return null;
+      measure();
 
       //build a point data element that represents the upper corner of the screen
       Point screen = new Point(p.getPixelX(zoom), p.getPixelY(zoom));
@@ -89,50 +103,34 @@ public class GText extends GCustomObject implements GDrawableObject{
       return new Rectangle(pointOnScreen.x - padding,(int)(pointOnScreen.y-textRectangle.getHeight()+maxDescent) - padding,(int)textRectangle.getWidth() + 2*padding,(int)textRectangle.getHeight()+maxDescent+2*padding);
    }
 
+  /**
+   *A method that returns the bounds of the text: its anchor point, with the measured text as the margin.
+   *@return The bounds, or null if there is no text.
+   */
+   public GBounds getBounds(){
+      if(text == null) return null;
+      measure();
+      Insets margin = new Insets((int)textRectangle.getHeight() - maxDescent + padding, padding, 2*maxDescent + padding, (int)textRectangle.getWidth() + padding);
+      return new GBounds(point.getX(), point.getY(), margin);
+   }
+
   /**
    *A method that enables the drawing of objects to the map.
-   *@param image Creates the graphics content.
-   *@param p The physical point in the map.
-   *@param zoom The zoom amount/level
+   *@param context The frame being drawn.
    */
-   public void draw(BufferedImage image, GPhysicalPoint p, int zoom){
+   public void draw(GRenderContext context){
       //check for nulls to prevent null pointer exceptions
-      if(p == null || image == null) return ;
-
-      //build a rectangle data element that represents the visible area of the screen
-      Rectangle screen = new Rectangle(p.getPixelX(zoom), p.getPixelY(zoom), image.getWidth(), image.getHeight());
-
-      //create a graphics context
-      Graphics2D g = image.createGraphics();
-
-      //text rectangle
-      Rectangle2D textRectangle2D = g.getFontMetrics().getStringBounds(text,g);
-      textRectangle = new Rectangle((int)textRectangle2D.getX(), (int)textRectangle2D.getY(), (int)textRectangle2D.getWidth(), (int)textRectangle2D.getHeight());
-      maxDescent = g.getFontMetrics().getMaxDescent();
-
-      //if the point is not on the screen return here
-      Point pixelLocation = point.getPixelPoint(zoom);
-      if(screen.contains(pixelLocation.x, pixelLocation.y)) ;
-      else if(screen.contains(pixelLocation.x+textRectangle.getWidth(), pixelLocation.y)) ;
-      else if(screen.contains(pixelLocation.x+textRectangle.getWidth(), pixelLocation.y-textRectangle.getHeight()+maxDescent)) ;
-      else if(screen.contains(pixelLocation.x, pixelLocation.y-textRectangle.getHeight()+maxDescent)) ;
-      else return ;
-
-      //get the coordinate of the point on our visible screen
-      Point pointOnScreen = new Point(pixelLocation.x - screen.x, pixelLocation.y - screen.y);
-
-      //draw bg
-      Rectangle bgRect = getRectangle(p,zoom);
-      g.setColor(getBackground());
-      g.fillRect(bgRect.x,bgRect.y,bgRect.width,bgRect.height);
-      g.setColor(getColor());
-      g.setStroke(new BasicStroke(getStroke()));
-      g.drawRect(bgRect.x,bgRect.y,bgRect.width,bgRect.height);
+      if(context.getOrigin() == null || text == null) return ;
 
-      //draw it
-      g.setColor(getColor());
-      g.drawString(text,pointOnScreen.x,pointOnScreen.y);
+      //if the label is not on the screen return here
+      Rectangle bgRect = getRectangle(context.getOrigin(),context.getZoom());
+      if(bgRect == null || !bgRect.intersects(0, 0, context.getWidth(), context.getHeight())) return ;
 
+      //draw the cached label, box and all
+      BufferedImage sprite = GLabelRenderer.getSprite(text, GLabelRenderer.DEFAULT_FONT, getColor(), getBackground(), getStroke());
+      int inset = GLabelRenderer.getSpriteInset(getStroke());
+      context.setComposite(GRenderContext.OPAQUE);
+      context.getGraphics().drawImage(sprite, bgRect.x - inset, bgRect.y - inset, null);
    }
 
    /**
@@ -0,0 +1,197 @@
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Class GTileClient downloads tiles over HTTP. One java.net.http.HttpClient is shared by
+ * every download, so connections to a host are kept alive and reused (or multiplexed, where
+ * the server speaks HTTP/2). Downloads time out, failures that may pass (no connection, a
+ * 5xx or 429 answer) are retried a few times with a growing pause, and a tile already in
+ * the cache can be refreshed with a conditional request that costs almost nothing when it
+ * has not changed. How many downloads use a host at once is limited by GTileExecutor.
+ */
+public class GTileClient{
+
+   /** The default time allowed to connect, in milliseconds */
+   public static final int CONNECT_TIMEOUT = 5000;
+   /** The default time allowed for a whole answer, in milliseconds */
+   public static final int READ_TIMEOUT = 15000;
+   /** The default number of retries after the first try */
+   public static final int RETRIES = 2;
+   /** The pause before the first retry, in milliseconds; it doubles for each one after */
+   public static final int RETRY_PAUSE = 250;
+
+   /** Declaration of the client used by the data sources */
+   private static GTileClient defaultClient;
+
+   /** Declaration of the HTTP client */
+   private HttpClient client;
+   /** Declaration of the settings */
+   private int readTimeout;
+   private int retries;
+
+   /**
+    * Constructor for GTileClient.
+    * @param connectTimeout The time allowed to connect, in milliseconds.
+    * @param readTimeout    The time allowed for a whole answer, in milliseconds.
+    * @param retries        The number of retries after the first try.
+    */
+   public GTileClient(int connectTimeout, int readTimeout, int retries){
+      this.readTimeout = readTimeout;
+      this.retries = retries;
+      client = HttpClient.newBuilder()
+         .connectTimeout(Duration.ofMillis(connectTimeout))
+         .followRedirects(HttpClient.Redirect.NORMAL)
+         .build();
+   }
+
+   /**
+    * Gets the client used by the data sources, making it on first use.
+    * @return        The client.
+    */
+   public static synchronized GTileClient getDefault(){
+      if(defaultClient == null) defaultClient = new GTileClient(CONNECT_TIMEOUT, READ_TIMEOUT, RETRIES);
+      return defaultClient;
+   }
+
+   /**
+    * Sets the client used by the data sources, eg. one with other timeouts.
+    * @param client  The client.
+    */
+   public static synchronized void setDefault(GTileClient client){
+      defaultClient = client;
+   }
+
+   /**
+    * Downloads a tile.
+    * @param url     The URL of the tile.
+    * @return        The answer; its data is null unless the status is 200.
+    * @throws IOException if the tile could not be downloaded after every retry
+    */
+   public Response get(String url) throws IOException{
+      return get(url, null, 0);
+   }
+
+   /**
+    * Downloads a tile unless it has not changed since it was cached.
+    * @param url           The URL of the tile.
+    * @param etag          The entity tag the cached tile was sent with, or null.
+    * @param lastModified  The time the cached tile was written, or 0.
+    * @return        The answer; isNotModified tells that the cached tile is current.
+    * @throws IOException if the tile could not be downloaded after every retry
+    */
+   public Response get(String url, String etag, long lastModified) throws IOException{
+      URI uri;
+      try{
+         uri = new URI(url);
+      }catch(URISyntaxException e){
+         throw new IOException("Invalid tile URL: "+url);
+      }
+      HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(readTimeout)).GET();
+      if(etag != null) builder.header("If-None-Match", etag);
+      if(lastModified > 0) builder.header("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC)));
+      HttpRequest request = builder.build();
+
+      String host = uri.getHost();
+      if(GNegativeCache.isHostBlocked(host)) throw new GNegativeCache.HostBlockedException(host);
+      Semaphore permits = GTileExecutor.getHostPermits(host);
+      IOException failure = null;
+      for(int attempt = 0; attempt <= retries; attempt++){
+         if(attempt > 0) pause(RETRY_PAUSE << (attempt - 1));
+         try{
+            permits.acquire();
+         }catch(InterruptedException e){
+            throw new InterruptedIOException("Interrupted waiting for "+uri.getHost());
+         }
+         try{
+            HttpResponse<byte[]> answer = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            int status = answer.statusCode();
+            //a busy or failing server may answer the next time
+            if(status >= 500 || status == 429){
+               if(attempt == retries) GNegativeCache.recordHostFailure(host);
+               if(attempt < retries){
+                  failure = new IOException("HTTP "+status+" from "+url);
+                  continue;
+               }
+            }else{
+               GNegativeCache.recordHostSuccess(host);
+            }
+            //a body shorter than the server said was cut off
+            long expected = answer.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if(status == 200 && expected >= 0 && expected != answer.body().length){
+               failure = new IOException("Got "+answer.body().length+" of "+expected+" bytes from "+url);
+               continue;
+            }
+            return new Response(status, (status == 200) ? answer.body() : null, answer.headers().firstValue("ETag").orElse(null));
+         }catch(InterruptedException e){
+            throw new InterruptedIOException("Interrupted downloading "+url);
+         }catch(IOException e){
+            //no connection, or no answer in time
+            failure = e;
+         }finally{
+            permits.release();
+         }
+      }
+      GNegativeCache.recordHostFailure(host);
+      throw failure;
+   }
+
+   private static void pause(long millis) throws IOException{
+      try{
+         Thread.sleep(millis);
+      }catch(InterruptedException e){
+         throw new InterruptedIOException("Interrupted between retries");
+      }
+   }
+
+   /**
+    * The answer to a tile download.
+    */
+   public static class Response{
+      private int status;
+      private byte[] data;
+      private String etag;
+
+      Response(int status, byte[] data, String etag){
+         this.status = status;
+         this.data = data;
+         this.etag = etag;
+      }
+
+      /**
+       * Gets the HTTP status.
+       * @return     The status.
+       */
+      public int getStatus(){
+         return status;
+      }
+
+      /**
+       * Gets the tile's bytes.
+       * @return     The bytes, or null unless the status is 200.
+       */
+      public byte[] getData(){
+         return data;
+      }
+
+      /**
+       * Gets the entity tag the tile was sent with.
+       * @return     The tag, or null.
+       */
+      public String getETag(){
+         return etag;
+      }
+
+      /**
+       * Tells whether the cached tile is current.
+       * @return     True if the status is 304.
+       */
+      public boolean isNotModified(){
+         return status == 304;
+      }
+   }
+
+}
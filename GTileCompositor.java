@@ -0,0 +1,220 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class GTileCompositor is a data source whose tiles are a stack of layers drawn over one
+ * another, eg. a weather layer over the satellite tiles. The tiles of the layers are fetched
+ * at once, and each layer costs one blit at its opacity. A composed tile is kept in RAM under
+ * the signature of the stack (the layers drawn, in order, and their opacities), so changing
+ * a layer's opacity or visibility composes the tiles again while going back to an earlier
+ * stack finds them still there. The layers keep caching their own tiles.
+ */
+public class GTileCompositor extends GDataSource{
+
+   /** The number of composed tiles kept in RAM */
+   public static final int COMPOSED_TILES = 256;
+
+   /** Declaration of the layers, from the bottom up */
+   private ArrayList<GTileLayer> layers = new ArrayList<GTileLayer>();
+   /** Declaration of the composed tiles, by signature and tile, least recently used first */
+   private LinkedHashMap<String,BufferedImage> composed = new LinkedHashMap<String,BufferedImage>(COMPOSED_TILES, 0.75f, true){
+      protected boolean removeEldestEntry(Map.Entry<String,BufferedImage> eldest){
+         return size() > COMPOSED_TILES;
+      }
+   };
+
+   /**
+    * Constructor for GTileCompositor.
+    * @param cacheDirectory The directory given to the data source; composed tiles are not written to it
+    */
+   public GTileCompositor(String cacheDirectory){
+      super(cacheDirectory);
+   }
+
+   /**
+    * Sets the layers, from the bottom up.
+    * @param layers  The layers.
+    */
+   public synchronized void setLayers(ArrayList<GTileLayer> layers){
+      this.layers = new ArrayList<GTileLayer>(layers);
+   }
+
+   /**
+    * Gets the layers, from the bottom up.
+    * @return        The layers.
+    */
+   public synchronized ArrayList<GTileLayer> getLayers(){
+      return new ArrayList<GTileLayer>(layers);
+   }
+
+   //the layers that are drawn
+   private synchronized ArrayList<GTileLayer> getDrawnLayers(){
+      ArrayList<GTileLayer> toReturn = new ArrayList<GTileLayer>();
+      for(int i = 0; i < layers.size(); i++) if(layers.get(i).isDrawn()) toReturn.add(layers.get(i));
+      return toReturn;
+   }
+
+   /**
+    * Gets the signature of the stack: the layers drawn, in order, with their opacities.
+    * @return        The signature.
+    */
+   public String getSignature(){
+      return getSignature(getDrawnLayers());
+   }
+
+   private static String getSignature(ArrayList<GTileLayer> drawn){
+      StringBuffer toReturn = new StringBuffer();
+      for(int i = 0; i < drawn.size(); i++){
+         toReturn.append(drawn.get(i).getSource().getCacheDirectory()).append('@').append(drawn.get(i).getOpacity()).append('|');
+      }
+      return toReturn.toString();
+   }
+
+   /**
+    * Gets a tile of the stack. The tiles of the layers are fetched at once, each but the
+    * bottom one on the tile I/O executor, and drawn over one another.
+    * @param x The horizontal coordinate
+    * @param y The vertical coordinate
+    * @param zoom The zoom level
+    * @param findAdjacent Whether the layers queue the bordering tiles
+    * @return The composed tile, or null if no layer has the tile.
+    */
+   public BufferedImage getImage(final int x, final int y, final int zoom, final boolean findAdjacent){
+      if(!isValidIndex(x,y,zoom)) return null;
+      ArrayList<GTileLayer> drawn = getDrawnLayers();
+      if(drawn.size() == 0) return null;
+      //one layer at full opacity needs no composing
+      if(drawn.size() == 1 && drawn.get(0).getOpacity() == 1) return drawn.get(0).getSource().getImage(x, y, zoom, findAdjacent);
+
+      String key = getSignature(drawn)+x+" "+y+" "+zoom;
+      BufferedImage toReturn;
+      synchronized(composed){
+         toReturn = composed.get(key);
+      }
+      if(toReturn != null){
+         for(int i = 0; i < drawn.size(); i++){
+            GDataSource source = drawn.get(i).getSource();
+            if(findAdjacent) source.queueAdjacent(x, y, zoom);
+            source.queueHigherLevels(x, y, zoom);
+         }
+         return toReturn;
+      }
+
+      //the layers above the bottom one on the executor; any not taken yet are fetched here
+      ArrayList<FutureTask<BufferedImage>> tasks = new ArrayList<FutureTask<BufferedImage>>();
+      for(int i = 1; i < drawn.size(); i++){
+         final GDataSource source = drawn.get(i).getSource();
+         FutureTask<BufferedImage> task = new FutureTask<BufferedImage>(new Callable<BufferedImage>(){
+            public BufferedImage call(){
+               return source.getImage(x, y, zoom, findAdjacent);
+            }
+         });
+         GTileExecutor.submit(task);
+         tasks.add(task);
+      }
+      BufferedImage[] images = new BufferedImage[drawn.size()];
+      images[0] = drawn.get(0).getSource().getImage(x, y, zoom, findAdjacent);
+      for(int i = 1; i < images.length; i++){
+         FutureTask<BufferedImage> task = tasks.get(i-1);
+         task.run();
+         try{
+            images[i] = task.get();
+         }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+         }catch(ExecutionException e){
+            System.out.println("{"+e.getCause()+"}");
+         }
+      }
+
+      //one blit for each layer
+      toReturn = new BufferedImage(sourceSize.width, sourceSize.height, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D graphics2D = toReturn.createGraphics();
+      boolean complete = true;
+      boolean any = false;
+      for(int i = 0; i < images.length; i++){
+         if(images[i] == null){
+            complete = false;
+            continue;
+         }
+         any = true;
+         graphics2D.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, drawn.get(i).getOpacity()));
+         graphics2D.drawImage(images[i], 0, 0, sourceSize.width, sourceSize.height, null);
+      }
+      graphics2D.dispose();
+      if(!any) return null;
+
+      //a tile missing a layer is composed again once the layer has it
+      if(complete){
+         synchronized(composed){
+            composed.put(key, toReturn);
+         }
+      }
+      return toReturn;
+   }
+
+   /**
+    * Forgets the composed tiles, eg. after a layer's tiles changed.
+    */
+   public void clearComposed(){
+      synchronized(composed){
+         composed.clear();
+      }
+   }
+
+   //a tile of the stack is cached when the tiles of every layer drawn are
+   public boolean isCached(int x, int y, int zoom){
+      ArrayList<GTileLayer> drawn = getDrawnLayers();
+      for(int i = 0; i < drawn.size(); i++) if(!drawn.get(i).getSource().isCached(x, y, zoom)) return false;
+      return true;
+   }
+
+   //the valid tiles are those of the bottom layer
+   public boolean isValidIndex(int x, int y, int zoom){
+      ArrayList<GTileLayer> drawn = getDrawnLayers();
+      if(drawn.size() == 0) return super.isValidIndex(x, y, zoom);
+      return drawn.get(0).getSource().isValidIndex(x, y, zoom);
+   }
+
+   //the queues, the connection and refreshes are those of the layers
+   public void downloadQueue(){
+      ArrayList<GTileLayer> drawn = getDrawnLayers();
+      for(int i = 0; i < drawn.size(); i++) drawn.get(i).getSource().downloadQueue();
+   }
+
+   public void emptyQueue(){
+      ArrayList<GTileLayer> all = getLayers();
+      for(int i = 0; i < all.size(); i++) all.get(i).getSource().emptyQueue();
+   }
+
+   public void abortQueue(){
+      ArrayList<GTileLayer> all = getLayers();
+      for(int i = 0; i < all.size(); i++) all.get(i).getSource().abortQueue();
+   }
+
+   public void setRemoteConnection(boolean remoteConnection){
+      super.setRemoteConnection(remoteConnection);
+      ArrayList<GTileLayer> all = getLayers();
+      for(int i = 0; i < all.size(); i++) all.get(i).getSource().setRemoteConnection(remoteConnection);
+   }
+
+   public boolean refresh(int x, int y, int zoom) throws IOException{
+      boolean changed = false;
+      ArrayList<GTileLayer> drawn = getDrawnLayers();
+      for(int i = 0; i < drawn.size(); i++) changed |= drawn.get(i).getSource().refresh(x, y, zoom);
+      if(changed) clearComposed();
+      return changed;
+   }
+
+   //composed tiles have no server
+   protected String makeRemoteName(int x, int y, int zoom){
+      return null;
+   }
+
+   //nor are they kept on disk
+   protected void verifyCacheDirectories(){
+   }
+
+}
@@ -0,0 +1,248 @@
+import java.awt.image.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+
+/**
+ * Class GTileExecutor runs the blocking tile I/O of the data sources: tile downloads, and
+ * reads and writes of the cache directories. Each task gets a virtual thread where the Java
+ * runtime has them, so hundreds of tiles can wait on the network at once; otherwise the
+ * tasks share a bounded pool of daemon threads. How many tasks actually use a server or a
+ * disk at once is limited by a semaphore for each host and for each disk.
+ *
+ * Drawing does not run here; it stays on the render loop of each pane.
+ */
+public class GTileExecutor{
+
+   /** The number of downloads from one host at once */
+   public static final int HOST_PERMITS = 8;
+   /** The number of reads and writes on one disk at once */
+   public static final int DISK_PERMITS = 4;
+   /** The number of threads in the pool used when there are no virtual threads */
+   public static final int POOL_THREADS = 32;
+
+   /** Declaration of the executor running the tasks */
+   private static ExecutorService executor;
+   /** Declaration of whether the executor makes virtual threads */
+   private static boolean virtual;
+   /** Declaration of the semaphores, by host and by disk */
+   private static HashMap<String,Semaphore> hostPermits = new HashMap<String,Semaphore>();
+   private static HashMap<String,Semaphore> diskPermits = new HashMap<String,Semaphore>();
+
+   /**
+    * Gets the executor, making it on first use.
+    * @return        The executor.
+    */
+   public static synchronized ExecutorService getExecutor(){
+      if(executor == null){
+         try{
+            //a virtual thread per task, on runtimes that have them
+            executor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            virtual = true;
+         }catch(Exception e){
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_THREADS, POOL_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+               private int count;
+               public synchronized Thread newThread(Runnable task){
+                  Thread toReturn = new Thread(task, "Tile I/O "+(++count));
+                  toReturn.setDaemon(true);
+                  toReturn.setPriority(Thread.MIN_PRIORITY);
+                  return toReturn;
+               }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+         }
+      }
+      return executor;
+   }
+
+   /**
+    * Tells whether tasks run on virtual threads.
+    * @return        True if they do; false if they share the bounded pool.
+    */
+   public static boolean isVirtual(){
+      getExecutor();
+      return virtual;
+   }
+
+   /**
+    * Runs a task on the executor.
+    * @param task    The task.
+    * @return        The future of the task.
+    */
+   public static Future<?> submit(Runnable task){
+      return getExecutor().submit(task);
+   }
+
+   /**
+    * Runs a task that returns a value on the executor.
+    * @param task    The task.
+    * @return        The future of its value.
+    */
+   public static <T> Future<T> submit(Callable<T> task){
+      return getExecutor().submit(task);
+   }
+
+   /**
+    * Gets the semaphore limiting downloads from a host.
+    * @param host    The host name.
+    * @return        The semaphore.
+    */
+   public static Semaphore getHostPermits(String host){
+      return getPermits(hostPermits, host, HOST_PERMITS);
+   }
+
+   /**
+    * Gets the semaphore limiting reads and writes on the disk holding a file. Files under the
+    * same top directory are taken to be on the same disk.
+    * @param file    The file.
+    * @return        The semaphore.
+    */
+   public static Semaphore getDiskPermits(File file){
+      File top = file.getAbsoluteFile();
+      while(top.getParentFile() != null && top.getParentFile().getParentFile() != null) top = top.getParentFile();
+      return getPermits(diskPermits, top.getPath(), DISK_PERMITS);
+   }
+
+   private static Semaphore getPermits(HashMap<String,Semaphore> permits, String key, int count){
+      synchronized(permits){
+         Semaphore toReturn = permits.get(key);
+         if(toReturn == null){
+            toReturn = new Semaphore(count);
+            permits.put(key, toReturn);
+         }
+         return toReturn;
+      }
+   }
+
+   /**
+    * Reads an image from a file, waiting for the disk if it is busy. The file is checked
+    * before it is decoded, so one cut short by an interrupted write is found.
+    * @param file    The file.
+    * @return        The image.
+    * @throws CorruptTileException if the file is cut short, damaged or not an image
+    * @throws IOException if the file could not be read
+    */
+   public static BufferedImage readImage(File file) throws IOException{
+      byte[] data;
+      Semaphore permits = getDiskPermits(file);
+      acquire(permits);
+      try{
+         data = java.nio.file.Files.readAllBytes(file.toPath());
+      }finally{
+         permits.release();
+      }
+      String problem = checkImage(data);
+      BufferedImage image = (problem == null) ? ImageIO.read(new ByteArrayInputStream(data)) : null;
+      if(problem == null && image == null) problem = "not an image";
+      if(problem != null) throw new CorruptTileException(file+": "+problem);
+      return image;
+   }
+
+   /**
+    * Writes an image to a file, waiting for the disk if it is busy. The image is written to
+    * a file beside it and then moved into place, so the file is never seen half written.
+    * @param image   The image.
+    * @param format  The format name, eg. "png".
+    * @param file    The file.
+    * @throws IOException if the file could not be written
+    */
+   public static void writeImage(BufferedImage image, String format, File file) throws IOException{
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      if(!ImageIO.write(image, format, bytes)) throw new IOException("No writer for "+format+" images");
+      File temp = new File(file.getPath()+".part");
+      Semaphore permits = getDiskPermits(file);
+      acquire(permits);
+      try{
+         FileOutputStream out = new FileOutputStream(temp);
+         try{
+            bytes.writeTo(out);
+            out.getFD().sync();
+         }finally{
+            out.close();
+         }
+         LibGUI.replaceFile(temp, file);
+      }catch(IOException e){
+         temp.delete();
+         throw e;
+      }finally{
+         permits.release();
+      }
+   }
+
+   /**
+    * Checks that the bytes of an image are whole. A PNG must be a run of chunks whose
+    * checksums match, ending with its IEND chunk; a JPEG must end with its end marker and a
+    * GIF with its trailer. Other formats are left to the decoder.
+    * @param data    The bytes.
+    * @return        What is wrong, or null if nothing is.
+    */
+   public static String checkImage(byte[] data){
+      if(data == null || data.length == 0) return "empty";
+      int length = data.length;
+      if(length >= 8 && (data[0] & 0xFF) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G'){
+         int position = 8;
+         CRC32 crc = new CRC32();
+         while(position + 12 <= length){
+            int size = ((data[position] & 0xFF) << 24) | ((data[position+1] & 0xFF) << 16) | ((data[position+2] & 0xFF) << 8) | (data[position+3] & 0xFF);
+            if(size < 0 || position + 12 + (long)size > length) return "cut short";
+            crc.reset();
+            crc.update(data, position + 4, size + 4);
+            int end = position + 8 + size;
+            int stored = ((data[end] & 0xFF) << 24) | ((data[end+1] & 0xFF) << 16) | ((data[end+2] & 0xFF) << 8) | (data[end+3] & 0xFF);
+            if((int)crc.getValue() != stored) return "bad checksum";
+            if(data[position+4] == 'I' && data[position+5] == 'E' && data[position+6] == 'N' && data[position+7] == 'D') return null;
+            position = end + 4;
+         }
+         return "cut short";
+      }
+      if(length >= 2 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8){
+         //some servers pad after the end marker
+         while(length > 2 && data[length-1] == 0) length--;
+         if((data[length-2] & 0xFF) != 0xFF || (data[length-1] & 0xFF) != 0xD9) return "cut short";
+         return null;
+      }
+      if(length >= 6 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F'){
+         if(data[length-1] != 0x3B) return "cut short";
+         return null;
+      }
+      return null;
+   }
+
+   /**
+    * Downloads an image, waiting for the host if it is busy.
+    * @param url     The URL of the image.
+    * @return        The image, or null if what was downloaded is not an image.
+    * @throws IOException if the image could not be downloaded
+    */
+   public static BufferedImage readImage(URL url) throws IOException{
+      Semaphore permits = getHostPermits(url.getHost());
+      acquire(permits);
+      try{
+         return ImageIO.read(url);
+      }finally{
+         permits.release();
+      }
+   }
+
+   /**
+    * Thrown when a cached tile is cut short, damaged or not an image.
+    */
+   public static class CorruptTileException extends IOException{
+      public CorruptTileException(String message){
+         super(message);
+      }
+   }
+
+   private static void acquire(Semaphore permits) throws IOException{
+      try{
+         permits.acquire();
+      }catch(InterruptedException e){
+         throw new InterruptedIOException("Interrupted waiting for tile I/O");
+      }
+   }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Class GTileLayer is one layer of tiles in the stack GMap draws: a data source, and how
+ * opaque and whether visible its tiles are. The layers are drawn over one another by a
+ * GTileCompositor.
+ */
+public class GTileLayer{
+
+   /** Declaration of the name of the layer */
+   private String name;
+   /** Declaration of the data source of the layer */
+   private GDataSource source;
+   /** Declaration of how opaque the layer is, from 0 to 1 */
+   private float opacity;
+   /** Declaration of whether the layer is drawn */
+   private boolean visible;
+
+   /**
+    * Constructor for GTileLayer.
+    * @param name       The name of the layer, eg. "weather"
+    * @param source     The data source of the layer
+    * @param opacity    How opaque the layer is, from 0 to 1
+    * @param visible    Whether the layer is drawn
+    */
+   public GTileLayer(String name, GDataSource source, float opacity, boolean visible){
+      this.name = name;
+      this.source = source;
+      setOpacity(opacity);
+      this.visible = visible;
+   }
+
+   public String getName(){
+      return name;
+   }
+
+   public GDataSource getSource(){
+      return source;
+   }
+
+   public float getOpacity(){
+      return opacity;
+   }
+
+   /**
+    * Sets how opaque the layer is.
+    * @param opacity    From 0, not drawn, to 1, fully opaque.
+    */
+   public void setOpacity(float opacity){
+      this.opacity = Math.max(0, Math.min(1, opacity));
+   }
+
+   public boolean isVisible(){
+      return visible;
+   }
+
+   public void setVisible(boolean visible){
+      this.visible = visible;
+   }
+
+   /**
+    * Tells whether the layer is drawn at all.
+    * @return        True if it is visible and not fully transparent.
+    */
+   public boolean isDrawn(){
+      return visible && opacity > 0;
+   }
+
+   /**
+    * Prints out the layer.
+    */
+   public String toString(){
+      return name+" ("+source.getCacheDirectory()+", "+opacity+(visible ? "" : ", hidden")+")";
+   }
+
+}
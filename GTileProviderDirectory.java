@@ -0,0 +1,70 @@
+import java.awt.image.*;
+import java.io.*;
+
+/**
+ * Class GTileProviderDirectory loads tiles from files, eg. a tile set copied from a tile
+ * farm or unpacked from an archive. The files are named by a template as for
+ * GTileProviderTemplate, eg. /data/tiles/{z}/{x}/{y}.png; a directory alone stands for
+ * that layout under it.
+ */
+public class GTileProviderDirectory implements GTileSourceProvider{
+
+   /** Declaration of the template naming the files */
+   private String template;
+   /** Declaration of the settings */
+   private int imageType;
+   private int maxLevel;
+
+   /**
+    * Constructor for GTileProviderDirectory.
+    * @param template     The file template, a file: URL template, or a directory
+    * @param imageType    The BufferedImage type the tiles are kept in
+    * @param maxLevel     The most detailed level there are files for
+    */
+   public GTileProviderDirectory(String template, int imageType, int maxLevel){
+      if(template.startsWith("file:")){
+         template = template.substring(5);
+         //file:///path keeps one slash
+         while(template.startsWith("//")) template = template.substring(1);
+      }
+      if(template.indexOf('{') == -1) template = template+File.separator+"{z}"+File.separator+"{x}"+File.separator+"{y}.png";
+      this.template = template;
+      this.imageType = imageType;
+      this.maxLevel = maxLevel;
+   }
+
+   /**
+    * Loads a tile from its file.
+    * @param x       The horizontal tile index
+    * @param y       The vertical tile index
+    * @param level   The tile level
+    * @return        The tile, or null if there is no file for it.
+    * @throws IOException if the file could not be read
+    */
+   public BufferedImage loadTile(int x, int y, int level) throws IOException{
+      File file = new File(GTileProviderTemplate.expand(template, x, y, level));
+      if(!file.isFile()) return null;
+      return GTileExecutor.readImage(file);
+   }
+
+   public String getName(){
+      return template;
+   }
+
+   /**
+    * The disk limits are kept by GTileExecutor, so any number may be asked for at once.
+    * @return        Integer.MAX_VALUE
+    */
+   public int getMaxConcurrency(){
+      return Integer.MAX_VALUE;
+   }
+
+   public int getImageType(){
+      return imageType;
+   }
+
+   public int getMaxLevel(){
+      return maxLevel;
+   }
+
+}
@@ -0,0 +1,76 @@
+import java.awt.image.*;
+import java.io.*;
+import java.net.*;
+import javax.imageio.ImageIO;
+import com.sun.net.httpserver.*;
+
+/**
+ * Class GTileProviderLocalServer serves the tiles of another provider from an HTTP server
+ * inside the viewer, on the loopback address, and downloads them from it like any tile
+ * server. It puts the whole download path, the HTTP client and its limits included, in front
+ * of a local tile set, eg. for load testing the viewer without a tile farm.
+ */
+public class GTileProviderLocalServer extends GTileProviderTemplate{
+
+   /** Declaration of the server and the provider it serves */
+   private HttpServer server;
+   private GTileSourceProvider provider;
+
+   /**
+    * Constructor for GTileProviderLocalServer. Starts the server on a free port.
+    * @param provider        The provider whose tiles are served, at /{z}/{x}/{y}.png
+    * @param maxConcurrency  The number of tiles that may be downloaded at once
+    * @throws IOException if the server could not be started
+    */
+   public GTileProviderLocalServer(final GTileSourceProvider provider, int maxConcurrency) throws IOException{
+      this(provider, maxConcurrency, HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0));
+   }
+
+   private GTileProviderLocalServer(final GTileSourceProvider provider, int maxConcurrency, HttpServer server){
+      super("http://"+server.getAddress().getHostString()+":"+server.getAddress().getPort()+"/{z}/{x}/{y}.png", maxConcurrency, provider.getImageType(), provider.getMaxLevel());
+      this.server = server;
+      this.provider = provider;
+      server.createContext("/", new HttpHandler(){
+         public void handle(HttpExchange exchange) throws IOException{
+            try{
+               //the path is /{z}/{x}/{y}.png
+               String[] parts = exchange.getRequestURI().getPath().split("/");
+               BufferedImage tile = null;
+               if(parts.length == 4 && parts[3].endsWith(".png")){
+                  int level = Integer.parseInt(parts[1]);
+                  int x = Integer.parseInt(parts[2]);
+                  int y = Integer.parseInt(parts[3].substring(0, parts[3].length() - 4));
+                  tile = provider.loadTile(x, y, level);
+               }
+               if(tile == null){
+                  exchange.sendResponseHeaders(404, -1);
+                  return;
+               }
+               ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+               ImageIO.write(tile, "png", bytes);
+               exchange.getResponseHeaders().set("Content-Type", "image/png");
+               exchange.sendResponseHeaders(200, bytes.size());
+               bytes.writeTo(exchange.getResponseBody());
+            }catch(NumberFormatException e){
+               exchange.sendResponseHeaders(404, -1);
+            }finally{
+               exchange.close();
+            }
+         }
+      });
+      server.setExecutor(GTileExecutor.getExecutor());
+      server.start();
+   }
+
+   /**
+    * Stops the server.
+    */
+   public void close(){
+      server.stop(0);
+   }
+
+   public String getName(){
+      return super.getName()+" serving "+provider.getName();
+   }
+
+}
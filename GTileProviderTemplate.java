@@ -0,0 +1,114 @@
+import java.awt.image.*;
+import java.io.*;
+
+/**
+ * Class GTileProviderTemplate loads tiles from a tile server whose URLs follow a template.
+ * The template may hold:
+ * <pre>
+ * {x} {y}   the tile indices
+ * {z}       the tile level, 0 being the whole world
+ * {zoom}    the viewer's zoom, 17 minus the level
+ * {q}       the quadkey of the tile, as used by Bing and others
+ * {s}       a server number, 0 to 3, that is the same for each tile
+ * </pre>
+ * eg. http://tiles.example.com/{z}/{x}/{y}.png. Tiles are downloaded with the shared
+ * GTileClient.
+ */
+public class GTileProviderTemplate implements GTileSourceProvider{
+
+   /** Declaration of the template */
+   private String template;
+   /** Declaration of the settings */
+   private int maxConcurrency;
+   private int imageType;
+   private int maxLevel;
+
+   /**
+    * Constructor for GTileProviderTemplate.
+    * @param template        The URL template
+    * @param maxConcurrency  The number of tiles that may be downloaded at once
+    * @param imageType       The BufferedImage type the tiles are kept in
+    * @param maxLevel        The most detailed level of the server
+    */
+   public GTileProviderTemplate(String template, int maxConcurrency, int imageType, int maxLevel){
+      this.template = template;
+      this.maxConcurrency = maxConcurrency;
+      this.imageType = imageType;
+      this.maxLevel = maxLevel;
+   }
+
+   /**
+    * Loads a tile from the server.
+    * @param x       The horizontal tile index
+    * @param y       The vertical tile index
+    * @param level   The tile level
+    * @return        The tile, or null if the server has no tile there.
+    * @throws IOException if the tile could not be downloaded
+    */
+   public BufferedImage loadTile(int x, int y, int level) throws IOException{
+      String url = expand(template, x, y, level);
+      GTileClient.Response response = GTileClient.getDefault().get(url);
+      //a busy or failing server may have the tile later; others do not have it
+      if(response.getStatus() >= 500 || response.getStatus() == 429) throw new IOException("HTTP "+response.getStatus()+" from "+url);
+      if(response.getData() == null) return null;
+      String problem = GTileExecutor.checkImage(response.getData());
+      if(problem != null) throw new IOException("Damaged tile from "+url+" ("+problem+")");
+      return javax.imageio.ImageIO.read(new ByteArrayInputStream(response.getData()));
+   }
+
+   /**
+    * Fills in a template for a tile.
+    * @param template   The template
+    * @param x          The horizontal tile index
+    * @param y          The vertical tile index
+    * @param level      The tile level
+    * @return           The URL or path of the tile.
+    */
+   public static String expand(String template, int x, int y, int level){
+      String toReturn = template;
+      toReturn = toReturn.replace("{x}", ""+x);
+      toReturn = toReturn.replace("{y}", ""+y);
+      toReturn = toReturn.replace("{zoom}", ""+(17 - level));
+      toReturn = toReturn.replace("{z}", ""+level);
+      toReturn = toReturn.replace("{s}", ""+((x + 2*y) & 3));
+      if(toReturn.indexOf("{q}") != -1) toReturn = toReturn.replace("{q}", getQuadKey(x, y, level));
+      return toReturn;
+   }
+
+   /**
+    * Gets the quadkey of a tile: a digit for each level, from the whole world down, telling
+    * which quarter of the tile above it is in.
+    * @param x          The horizontal tile index
+    * @param y          The vertical tile index
+    * @param level      The tile level
+    * @return           The quadkey.
+    */
+   public static String getQuadKey(int x, int y, int level){
+      StringBuffer toReturn = new StringBuffer();
+      for(int i = level; i > 0; i--){
+         int mask = 1 << (i - 1);
+         int digit = 0;
+         if((x & mask) != 0) digit += 1;
+         if((y & mask) != 0) digit += 2;
+         toReturn.append(digit);
+      }
+      return toReturn.toString();
+   }
+
+   public String getName(){
+      return template;
+   }
+
+   public int getMaxConcurrency(){
+      return maxConcurrency;
+   }
+
+   public int getImageType(){
+      return imageType;
+   }
+
+   public int getMaxLevel(){
+      return maxLevel;
+   }
+
+}
@@ -0,0 +1,198 @@
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import javax.imageio.ImageIO;
+import com.sun.net.httpserver.*;
+
+/**
+ * Class GTileServer serves the tiles cached by the viewer's data sources over HTTP, so other
+ * viewers can use this one as their tile server and one warmed cache serves them all. Tiles
+ * are at /{mode}/{z}/{x}/{y}.png, the mode being map, satellite, overlay or hybrid and {z}
+ * the usual tile level, so another viewer names this server in its tiles.properties as eg.
+ * <pre>
+ * map=http://host:8090/map/{z}/{x}/{y}.png
+ * </pre>
+ * A tile not yet cached is fetched by the data source first, unless it is offline. Tiles are
+ * sent with an ETag, a Last-Modified time and a Cache-Control age, and a client asking again
+ * with If-None-Match or If-Modified-Since is told it has the current tile. Hybrid tiles are
+ * not cached but put together from the satellite and overlay tiles, and are sent from memory.
+ */
+public class GTileServer{
+
+   /** The time clients may keep a tile without asking again, in seconds */
+   public static final int MAX_AGE = 86400;
+
+   /** Declaration of the server */
+   private HttpServer server;
+   /** Declaration of the map whose data sources are served */
+   private GMap gmap;
+
+   /**
+    * Constructor for GTileServer. Starts the server.
+    * @param gmap    The map whose data sources are served
+    * @param port    The port to serve on
+    * @throws IOException if the server could not be started
+    */
+   public GTileServer(GMap gmap, int port) throws IOException{
+      this.gmap = gmap;
+      server = HttpServer.create(new InetSocketAddress(port), 0);
+      server.createContext("/", new HttpHandler(){
+         public void handle(HttpExchange exchange) throws IOException{
+            try{
+               serve(exchange);
+            }finally{
+               exchange.close();
+            }
+         }
+      });
+      server.setExecutor(GTileExecutor.getExecutor());
+      server.start();
+      System.out.println("Serving tiles on port "+server.getAddress().getPort()+".");
+   }
+
+   /**
+    * Gets the port the server is on.
+    * @return        The port.
+    */
+   public int getPort(){
+      return server.getAddress().getPort();
+   }
+
+   /**
+    * Stops the server.
+    */
+   public void close(){
+      server.stop(0);
+   }
+
+   private void serve(HttpExchange exchange) throws IOException{
+      String method = exchange.getRequestMethod();
+      if(!method.equals("GET") && !method.equals("HEAD")){
+         exchange.sendResponseHeaders(405, -1);
+         return;
+      }
+
+      //the path is /{mode}/{z}/{x}/{y}.png
+      String[] parts = exchange.getRequestURI().getPath().split("/");
+      GDataSource source = null;
+      int level = 0, x = 0, y = 0;
+      if(parts.length == 5 && parts[4].endsWith(".png")){
+         if(parts[1].equals("map")) source = gmap.getGDataSource(GMap.MAP_MODE);
+         else if(parts[1].equals("satellite")) source = gmap.getGDataSource(GMap.SATELLITE_MODE);
+         else if(parts[1].equals("hybrid")) source = gmap.getGDataSource(GMap.HYBRID_MODE);
+         else if(parts[1].equals("overlay") && gmap.getGDataSource(GMap.HYBRID_MODE) instanceof GDataSourceHybrid) source = ((GDataSourceHybrid)gmap.getGDataSource(GMap.HYBRID_MODE)).getOverlay();
+         try{
+            level = Integer.parseInt(parts[2]);
+            x = Integer.parseInt(parts[3]);
+            y = Integer.parseInt(parts[4].substring(0, parts[4].length() - 4));
+         }catch(NumberFormatException e){
+            source = null;
+         }
+      }
+      //levels outside the ones the map has are refused before the source is touched
+      int zoom = 17 - level;
+      if(source == null || zoom < GPhysicalPoint.MIN_ZOOM || zoom > GPhysicalPoint.MAX_ZOOM || !source.isValidIndex(x, y, zoom)){
+         exchange.sendResponseHeaders(404, -1);
+         return;
+      }
+
+      //a hybrid tile missing a layer is not sent, as viewers keep what they are sent
+      if(source instanceof GDataSourceHybrid){
+         serveComposed(exchange, method, ((GDataSourceHybrid)source).getComposedImage(x, y, zoom));
+         return;
+      }
+
+      //fetch what is not cached yet
+      File file = new File(source.makeCachedName(x, y, zoom));
+      if(!file.isFile() && source.getRemoteConnection()) source.getImage(x, y, zoom, false);
+      if(!file.isFile()){
+         exchange.sendResponseHeaders(404, -1);
+         return;
+      }
+      if(source.getCacheManager() != null) source.getCacheManager().touch(x, y, zoom);
+
+      //the tag changes whenever the file is written again
+      long lastModified = file.lastModified();
+      long length = file.length();
+      String etag = "\""+Long.toHexString(lastModified)+"-"+Long.toHexString(length)+"\"";
+      Headers headers = exchange.getResponseHeaders();
+      headers.set("ETag", etag);
+      headers.set("Last-Modified", formatDate(lastModified));
+      headers.set("Cache-Control", "public, max-age="+MAX_AGE);
+      if(isCurrent(exchange.getRequestHeaders(), etag, lastModified)){
+         exchange.sendResponseHeaders(304, -1);
+         return;
+      }
+      headers.set("Content-Type", "image/png");
+      if(method.equals("HEAD")){
+         headers.set("Content-Length", ""+length);
+         exchange.sendResponseHeaders(200, -1);
+         return;
+      }
+
+      //the file goes from its channel to the connection without being read into the heap
+      exchange.sendResponseHeaders(200, length);
+      FileChannel in = new FileInputStream(file).getChannel();
+      try{
+         WritableByteChannel out = Channels.newChannel(exchange.getResponseBody());
+         long sent = 0;
+         while(sent < length){
+            long count = in.transferTo(sent, length - sent, out);
+            if(count <= 0) break;
+            sent += count;
+         }
+      }finally{
+         in.close();
+      }
+   }
+
+   //sends a tile that is only in memory
+   private void serveComposed(HttpExchange exchange, String method, BufferedImage image) throws IOException{
+      if(image == null){
+         exchange.sendResponseHeaders(404, -1);
+         return;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ImageIO.write(image, "png", bytes);
+      Headers headers = exchange.getResponseHeaders();
+      headers.set("Content-Type", "image/png");
+      headers.set("Cache-Control", "public, max-age="+MAX_AGE);
+      if(method.equals("HEAD")){
+         headers.set("Content-Length", ""+bytes.size());
+         exchange.sendResponseHeaders(200, -1);
+         return;
+      }
+      exchange.sendResponseHeaders(200, bytes.size());
+      bytes.writeTo(exchange.getResponseBody());
+   }
+
+   /**
+    * Tells whether a client's conditional request names the current tile.
+    */
+   private static boolean isCurrent(Headers request, String etag, long lastModified){
+      String ifNoneMatch = request.getFirst("If-None-Match");
+      if(ifNoneMatch != null) return ifNoneMatch.equals("*") || ifNoneMatch.indexOf(etag) != -1;
+      String ifModifiedSince = request.getFirst("If-Modified-Since");
+      if(ifModifiedSince != null){
+         try{
+            //HTTP dates are to the second
+            return lastModified/1000 <= getDateFormat().parse(ifModifiedSince).getTime()/1000;
+         }catch(Exception e){}
+      }
+      return false;
+   }
+
+   private static String formatDate(long time){
+      return getDateFormat().format(new Date(time));
+   }
+
+   private static SimpleDateFormat getDateFormat(){
+      SimpleDateFormat toReturn = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+      toReturn.setTimeZone(TimeZone.getTimeZone("GMT"));
+      return toReturn;
+   }
+
+}
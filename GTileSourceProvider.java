@@ -0,0 +1,50 @@
+import java.awt.image.*;
+import java.io.*;
+
+/**
+ * Interface for a place map tiles come from: a tile server named by a URL template, a
+ * directory of tiles, or a tile server run inside the viewer. A GDataSourceProvider caches
+ * the tiles of a provider like those of the built-in sources, so a provider only has to
+ * load a tile and say what it can serve.
+ *
+ * Levels here are the usual tile levels, 0 being the whole world in one tile; level is
+ * 17 minus the zoom used by the rest of the viewer.
+ */
+public interface GTileSourceProvider{
+
+   /**
+    * Loads a tile.
+    * @param x       The horizontal tile index
+    * @param y       The vertical tile index
+    * @param level   The tile level
+    * @return        The tile, or null if the provider has no tile there.
+    * @throws IOException if the tile could not be loaded
+    */
+   BufferedImage loadTile(int x, int y, int level) throws IOException;
+
+   /**
+    * Gets where the provider gets its tiles, eg. the URL template.
+    * @return        The description.
+    */
+   String getName();
+
+   /**
+    * Gets the number of tiles the provider may load at once.
+    * @return        The number.
+    */
+   int getMaxConcurrency();
+
+   /**
+    * Gets the type of image the provider's tiles are kept in, one of the BufferedImage types;
+    * TYPE_INT_RGB for opaque imagery, TYPE_INT_ARGB for tiles that may be transparent.
+    * @return        The type.
+    */
+   int getImageType();
+
+   /**
+    * Gets the most detailed level the provider has tiles for.
+    * @return        The level.
+    */
+   int getMaxLevel();
+
+}
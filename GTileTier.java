@@ -0,0 +1,267 @@
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Class GTileTier is one place a data source looks for a tile. A data source keeps an
+ * ordered chain of tiers, usually RAM, its cache directory, any shared directory or peer
+ * viewer named in tiles.properties, and the upstream server, and asks each in turn. A tile
+ * found in a tier is written back to the tiers before it that take write-backs, so the next
+ * lookup stops earlier.
+ *
+ * A tier can be switched off; going offline switches off the upstream tier. A tier with a
+ * timeout gives up on a tile that takes longer, and each tier counts its hits, misses,
+ * failures and the time it spent.
+ */
+public abstract class GTileTier{
+
+   /** Declaration of the name of the tier */
+   private String name;
+   /** Declaration of the settings */
+   private boolean enabled = true;
+   private boolean writeBack;
+   private long timeout;
+   /** Declaration of the statistics */
+   private long hits;
+   private long misses;
+   private long failures;
+   private long nanos;
+
+   /**
+    * Constructor for GTileTier.
+    * @param name       The name of the tier
+    * @param writeBack  Whether tiles found in later tiers are written to this one
+    * @param timeout    The time allowed to load a tile in milliseconds, or 0 for no limit
+    */
+   public GTileTier(String name, boolean writeBack, long timeout){
+      this.name = name;
+      this.writeBack = writeBack;
+      this.timeout = timeout;
+   }
+
+   /**
+    * Loads a tile from this tier.
+    * @param x       The horizontal coordinate
+    * @param y       The vertical coordinate
+    * @param zoom    The zoom level
+    * @return        The tile, or null if the tier does not have it.
+    * @throws IOException if the tier failed
+    */
+   protected abstract BufferedImage load(int x, int y, int zoom) throws IOException;
+
+   /**
+    * Stores a tile found in a later tier. Tiers that take no write-backs need not.
+    * @param x       The horizontal coordinate
+    * @param y       The vertical coordinate
+    * @param zoom    The zoom level
+    * @param image   The tile, at the tile size
+    * @throws IOException if the tile could not be stored
+    */
+   protected void store(int x, int y, int zoom, BufferedImage image) throws IOException{}
+
+   /**
+    * Looks a tile up, keeping the statistics and the timeout.
+    * @param x       The horizontal coordinate
+    * @param y       The vertical coordinate
+    * @param zoom    The zoom level
+    * @return        The tile, or null if the tier does not have it, failed or ran out of time.
+    */
+   public BufferedImage lookup(final int x, final int y, final int zoom){
+      long start = System.nanoTime();
+      BufferedImage toReturn = null;
+      boolean failed = false;
+      try{
+         if(timeout <= 0){
+            toReturn = load(x, y, zoom);
+         }else{
+            Future<BufferedImage> future = GTileExecutor.submit(new Callable<BufferedImage>(){
+               public BufferedImage call() throws IOException{
+                  return load(x, y, zoom);
+               }
+            });
+            try{
+               toReturn = future.get(timeout, TimeUnit.MILLISECONDS);
+            }catch(TimeoutException e){
+               future.cancel(true);
+               failed = true;
+            }
+         }
+      }catch(Exception e){
+         failed = true;
+      }
+      synchronized(this){
+         nanos += System.nanoTime() - start;
+         if(toReturn != null) hits++;
+         else if(failed) failures++;
+         else misses++;
+      }
+      return toReturn;
+   }
+
+   public String getName(){
+      return name;
+   }
+
+   public boolean isEnabled(){
+      return enabled;
+   }
+
+   public void setEnabled(boolean enabled){
+      this.enabled = enabled;
+   }
+
+   public boolean isWriteBack(){
+      return writeBack;
+   }
+
+   public long getTimeout(){
+      return timeout;
+   }
+
+   public synchronized long getHits(){
+      return hits;
+   }
+
+   public synchronized long getMisses(){
+      return misses;
+   }
+
+   public synchronized long getFailures(){
+      return failures;
+   }
+
+   /**
+    * Prints out the tier's name and statistics.
+    */
+   public synchronized String toString(){
+      long lookups = hits + misses + failures;
+      return name+(enabled ? "" : " (off)")+": "+hits+" hits, "+misses+" misses, "+failures+" failures"+(lookups > 0 ? ", "+(nanos/lookups/1000)+" us each" : "");
+   }
+
+   /**
+    * Makes the chain of tiers for a data source from tiles.properties. The tiers are listed
+    * in order by the property name+".tiers", eg. "ram,disk,shared,peer,upstream", which is
+    * also the default. The shared tier reads the directory or file template named by
+    * name+".shared", the peer tier the viewer or server named by name+".peer", and either is
+    * left out if that is not set. name+".peer.timeout" and name+".shared.timeout" set their
+    * timeouts, 1000 and 0 milliseconds by default.
+    * @param source      The data source
+    * @param properties  The properties
+    * @param name        The name of the data source, eg. "map"
+    * @return            The tiers.
+    */
+   public static ArrayList<GTileTier> makeChain(GDataSource source, Properties properties, String name){
+      ArrayList<GTileTier> toReturn = new ArrayList<GTileTier>();
+      String[] tiers = properties.getProperty(name+".tiers", "ram,disk,shared,peer,upstream").split(",");
+      for(int i = 0; i < tiers.length; i++){
+         String tier = tiers[i].trim();
+         if(tier.equals("ram")) toReturn.add(new RAM(source));
+         else if(tier.equals("disk")) toReturn.add(new Disk(source));
+         else if(tier.equals("upstream")) toReturn.add(new Upstream(source));
+         else if(tier.equals("shared") || tier.equals("peer")){
+            String spec = properties.getProperty(name+"."+tier);
+            if(spec == null || spec.trim().length() == 0) continue;
+            long timeout = Long.parseLong(properties.getProperty(name+"."+tier+".timeout", tier.equals("peer") ? "1000" : "0").trim());
+            GTileSourceProvider provider;
+            if(tier.equals("peer")) provider = new GTileProviderTemplate(spec.trim(), GTileExecutor.HOST_PERMITS, BufferedImage.TYPE_INT_ARGB, 17);
+            else provider = new GTileProviderDirectory(spec.trim(), BufferedImage.TYPE_INT_ARGB, 17);
+            toReturn.add(new Provider(tier, provider, timeout));
+         }else if(tier.length() > 0){
+            System.out.println("Problem: unknown tile tier \""+tier+"\" for "+name+".");
+         }
+      }
+      return toReturn;
+   }
+
+   /**
+    * The tiles a data source keeps in RAM.
+    */
+   public static class RAM extends GTileTier{
+      private GDataSource source;
+      public RAM(GDataSource source){
+         super("ram", true, 0);
+         this.source = source;
+      }
+      protected BufferedImage load(int x, int y, int zoom){
+         return source.getImageFromRAM(x, y, zoom);
+      }
+      protected void store(int x, int y, int zoom, BufferedImage image){
+         source.addImageToRAM(x, y, zoom, image);
+      }
+   }
+
+   /**
+    * The tiles a data source keeps in its cache directory.
+    */
+   public static class Disk extends GTileTier{
+      private GDataSource source;
+      public Disk(GDataSource source){
+         super("disk", true, 0);
+         this.source = source;
+      }
+      protected BufferedImage load(int x, int y, int zoom) throws IOException{
+         String thisFile = source.makeCachedName(x, y, zoom);
+         if(!new File(thisFile).exists()) return null;
+         BufferedImage toReturn;
+         try{
+            toReturn = GTileExecutor.readImage(new File(thisFile));
+         }catch(GTileExecutor.CorruptTileException e){
+            //the later tiers get it again
+            source.quarantine(x, y, zoom, e.getMessage());
+            return null;
+         }
+         source.isCachedMap.put(thisFile, Boolean.TRUE);
+         return toReturn;
+      }
+      protected void store(int x, int y, int zoom, BufferedImage image) throws IOException{
+         GTileExecutor.writeImage(image, "png", new File(source.makeCachedName(x, y, zoom)));
+         source.isCachedMap.put(source.makeCachedName(x, y, zoom), Boolean.TRUE);
+      }
+   }
+
+   /**
+    * The tiles of a provider, eg. a shared directory or another viewer's GTileServer.
+    */
+   public static class Provider extends GTileTier{
+      private GTileSourceProvider provider;
+      public Provider(String name, GTileSourceProvider provider, long timeout){
+         super(name, false, timeout);
+         this.provider = provider;
+      }
+      protected BufferedImage load(int x, int y, int zoom) throws IOException{
+         return provider.loadTile(x, y, 17 - zoom);
+      }
+   }
+
+   /**
+    * The server a data source gets its tiles from.
+    */
+   public static class Upstream extends GTileTier{
+      private GDataSource source;
+      public Upstream(GDataSource source){
+         super("upstream", false, 0);
+         this.source = source;
+      }
+      protected BufferedImage load(int x, int y, int zoom) throws IOException{
+         GNegativeCache negativeCache = source.getNegativeCache();
+         if(negativeCache.isBlocked(x, y, zoom)) return null;
+         BufferedImage toReturn;
+         try{
+            toReturn = source.loadSourceImage(x, y, zoom);
+         }catch(GNegativeCache.HostBlockedException e){
+            //says nothing about this tile
+            return null;
+         }catch(Exception e){
+            negativeCache.recordFailure(x, y, zoom);
+            if(e instanceof IOException) throw (IOException)e;
+            throw new IOException(e.toString());
+         }
+         if(toReturn == null) negativeCache.recordMissing(x, y, zoom);
+         else negativeCache.clear(x, y, zoom);
+         return toReturn;
+      }
+   }
+
+}
@@ -0,0 +1,260 @@
+import java.io.*;
+import javax.xml.stream.*;
+
+/**
+ * Class GTrackImporter reads GPS tracks and point files into overlay layers. Files are read
+ * as a stream with a pull parser, and the coordinates go straight into the primitive arrays
+ * of GPolyline and GPointLayer objects. No GPhysicalPoint or GMarker is made per point, so
+ * traces with millions of points fit in the heap.
+ *
+ * GPX track segments and routes become one GPolyline each, and GPX waypoints become one
+ * GPointLayer. CSV files become either one GPolyline or one GPointLayer.
+ */
+public class GTrackImporter{
+
+   /** Declaration of the progress meter to report to; may be null */
+   private ProgressMeter meter;
+   /** Declaration of the object the progress meter is grabbed for */
+   private Object owner;
+   /** Declaration of the length of the file being read */
+   private long fileLength;
+   /** Declaration of the last percent reported, so the meter is not repainted for every line */
+   private int lastPercent;
+
+   /**
+    * Constructor for GTrackImporter.
+    * @param meter   The progress meter to report to, or null
+    * @param owner   The object the progress meter is grabbed for
+    */
+   public GTrackImporter(ProgressMeter meter, Object owner){
+      this.meter = meter;
+      this.owner = owner;
+   }
+
+   /**
+    * Imports a file, choosing the format by its extension. CSV files are read as a track.
+    * @param file    The file to read
+    * @return        A group holding the imported layers, or null if the import was stopped
+    * @throws IOException if the file could not be read or parsed
+    */
+   public GDraw importFile(File file) throws IOException{
+      if(file.getName().toLowerCase().endsWith(".gpx")) return importGPX(file);
+      return importCSV(file, true);
+   }
+
+   /**
+    * Imports the tracks, routes and waypoints of a GPX file.
+    * @param file    The file to read
+    * @return        A group holding the imported layers, or null if the import was stopped
+    * @throws IOException if the file could not be read or parsed
+    */
+   public GDraw importGPX(File file) throws IOException{
+      GDraw toReturn = new GDraw();
+      GPolyline track = null;
+      GPointLayer waypoints = null;
+
+      CountingInputStream in = open(file);
+      try{
+         XMLInputFactory factory = XMLInputFactory.newInstance();
+         factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+         XMLStreamReader reader = factory.createXMLStreamReader(in);
+         int events = 0;
+         while(reader.hasNext()){
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT){
+               String name = reader.getLocalName();
+               if(name.equals("trkpt") || name.equals("rtept")){
+                  if(track == null) track = new GPolyline();
+                  addPoint(reader, track, null);
+               }else if(name.equals("wpt")){
+                  if(waypoints == null) waypoints = new GPointLayer();
+                  addPoint(reader, null, waypoints);
+               }
+            }else if(event == XMLStreamConstants.END_ELEMENT){
+               //a segment or route ends its line
+               String name = reader.getLocalName();
+               if((name.equals("trkseg") || name.equals("rte")) && track != null){
+                  if(track.getSize() > 0) toReturn.add(track);
+                  track = null;
+               }
+            }
+
+            //report progress every so often
+            if(++events % 4096 == 0 && !update(in)) return null;
+         }
+         reader.close();
+      }catch(XMLStreamException e){
+         throw new IOException("Could not parse "+file.getName()+": "+e.getMessage());
+      }finally{
+         in.close();
+      }
+
+      //a track without a closing segment tag is still kept
+      if(track != null && track.getSize() > 0) toReturn.add(track);
+      if(waypoints != null) toReturn.add(waypoints);
+      return toReturn;
+   }
+
+   /**
+    * Imports a CSV file of latitude, longitude rows. If the first row names a latitude and a
+    * longitude column (lat/latitude and lon/lng/long/longitude) those columns are used;
+    * otherwise the first two columns are. Rows that can not be read are skipped.
+    * @param file    The file to read
+    * @param asTrack True to join the rows into one line, false to import them as points
+    * @return        A group holding the imported layer, or null if the import was stopped
+    * @throws IOException if the file could not be read
+    */
+   public GDraw importCSV(File file, boolean asTrack) throws IOException{
+      GPolyline track = asTrack ? new GPolyline() : null;
+      GPointLayer points = asTrack ? null : new GPointLayer();
+
+      CountingInputStream in = open(file);
+      try{
+         BufferedReader reader = new BufferedReader(new InputStreamReader(in), 65536);
+         String line = reader.readLine();
+         if(line == null) return new GDraw();
+
+         //figure out the delimiter and the columns from the first row
+         char delimiter = ',';
+         if(line.indexOf(',') == -1 && line.indexOf(';') != -1) delimiter = ';';
+         else if(line.indexOf(',') == -1 && line.indexOf('\t') != -1) delimiter = '\t';
+         int latitudeColumn = -1;
+         int longitudeColumn = -1;
+         for(int column = 0; ; column++){
+            String field = getField(line, column, delimiter);
+            if(field == null) break;
+            field = LibString.filter(field, '"').trim().toLowerCase();
+            if(field.equals("lat") || field.equals("latitude")) latitudeColumn = column;
+            else if(field.equals("lon") || field.equals("lng") || field.equals("long") || field.equals("longitude")) longitudeColumn = column;
+         }
+         boolean header = (latitudeColumn != -1 && longitudeColumn != -1);
+         if(!header){
+            latitudeColumn = 0;
+            longitudeColumn = 1;
+         }else{
+            line = reader.readLine();
+         }
+
+         int lines = 0;
+         while(line != null){
+            try{
+               double latitude = Double.parseDouble(getField(line, latitudeColumn, delimiter).trim());
+               double longitude = Double.parseDouble(getField(line, longitudeColumn, delimiter).trim());
+               if(isValid(latitude, longitude)){
+                  if(track != null) track.add(latitude, longitude);
+                  else points.add(latitude, longitude);
+               }
+            }catch(Exception e){
+               //skip rows that are not coordinates
+            }
+
+            //report progress every so often
+            if(++lines % 4096 == 0 && !update(in)) return null;
+            line = reader.readLine();
+         }
+      }finally{
+         in.close();
+      }
+
+      GDraw toReturn = new GDraw();
+      if(track != null && track.getSize() > 0) toReturn.add(track);
+      if(points != null && points.getSize() > 0) toReturn.add(points);
+      return toReturn;
+   }
+
+   /**
+    * Reads the lat and lon attributes of a GPX point element and adds them to a layer.
+    */
+   private void addPoint(XMLStreamReader reader, GPolyline track, GPointLayer points){
+      try{
+         double latitude = Double.parseDouble(reader.getAttributeValue(null, "lat"));
+         double longitude = Double.parseDouble(reader.getAttributeValue(null, "lon"));
+         if(!isValid(latitude, longitude)) return;
+         if(track != null) track.add(latitude, longitude);
+         else points.add(latitude, longitude);
+      }catch(Exception e){
+         //skip points without usable coordinates
+      }
+   }
+
+   /**
+    * Gets one field of a delimited line without splitting the whole line.
+    * @param line       The line
+    * @param column     The index of the field
+    * @param delimiter  The field delimiter
+    * @return           The field, or null if the line has fewer fields
+    */
+   private static String getField(String line, int column, char delimiter){
+      int start = 0;
+      for(int i=0;i<column;i++){
+         start = line.indexOf(delimiter, start);
+         if(start == -1) return null;
+         start++;
+      }
+      int end = line.indexOf(delimiter, start);
+      if(end == -1) end = line.length();
+      return line.substring(start, end);
+   }
+
+   /** Checks that a coordinate is on the map. */
+   private static boolean isValid(double latitude, double longitude){
+      return latitude >= -90.0 && latitude <= 90.0 && longitude >= -180.0 && longitude <= 180.0;
+   }
+
+   /** Opens a file for reading and resets the progress. */
+   private CountingInputStream open(File file) throws IOException{
+      fileLength = file.length();
+      lastPercent = -1;
+      return new CountingInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+   }
+
+   /**
+    * Reports how much of the file has been read.
+    * @return  False if the user asked to stop.
+    */
+   private boolean update(CountingInputStream in){
+      if(meter == null) return true;
+      if(meter.getStopFlag() && meter.isObject(owner)) return false;
+      int percent = (int)ProgressMeter.computePercent(in.getCount(), Math.max(1, fileLength));
+      if(percent != lastPercent){
+         lastPercent = percent;
+         meter.setPercent(percent, owner);
+      }
+      return true;
+   }
+
+   /**
+    * An input stream that counts the bytes read through it.
+    */
+   private static class CountingInputStream extends FilterInputStream{
+      private long count;
+
+      public CountingInputStream(InputStream in){
+         super(in);
+      }
+
+      public int read() throws IOException{
+         int b = super.read();
+         if(b != -1) count++;
+         return b;
+      }
+
+      public int read(byte[] b, int off, int len) throws IOException{
+         int n = super.read(b, off, len);
+         if(n > 0) count += n;
+         return n;
+      }
+
+      public long skip(long n) throws IOException{
+         long skipped = super.skip(n);
+         count += skipped;
+         return skipped;
+      }
+
+      /** Gets the number of bytes read. */
+      public long getCount(){
+         return count;
+      }
+   }
+
+}
@@ -121,6 +121,11 @@ public class GUI extends JFrame implements ActionListener, WindowListener, KeyLi
 
     private GApplicationState applicationState;
 
+   /**
+    * The journal saving overlay changes and pane views as they are made.
+    */
+   private GJournal journal;
+
    /**
     * The main method that creates a new window with the GUI class characteristics.
     *
@@ -274,6 +279,44 @@ public class GUI extends JFrame implements ActionListener, WindowListener, KeyLi
     * Set the current application state to one saved on the hard drive.
     */
    public void restoreApplicationState(){
+      //read the overlays while the panes are restored and the first one drawn; they are
+      //handed to the event thread once read
+      Thread overlayLoader = new Thread(new Runnable(){
+         public void run(){
+            final GDraw[] loadedGDraw = new GDraw[1];
+            final boolean[] restored = new boolean[1];
+            File file = new File("usergdraw.gmv");
+            try{
+               loadedGDraw[0] = GDrawFile.read(file);
+               restored[0] = true;
+            }catch(Exception e){
+               if(file.exists()) System.out.println("Problem: overlays could not be loaded from "+file+". {"+e+"}");
+            }
+            //if they are damaged, the previous generation is read instead, then the default overlays
+            File previous = new File(file.getPath()+".bak");
+            if(loadedGDraw[0] == null && previous.isFile()){
+               try{
+                  loadedGDraw[0] = GDrawFile.read(previous);
+                  System.out.println("Loaded the overlays from "+previous+".");
+               }catch(Exception e){
+                  System.out.println("Problem: overlays could not be loaded from "+previous+". {"+e+"}");
+               }
+            }
+            if(loadedGDraw[0] == null){
+               try{
+                  loadedGDraw[0] = GDrawFile.read(new File("defaultgdraw.gmv"));
+               }catch(Exception e){
+               }
+            }
+            SwingUtilities.invokeLater(new Runnable(){
+               public void run(){
+                  restoreOverlays(loadedGDraw[0], restored[0]);
+               }
+            });
+         }
+      }, "Overlay Loader");
+      overlayLoader.start();
+
       //application state
       applicationState = new GApplicationState(this, "userstate.gmv");
       try{
@@ -286,20 +329,23 @@ public class GUI extends JFrame implements ActionListener, WindowListener, KeyLi
             System.out.println("Problem: application state could not be loaded from userstate.gmv or defaultstate.gmv.");
          }
       }
-      //gdraw
-      try{
-         GDraw newGDraw = (GDraw)LibGUI.openStateFromFile(new File("usergdraw.gmv"));
-         newGDraw.getSize();
-         getGMap().setGDraw(newGDraw);
-      }catch(Exception e1){
-         try{
-            GDraw newGDrawDefault = (GDraw)LibGUI.openStateFromFile(new File("defaultgdraw.gmv"));
-            if(newGDrawDefault == null) newGDrawDefault = new GDraw();
-            getGMap().setGDraw(newGDrawDefault);
-         }catch(Exception e2){
-         }
-      }
+   }
+
+   /**
+    * Shows the overlays read at start and starts the journal after them.
+    * @param loadedGDraw   The overlays read, or null if none could be
+    * @param restored      Whether they were read from usergdraw.gmv itself, which the journal follows
+    */
+   private void restoreOverlays(GDraw loadedGDraw, boolean restored){
+      if(loadedGDraw != null) getGMap().setGDraw(loadedGDraw);
+      //changes made since the overlays were last saved; a snapshot that could not be read is kept aside with them
+      journal = new GJournal(this, new File("usergdraw.gmv"));
+      if(restored) journal.replay(getGMap().getGDraw());
+      else journal.setAside();
+      journal.start(getGMap().getGDraw());
 
+      //the first frame may have been drawn before the overlays were read
+      if(getTopPane() != null) getTopPane().draw();
    }
 
    /**
@@ -370,6 +416,14 @@ public class GUI extends JFrame implements ActionListener, WindowListener, KeyLi
       return applicationState;
    }
 
+   /**
+    * Gets the journal saving overlay changes and pane views as they are made.
+    * @return the journal, or null until the overlays are read at start
+    */
+   public GJournal getJournal(){
+      return journal;
+   }
+
 
    /**
     * It gets the tabbed pane.
@@ -593,8 +647,9 @@ public class GUI extends JFrame implements ActionListener, WindowListener, KeyLi
    public void windowClosed(WindowEvent e){}
    public void windowClosing(WindowEvent e){
       try{
-         LibGUI.saveStateToFile(new File("usergdraw.gmv"), getGMap().getGDraw());
          applicationState.saveState();
+         //until the overlays are read there is nothing to save, and usergdraw.gmv is left as it is
+         if(journal != null) journal.close();
       }catch(Exception ex){}
       System.exit(0);
    }
@@ -30,7 +30,9 @@ public class JMenuActionCacheSelected extends JMenuAction{
       this.zoomLevel = zoomLevel;
    }
 
-   /**Performs the actual caching
+   /**Performs the actual caching. The selected rectangle, or else a selected polygon, is
+    * cached at every level from the pane's down to this one; a download that was stopped
+    * goes on from where it was.
     *
     */
    public void run(){
@@ -38,23 +40,38 @@ public class JMenuActionCacheSelected extends JMenuAction{
       GPane pane = gui.getTopPane();
       if(pane == null) return;
 
-      //convert the rectangle to physical points at current zoom, return if rect is null
+      //the region: the selected rectangle, or a selected polygon
+      GDataSource source = gui.getGMap().getGDataSource(gui.getGMap().getMode());
+      GRegionDownloader downloader = null;
       Point upperLeft = pane.getUpperLeftPixel();
       Rectangle selectedRect = pane.getMouseRectanglePosition();
-      if(selectedRect == null) return ;
-      GPhysicalPoint physicalPoint1 = new GPhysicalPoint(upperLeft.x + selectedRect.x,upperLeft.y + selectedRect.y, pane.getZoom());
-      GPhysicalPoint physicalPoint2 = new GPhysicalPoint(upperLeft.x + selectedRect.x + selectedRect.width,upperLeft.y + selectedRect.y + selectedRect.height, pane.getZoom());
+      if(selectedRect != null){
+         GPhysicalPoint physicalPoint1 = new GPhysicalPoint(upperLeft.x + selectedRect.x,upperLeft.y + selectedRect.y, pane.getZoom());
+         GPhysicalPoint physicalPoint2 = new GPhysicalPoint(upperLeft.x + selectedRect.x + selectedRect.width,upperLeft.y + selectedRect.y + selectedRect.height, pane.getZoom());
+         downloader = new GRegionDownloader(source, physicalPoint1, physicalPoint2, zoomLevel, pane.getZoom());
+      }else{
+         ObjectContainer selected = gui.getGMap().getGDraw().getSelected();
+         for(int i=0;i<selected.getSize() && downloader == null;i++){
+            if(selected.get(i) instanceof GPolygon){
+               GPolygon polygon = (GPolygon)selected.get(i);
+               downloader = new GRegionDownloader(source, polygon.getLatitudes(), polygon.getLongitudes(), polygon.getSize(), zoomLevel, pane.getZoom());
+            }
+         }
+      }
+      if(downloader == null) return;
 
-      //use physical points to get the dimensions of the rectangle we need to cache
-      Rectangle toCache = new Rectangle();
-      toCache.x = physicalPoint1.getPixelX(zoomLevel);
-      toCache.y = physicalPoint1.getPixelY(zoomLevel);
-      toCache.width = physicalPoint2.getPixelX(zoomLevel) - toCache.x;
-      toCache.height = physicalPoint2.getPixelY(zoomLevel) - toCache.y;
-
-      //cache it
-      gui.getGMap().cacheImage(toCache.x, toCache.y, toCache.width, toCache.height, zoomLevel, pane);
-      gui.getGMap().getGDataSource().emptyQueue();
+      //cache it, reporting through the progress meter
+      EmbeddedProgressMeter meter = gui.getProgressMeter();
+      boolean grabbed = meter.grab(this);
+      if(grabbed){
+         meter.registerThread(Thread.currentThread(), this);
+         meter.setMessage("Counting tiles...", this);
+      }
+      try{
+         downloader.download(grabbed ? meter : null, this);
+      }finally{
+         if(grabbed) meter.release(this);
+      }
       pane.draw();
 
    }
@@ -0,0 +1,51 @@
+/**
+ * Action Class which gathers markers into one clustered GPointLayer. The selected markers
+ * are gathered, or every marker on the map if none are selected. A dense set of markers is
+ * then drawn as one glyph per cluster instead of one oval per marker.
+ */
+class JMenuActionClusterMarkers extends JMenuAction {
+
+   /**
+    * Constructor for the cluster markers action.
+    * @param registeredObject
+    */
+   public JMenuActionClusterMarkers(GUI registeredObject) {
+      super("Cluster Markers",registeredObject);
+   }
+
+   /**
+    * Run method for class.
+    */
+   public void run(){
+      GUI gui = (GUI) registeredObject;
+      GPane pane = gui.getTopPane();
+      GDraw gDraw = gui.getGMap().getGDraw();
+
+      //use the selection if there is one, otherwise the whole map
+      ObjectContainer selected = gDraw.getSelected();
+      boolean useSelection = false;
+      for(int i=0;i<selected.getSize();i++)
+         if(selected.get(i) instanceof GMarker) useSelection = true;
+
+      //move the markers into the layer
+      GPointLayer layer = new GPointLayer();
+      for(int i=gDraw.getSize()-1;i>=0;i--){
+         GDrawableObject object = gDraw.get(i);
+         if(!(object instanceof GMarker)) continue;
+         if(useSelection && selected.getIndex(object) == -1) continue;
+         GMarker marker = (GMarker)object;
+         if(layer.getSize() == 0) layer.setColor(marker.getColor());
+         layer.add(marker.getPoint());
+         gDraw.remove(i);
+      }
+
+      if(layer.getSize() == 0){
+         gui.getMessagePanel().setMessage("Cluster Markers", "There are no markers to cluster.");
+         return;
+      }
+      selected.removeAll();
+      gDraw.add(layer);
+      if(pane != null) pane.draw();
+   }
+
+}
@@ -35,7 +35,8 @@ class JMenuActionExit extends JMenuAction {
    public void run() {
       GUI gui = (GUI)registeredObject;
       gui.getApplicationState().saveState();
-      LibGUI.saveStateToFile(new File("usergdraw.gmv"), gui.getGMap().getGDraw());
+      //until the overlays are read there is nothing to save, and usergdraw.gmv is left as it is
+      if(gui.getJournal() != null) gui.getJournal().close();
       System.exit(0);
    }
 }
@@ -0,0 +1,119 @@
+import java.awt.*;
+import javax.swing.*;
+import java.io.*;
+import java.util.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+/**
+  * Menu action allowing the user to lay a large image over the map as a tiled raster layer. The
+  * image is placed by its world file when it has one; otherwise it fills the visible map.
+  */
+public class JMenuActionImportRaster extends JMenuAction{
+   /**Constructor for the import object.
+    * @param registeredObject The object to be registered with this menu action.
+    */
+   public JMenuActionImportRaster(GUI registeredObject) {
+      super("Import Raster",registeredObject);
+   }
+   /** Ask for an image, find where it goes and add a GRasterLayer for it to the GDraw */
+   public void run(){
+      GUI gui = (GUI)registeredObject;
+      //new instance of JFileChooser and a dialog window
+      JFileChooser loadFile = new JFileChooser();
+      JDialog dialog = new JDialog();
+      //show the new instance and declare return value for the instance
+      int returnVal = loadFile.showOpenDialog(dialog);
+      if(returnVal != JFileChooser.APPROVE_OPTION) return;
+      File selectedFile = loadFile.getSelectedFile();
+
+      try{
+         GRasterLayer layer = readWorldFile(selectedFile);
+         if(layer == null){
+            //no world file, so stretch the image over the visible map
+            GPane pane = gui.getTopPane();
+            if(pane == null) return;
+            int zoom = pane.getZoom();
+            Point upperLeft = pane.getUpperLeftPixel();
+            GPhysicalPoint corner1 = new GPhysicalPoint(upperLeft.x, upperLeft.y, zoom);
+            GPhysicalPoint corner2 = new GPhysicalPoint(upperLeft.x + pane.getWidth(), upperLeft.y + pane.getHeight(), zoom);
+            layer = new GRasterLayer(selectedFile.getPath(), corner1.getX(), corner1.getY(), corner2.getX(), corner2.getY());
+         }
+         gui.getGMap().getGDraw().add(layer);
+      }catch(IOException e){
+         gui.getMessagePanel().setException(e);
+      }
+      if(gui.getTopPane() != null) gui.getTopPane().draw();
+   }
+
+   /**
+    * Method to place an image by its world file, which holds the size of a pixel in degrees
+    * and the center of the upper left pixel. The world file is the image name with the
+    * extension's first and last letters followed by 'w' (photo.jpg gives photo.jgw), with
+    * the extension followed by 'w', or with .wld.
+    * @param image   The image file
+    * @return        The layer, or null if the image has no world file
+    * @throws IOException if the world file or the image can not be read
+    */
+   private static GRasterLayer readWorldFile(File image) throws IOException{
+      String name = image.getPath();
+      int dot = name.lastIndexOf('.');
+      String base = (dot > 0) ? name.substring(0, dot) : name;
+      String extension = (dot > 0) ? name.substring(dot+1) : "";
+      ArrayList<String> candidates = new ArrayList<String>();
+      if(extension.length() >= 2) candidates.add(base+"."+extension.charAt(0)+extension.charAt(extension.length()-1)+"w");
+      candidates.add(name+"w");
+      candidates.add(base+".wld");
+      File worldFile = null;
+      for(int i = 0; i < candidates.size() && worldFile == null; i++){
+         if(new File(candidates.get(i)).isFile()) worldFile = new File(candidates.get(i));
+      }
+      if(worldFile == null) return null;
+
+      //the six lines are A, D, B, E, C, F; rotation terms D and B are ignored
+      double[] terms = new double[6];
+      BufferedReader in = new BufferedReader(new FileReader(worldFile));
+      try{
+         for(int i = 0; i < terms.length; i++){
+            String line = in.readLine();
+            if(line == null) throw new IOException("Incomplete world file: "+worldFile);
+            try{
+               terms[i] = Double.parseDouble(line.trim());
+            }catch(NumberFormatException e){
+               throw new IOException("Invalid world file: "+worldFile);
+            }
+         }
+      }finally{
+         in.close();
+      }
+
+      Dimension size = readSize(image);
+      double west = terms[4] - terms[0]/2.0;
+      double north = terms[5] - terms[3]/2.0;
+      return new GRasterLayer(name, north, west, north + terms[3]*size.height, west + terms[0]*size.width);
+   }
+
+   /**
+    * Method to read the size of an image without decoding its pixels.
+    * @param image   The image file
+    * @return        The size
+    * @throws IOException if the image can not be read
+    */
+   private static Dimension readSize(File image) throws IOException{
+      ImageInputStream in = ImageIO.createImageInputStream(image);
+      if(in == null) throw new IOException("Can not read "+image);
+      try{
+         Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+         if(!readers.hasNext()) throw new IOException("Unknown image format: "+image);
+         ImageReader reader = readers.next();
+         try{
+            reader.setInput(in, true, true);
+            return new Dimension(reader.getWidth(0), reader.getHeight(0));
+         }finally{
+            reader.dispose();
+         }
+      }finally{
+         in.close();
+      }
+   }
+}
@@ -0,0 +1,56 @@
+import java.awt.*;
+import javax.swing.*;
+import java.io.*;
+
+/**
+  * Menu action allowing the user to import a GPS track or point file (GPX or CSV) as an overlay.
+  */
+public class JMenuActionImportTrack extends JMenuAction{
+   /**Constructor for the import object.
+    * @param registeredObject The object to be registered with this menu action.
+    */
+   public JMenuActionImportTrack(GUI registeredObject) {
+      super("Import Track",registeredObject);
+   }
+   /** Ask for a file, stream it into overlay layers and add them to the GDraw */
+   public void run(){
+      GUI gui = (GUI)registeredObject;
+      //new instance of JFileChooser and a dialog window
+      JFileChooser loadFile = new JFileChooser();
+      JDialog dialog = new JDialog();
+      //show the new instance and declare return value for the instance
+      int returnVal = loadFile.showOpenDialog(dialog);
+      if(returnVal != JFileChooser.APPROVE_OPTION) return;
+      File selectedFile = loadFile.getSelectedFile();
+
+      //a CSV file can be a track or a set of points
+      boolean asTrack = true;
+      boolean gpx = selectedFile.getName().toLowerCase().endsWith(".gpx");
+      if(!gpx){
+         Object[] options = {"Track", "Points"};
+         int choice = JOptionPane.showOptionDialog(gui, "Import the rows as one track or as separate points?", "Import Track", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+         if(choice == JOptionPane.CLOSED_OPTION) return;
+         asTrack = (choice == 0);
+      }
+
+      //report progress through the progress meter while the file is read
+      EmbeddedProgressMeter meter = gui.getProgressMeter();
+      boolean grabbed = meter.grab(this);
+      if(grabbed){
+         meter.registerThread(Thread.currentThread(), this);
+         meter.setMessage("Importing "+selectedFile.getName()+"...", this);
+      }
+      try{
+         GTrackImporter importer = new GTrackImporter(meter, this);
+         GDraw imported = gpx ? importer.importGPX(selectedFile) : importer.importCSV(selectedFile, asTrack);
+         if(imported == null) return;
+         if(imported.getSize() == 0) gui.getMessagePanel().setMessage("Import", "No coordinates found in "+selectedFile.getName()+".");
+         else gui.getGMap().getGDraw().add(imported);
+      }catch(IOException e){
+         gui.getMessagePanel().setException(e);
+      }finally{
+         if(grabbed) meter.release(this);
+      }
+      if(gui.getTopPane() != null) gui.getTopPane().draw();
+   }
+}
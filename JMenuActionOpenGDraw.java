@@ -39,9 +39,13 @@ public class JMenuActionOpenGDraw extends JMenuAction{
       switch(returnVal) {
          case JFileChooser.APPROVE_OPTION:
             selectedFile = loadFile.getSelectedFile();
-            GDraw newGDraw = (GDraw)LibGUI.openStateFromFile(selectedFile);
-            System.out.println(newGDraw);
-            gui.getGMap().setGDraw(newGDraw);
+            try{
+               GDraw newGDraw = GDrawFile.read(selectedFile);
+               System.out.println(newGDraw);
+               gui.getGMap().setGDraw(newGDraw);
+            }catch(IOException e){
+               gui.getMessagePanel().setException(e);
+            }
             break;
          case JFileChooser.CANCEL_OPTION:
             //Cancel button was clicked - do nothing
@@ -40,7 +40,11 @@ public class JMenuActionSaveGDraw extends JMenuAction{
          case JFileChooser.APPROVE_OPTION:
             selectedFile = loadFile.getSelectedFile();
             //selectedFile = new File("test.ser");
-            LibGUI.saveStateToFile(selectedFile, gui.getGMap().getGDraw());
+            try{
+               GDrawFile.write(gui.getGMap().getGDraw(), selectedFile);
+            }catch(IOException e){
+               gui.getMessagePanel().setException(e);
+            }
             System.out.println(gui.getGMap().getGDraw());
             break;
          case JFileChooser.CANCEL_OPTION:
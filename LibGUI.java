@@ -13,6 +13,9 @@ import java.net.*;
 import javax.imageio.ImageIO;
 import java.awt.geom.*;
 import java.awt.datatransfer.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.zip.*;
 
 
 /** Class defining a library for performing other common Java operations necessary for GUI operations */
@@ -105,49 +108,160 @@ public class LibGUI{
       return date.getTime();
    }
 
+   /** The first four bytes of a state file written by saveStateToFile: "GMVS" */
+   public static final int STATE_MAGIC = 0x474D5653;
+   /** The version of the state file header */
+   public static final int STATE_VERSION = 1;
+   /** The length of the state file header: magic, version, length and checksum */
+   private static final int STATE_HEADER = 24;
+
    /**
     * Method that saves the state of an object to a file using an output stream.
     * @param file The file to be created.
     * @param object The serializable object to be saved.
     */
    public static void saveStateToFile(File file, Serializable object){
-      FileOutputStream fos = null;
-      ObjectOutputStream out = null;
       try{
-         fos = new FileOutputStream(file);
-         out = new ObjectOutputStream(fos);
-         out.writeObject(object);
-         out.close();
+         writeState(file, object);
+      }catch(IOException ex){
+         System.out.println("Problem: state could not be saved to "+file+". {"+ex+"}");
+      }
+   }
+
+   /**
+    * Method that saves the state of an object without ever leaving a half written file. The
+    * object is written to a temporary file behind a header holding its length and checksum,
+    * forced to the disk, and moved over the file. The file it replaces is kept as the previous
+    * generation, with ".bak" added to its name, for openStateFromFile to fall back to.
+    * @param file The file to be created.
+    * @param object The serializable object to be saved.
+    * @throws IOException if the object could not be written
+    */
+   public static void writeState(File file, Serializable object) throws IOException{
+      File temp = new File(file.getPath()+".tmp");
+      FileOutputStream fos = new FileOutputStream(temp);
+      try{
+         try{
+            //the header is written last, once the length and checksum are known
+            fos.write(new byte[STATE_HEADER]);
+            CRC32 crc = new CRC32();
+            ObjectOutputStream out = new ObjectOutputStream(new CheckedOutputStream(new BufferedOutputStream(fos, 65536), crc));
+            out.writeObject(object);
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(STATE_HEADER);
+            header.putInt(STATE_MAGIC).putInt(STATE_VERSION).putLong(fos.getChannel().position() - STATE_HEADER).putLong(crc.getValue());
+            header.flip();
+            while(header.hasRemaining()) fos.getChannel().write(header, header.position());
+            fos.getFD().sync();
+         }finally{
+            fos.close();
+         }
+         //keep the last good generation, then put the new one in its place
+         keepPreviousGeneration(file);
+         replaceFile(temp, file);
+      }catch(IOException e){
+         temp.delete();
+         throw e;
       }
-      catch(IOException ex)
-      {
-         //System.out.println("Problem saving state to file.");
-         //ex.printStackTrace();
+   }
+
+   /**
+    * Method that keeps a file as the previous generation, with ".bak" added to its name,
+    * before a new one is put in its place.
+    * @param file The file about to be replaced.
+    * @throws IOException if the file could not be kept
+    */
+   public static void keepPreviousGeneration(File file) throws IOException{
+      if(!file.isFile()) return;
+      File previous = new File(file.getPath()+".bak");
+      Files.deleteIfExists(previous.toPath());
+      try{
+         Files.createLink(previous.toPath(), file.toPath());
+      }catch(Exception e){
+         Files.copy(file.toPath(), previous.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+
+   /**
+    * Method that puts a finished file in place of another, atomically where the file system
+    * allows it, so the file is always either the old one or the new one.
+    * @param source The finished file, already forced to the disk.
+    * @param file The file to replace.
+    * @throws IOException if the file could not be moved
+    */
+   public static void replaceFile(File source, File file) throws IOException{
+      try{
+         Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }catch(AtomicMoveNotSupportedException e){
+         Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
       }
    }
 
    /**
     * Method that retrieves the state of an object to a file using an input stream.
     * @param file The file to opened.
-    * @return The serializable object restored.
+    * @return The serializable object restored, or null if neither the file nor its previous generation could be read.
     */
    public static Serializable openStateFromFile(File file){
-      Serializable obj = null;
-      FileInputStream fis = null;
-      ObjectInputStream in = null;
       try{
-         fis = new FileInputStream(file);
-         in = new ObjectInputStream(fis);
-         obj = (Serializable)in.readObject();
-         in.close();
+         return readState(file);
+      }catch(Exception ex){
+         if(file.exists()) System.out.println("Problem: state could not be loaded from "+file+". {"+ex+"}");
+         return null;
       }
-      catch(IOException ex){
-         //ex.printStackTrace();
+   }
+
+   /**
+    * Method that reads the state of an object saved by writeState, or by the plain object
+    * streams used before it. If the file is missing, cut short or fails its checksum, the
+    * previous generation is read instead.
+    * @param file The file to opened.
+    * @return The serializable object restored.
+    * @throws IOException if neither the file nor its previous generation could be read
+    * @throws ClassNotFoundException if the state holds a class that is not known
+    */
+   public static Serializable readState(File file) throws IOException, ClassNotFoundException{
+      try{
+         return readStateGeneration(file);
+      }catch(IOException e){
+         File previous = new File(file.getPath()+".bak");
+         if(!previous.isFile()) throw e;
+         System.out.println("Problem: "+file+" is damaged; loading the previous state. {"+e+"}");
+         return readStateGeneration(previous);
       }
-      catch(ClassNotFoundException ex){
-         //ex.printStackTrace();
+   }
+
+   private static Serializable readStateGeneration(File file) throws IOException, ClassNotFoundException{
+      BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file), 65536);
+      try{
+         DataInputStream header = new DataInputStream(bis);
+         bis.mark(STATE_HEADER);
+         if(file.length() < STATE_HEADER || header.readInt() != STATE_MAGIC){
+            //a file from before the header
+            bis.reset();
+            return (Serializable)new ObjectInputStream(bis).readObject();
+         }
+         if(header.readInt() > STATE_VERSION) throw new IOException("Unknown state version in "+file);
+         long length = header.readLong();
+         long checksum = header.readLong();
+         if(length != file.length() - STATE_HEADER) throw new EOFException("State cut short in "+file);
+
+         //check the whole state before trusting any of it
+         CRC32 crc = new CRC32();
+         CheckedInputStream in = new CheckedInputStream(bis, crc);
+         byte[] buffer = new byte[65536];
+         while(in.read(buffer) != -1);
+         if(crc.getValue() != checksum) throw new StreamCorruptedException("State checksum failed in "+file);
+      }finally{
+         bis.close();
+      }
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+      try{
+         in.skipBytes(STATE_HEADER);
+         return (Serializable)new ObjectInputStream(in).readObject();
+      }finally{
+         in.close();
       }
-      return obj;
    }
 
     /** If an image is on the system clipboard, this method returns it;